@@ -18,17 +18,22 @@ along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
 
 package controller;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
-import javax.swing.tree.DefaultMutableTreeNode;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import model.Bitboard;
 import model.Move;
 import model.Node;
+import model.PackedMove;
 import model.Piece;
 import model.PieceArray;
+import model.Position;
+import model.TranspositionTable;
 import utils.Constants;
+import utils.Constants.ParallelSearch;
 import utils.Log;
 
 /**
@@ -45,45 +50,205 @@ import utils.Log;
  */
 public class AI {
 
-	Controller controller;
+	Engine engine;
 	boolean debug = true;
 	boolean printThinkingProgress = false;
 	Log log = new Log();
 	int nodesVisited = 0;
 	int depth;
 	long initTime = 0;
-	Node bestNode;
-	ArrayList<Node> localPV;
-	ArrayList<Node> masterPV = new ArrayList<Node>();
-	ArrayList<ArrayList<Move>> killerMoves = new ArrayList<ArrayList<Move>>(
-			Constants.getDepth() + 1);
-	Node[] PV;
+	int bestMove;
 	int nodesPerLevel[];
-	boolean isNullMoveBranch = false;
-	static NodeComparator nodeComparator;
 	boolean isThinking = false;
 	int branchCounter;
 	int numBranches;
 
+	// What the current search is allowed to spend, and how far it has got.
+	// searchDepth is the deepest iteration it may start. The soft time limit
+	// is checked between iterations. The hard time limit and the node limit
+	// are checked every few nodes, and a stop request at every node; they
+	// abort the iteration they happen in.
+	SearchLimits limits;
+	int searchDepth;
+	long nodes;
+	long startTime;
+	long softTimeLimit;
+	long hardTimeLimit;
+	volatile boolean isHardLimitReached;
+	volatile boolean isStopRequested;
+	double rootScore;
+
+	// How often an iteration of the current search fell outside its
+	// aspiration window and had to be searched again
+	int aspirationFailLows;
+	int aspirationFailHighs;
+	SearchListener searchListener;
+
+	// Everything the search needs per ply is allocated once up front, so
+	// searching doesn't create any objects. movePickers[ply] hands out the
+	// moves searched at that ply; moveStack[ply] holds moves generated all at
+	// once, for counting the root moves, and the moves left at a YBW split.
+	int[][] moveStack;
+	MovePicker[] movePickers;
+
+	// processMove and undoChanges still work on Move objects, so each ply
+	// reuses one Move. Everything else needed to undo it is kept by the
+	// position.
+	Move[] moveObjects;
+
+	// Triangular PV table: pvTable[ply] holds the best line found from ply,
+	// pvLength[ply] moves long. masterPV is the line from the last completed
+	// iteration, searched first in the next one.
+	int[][] pvTable;
+	int[] pvLength;
+	int[] masterPV;
+	int masterPVLength;
+	boolean followPV;
+
+	// Two quiet moves per ply that caused a beta cutoff
+	int[][] killerMoves;
+
+	// Null move pruning: isNullMove[ply] is set while the null move made at
+	// ply is searched, so the next ply doesn't pass again. No null move is
+	// tried above nullMoveMinPly, which a verification search raises.
+	boolean[] isNullMove;
+	int nullMoveMinPly;
+
+	// Scratch buffer for counting moves in the evaluation
+	int[] evaluationMoves;
+
+	// Results of earlier searches by Zobrist key, and the entry probes are
+	// copied into
+	TranspositionTable transpositionTable;
+	TranspositionTable.Entry hashEntry;
+
+	// Lazy SMP: with more than one thread set in Constants, helper searches
+	// run alongside this one on their own copies of the engine. They only
+	// share the transposition table, so they fill it with results this
+	// search picks up. Odd helpers search one ply deeper every iteration so
+	// the threads don't all walk the same tree in the same order. Only this
+	// search's result is used.
+	boolean isHelper;
+	int depthOffset;
+	AI[] helpers = new AI[0];
+	Thread[] helperThreads = new Thread[0];
+
+	// How often a stopped helper is checked for having finished, in
+	// milliseconds
+	private final static int helperJoinInterval = 10;
+
+	// Young Brothers Wait, the other parallel search: splitPool is set while
+	// a YBW search runs. Each of its worker threads searches on one copy of
+	// the engine, made from the root position when the thread starts, and
+	// plays the line to a split point before searching a move there. The
+	// copies share the transposition table, but while a split runs nothing
+	// stores into it: each task, whichever thread runs it, stores into a
+	// table of its own emptied when the task starts, and looks there first.
+	// A task's result then doesn't depend on what other threads have done,
+	// and neither does the search. Once the split is done, what the tasks
+	// it used stored is stored again by the search that split, in move
+	// order. splitTables[splitLevel] is the table of the task being searched,
+	// splitLevel counting the tasks this copy is in (0 for none, when the
+	// shared table is used). splitPoint is set while a copy searches for a
+	// split point, and it gives up when the split does.
+	// line[ply] is the move made at ply, PackedMove.NONE for a null move.
+	ForkJoinPool splitPool;
+	SplitPoint splitPoint;
+	TranspositionTable[] splitTables;
+	SplitTask[] splitTasks;
+	int splitLevel;
+	int[] line;
+
+	// Width of the zero window used to test moves after the first
+	private final static double nullWindow = 0.00000001;
+
+	// Mate scores are stored relative to the position instead of the root
+	// above this
+	private final static double mateThreshold = Constants.getCheckMateScore()
+			- Constants.getMaxSearchPly();
+
+	// Material weight of each piece type, indexed by Position.PAWN ... KING
+	private final static int[] pieceWeights = { Constants.getPawnweight(),
+			Constants.getKnightweight(), Constants.getBishopweight(),
+			Constants.getRookweight(), Constants.getQueenweight(),
+			Constants.getKingweight() };
+
+	// Nodes up to this far from the horizon are evaluated for frontier
+	// pruning
+	private final static int frontierDepth = Math.max(
+			Constants.getFutilityDepth(),
+			Math.max(Constants.getReverseFutilityDepth(),
+					Constants.getRazoringDepth()));
+
+	// Late move reductions by depth left and move number, both counted from
+	// 1. Both index ranges are capped; the log barely grows past them.
+	private final static int[][] lateMoveReductions = new int[Constants
+			.getMaxSearchPly()][Constants.getMaxMovesPerPosition() / 4];
+
+	static {
+		for (int depth = 1; depth < lateMoveReductions.length; depth++)
+			for (int moveNumber = 1; moveNumber < lateMoveReductions[depth].length; moveNumber++)
+				lateMoveReductions[depth][moveNumber] = (int) (Constants
+						.getLateMoveReductionBase() + Math.log(depth)
+						* Math.log(moveNumber)
+						/ Constants.getLateMoveReductionDivisor());
+	}
+
 	/**
-	 * Constructor
+	 * Returns the material weight of a piece type (Position.PAWN ... KING)
 	 * 
-	 * @param controllerIn
+	 * @param pieceType
+	 * @return
 	 */
-	public AI(Controller controllerIn) {
-		this.controller = controllerIn;
+	public static int getPieceWeight(int pieceType) {
+		return pieceWeights[pieceType];
+	}
 
-		for (int i = 0; i < Constants.getDepth() + 1; i++)
-			killerMoves.add(new ArrayList<Move>());
+	/**
+	 * Constructor
+	 * 
+	 * @param engineIn
+	 */
+	public AI(Engine engineIn) {
+		this(engineIn, new TranspositionTable(engineIn.getOptions()
+				.getHashSize()));
+	}
 
-		PV = new Node[10];
-		this.nodeComparator = new NodeComparator();
+	/**
+	 * Constructor for an AI that shares <code>transpositionTableIn</code> with
+	 * other searches. The table needs no locking.
+	 * 
+	 * @param engineIn
+	 * @param transpositionTableIn
+	 */
+	public AI(Engine engineIn, TranspositionTable transpositionTableIn) {
+		this.engine = engineIn;
+
+		int maxPly = Constants.getMaxSearchPly();
+		int maxMoves = Constants.getMaxMovesPerPosition();
+
+		moveStack = new int[maxPly][maxMoves];
+		movePickers = new MovePicker[maxPly];
+		moveObjects = new Move[maxPly];
+		pvTable = new int[maxPly][maxPly];
+		pvLength = new int[maxPly];
+		masterPV = new int[maxPly];
+		killerMoves = new int[maxPly][2];
+		line = new int[maxPly];
+		splitTables = new TranspositionTable[maxPly];
+		splitTasks = new SplitTask[maxPly];
+		isNullMove = new boolean[maxPly];
+		evaluationMoves = new int[maxMoves];
+		transpositionTable = transpositionTableIn;
+		hashEntry = new TranspositionTable.Entry();
 
 		// Initialization
-		for (int i = 0; i < 10; i++)
-			PV[i] = null;
+		for (int i = 0; i < maxPly; i++) {
+			moveObjects[i] = new Move(null, 0, 0, 0, 0);
+			movePickers[i] = new MovePicker(engine.getMoveGenerator());
+		}
 
-		nodesPerLevel = new int[20];
+		nodesPerLevel = new int[maxPly];
 	}
 
 	/**
@@ -99,7 +264,8 @@ public class AI {
 		// The real method that generates and evaluates moves
 		chooseMove(isWhiteTurn);
 
-		node = bestNode;
+		if (bestMove != PackedMove.NONE)
+			node = new Node(engine.getMoveGenerator().toMove(bestMove));
 		nodesVisited = 0;
 
 		// Set flag back to false since we've picked the move we want.
@@ -108,44 +274,283 @@ public class AI {
 	}
 
 	/**
-	 * This method deepens iteratively and calls the pvSearch method, building
-	 * up the masterPV array with the most probably variation, and then returns
-	 * the first move in that sequence.
+	 * Searches to the depth set in Constants, for at most the move time set
+	 * there, and keeps the move found as bestMove.
 	 * 
 	 * @param isWhiteTurn
 	 */
 	public void chooseMove(boolean isWhiteTurn) {
+		SearchLimits guiLimits = new SearchLimits(Constants.getDepth());
+		guiLimits.setMoveTime(engine.getOptions().getMoveTime());
+		chooseMove(isWhiteTurn, guiLimits);
+	}
 
-		// Initialize alpha and beta
-		double alpha = -Constants.getCheckMateScore();
-		double beta = Constants.getCheckMateScore();
+	/**
+	 * This method deepens iteratively and calls the pvSearch method, building
+	 * up the masterPV array with the most probably variation, and then keeps
+	 * the first move in that sequence as bestMove.
+	 * 
+	 * Before each new iteration the limits are checked: the depth, the node
+	 * count, a stop request and the soft time limit (see SearchLimits). Once
+	 * an iteration is done, the hard time limit and the node count are also
+	 * checked while searching, and a stop request is checked at every node.
+	 * If one of them ends the search the iteration is abandoned: the search
+	 * unwinds, taking back its moves as usual, and the move of the last
+	 * completed iteration is kept. Infinite and ponder searches only end on a
+	 * stop request (or at the deepest ply the search can reach).
+	 * 
+	 * @param isWhiteTurn
+	 * @param limitsIn
+	 */
+	public void chooseMove(boolean isWhiteTurn, SearchLimits limitsIn) {
+
+		// The full window is one wider than a checkmate so the first root move
+		// always raises alpha, even when it gets mated.
+		double fullAlpha = -Constants.getCheckMateScore() - 1;
+		double fullBeta = Constants.getCheckMateScore() + 1;
+		double alpha;
+		double beta;
 
 		// Reset Branch counter
 		branchCounter = 0;
-		Node parentNode = controller.gameTreeController.root;
+		bestMove = PackedMove.NONE;
+		masterPVLength = 0;
 
 		initializeKillerMoveArrays();
+		// Helpers share this search's table and generation, which the main
+		// search advanced before starting them
+		if (!isHelper)
+			transpositionTable.newSearch();
+
+		limits = limitsIn;
+		searchDepth = Constants.getMaxSearchPly() - 1;
+		if (limits.getDepth() > 0)
+			searchDepth = Math.min(limits.getDepth(), searchDepth);
+		nodes = 0;
+		startTime = System.currentTimeMillis();
+		softTimeLimit = limits.getSoftTimeLimit(isWhiteTurn);
+		hardTimeLimit = limits.getHardTimeLimit(isWhiteTurn);
+		isHardLimitReached = false;
+		isStopRequested = false;
+		aspirationFailLows = 0;
+		aspirationFailHighs = 0;
+
+		EngineOptions options = engine.getOptions();
+		if (!isHelper && options.getThreads() > 1) {
+			// This thread searches at the split points too, so the pool
+			// has one thread less
+			if (options.getParallelSearch() == ParallelSearch.YBW)
+				splitPool = new ForkJoinPool(options.getThreads() - 1,
+						new SplitWorkerFactory(new Engine(engine)), null, false);
+			else
+				startHelpers(isWhiteTurn);
+		}
 
 		// Iterative deepening loop
-		for (int depth = 1; depth <= Constants.getDepth(); depth++) {
-			this.depth = depth;
+		for (int depth = 1; depth <= searchDepth; depth++) {
+			this.depth = Math.min(depth + depthOffset, searchDepth);
+
+			// Aspiration window: once the score has settled, search only a
+			// narrow window around the last iteration's score. The search is
+			// fail-hard, so a result on a bound means the score is outside the
+			// window; that side is widened by twice the last step and the
+			// iteration searched again. After a few doublings, or for a mate
+			// score, the full window is used.
+			double delta = Constants.getAspirationWindow();
+			int widenings = 0;
+			alpha = fullAlpha;
+			beta = fullBeta;
+			if (depth >= Constants.getMinAspirationDepth()
+					&& Math.abs(rootScore) < mateThreshold) {
+				alpha = rootScore - delta;
+				beta = rootScore + delta;
+			}
 
-			if (depth == Constants.getDepth()) {
-				numBranches = parentNode.getChildren().size();
+			double result;
+			while (true) {
+
+				// Call the real search method, following the previous PV first
+				followPV = true;
+				result = pvSearch(alpha, beta, this.depth, isWhiteTurn, 0);
+				if (isAborted())
+					break;
+
+				if (result <= alpha && alpha > fullAlpha) {
+					aspirationFailLows++;
+					delta = 2 * delta;
+					alpha = result - delta;
+					if (++widenings >= Constants.getMaxAspirationWidenings())
+						alpha = fullAlpha;
+				} else if (result >= beta && beta < fullBeta) {
+					aspirationFailHighs++;
+					delta = 2 * delta;
+					beta = result + delta;
+					if (++widenings >= Constants.getMaxAspirationWidenings())
+						beta = fullBeta;
+				} else
+					break;
 			}
+			if (isAborted())
+				break;
+			rootScore = result;
 
-			// Call the real search method
-			pvSearch(alpha, beta, depth, isWhiteTurn, parentNode);
+			masterPVLength = pvLength[0];
+			System.arraycopy(pvTable[0], 0, masterPV, 0, masterPVLength);
 
-			masterPV = new ArrayList<Node>();
-			masterPV.addAll(this.localPV);
+			if (searchListener != null)
+				searchListener.iterationFinished(depth, rootScore,
+						getTotalNodes(), System.currentTimeMillis() - startTime,
+						masterPV, masterPVLength);
 
+			if (isIterationLimitReached())
+				break;
 		}
-		
-	
-		// The first node in the PV is the one we've chosen
-		bestNode = this.masterPV.get(0);
 
+		stopHelpers();
+		if (splitPool != null) {
+			splitPool.shutdown();
+			splitPool = null;
+		}
+
+		// The first move in the PV is the one we've chosen. If even the first
+		// iteration was stopped, the best root move searched so far is kept,
+		// or failing that any legal move.
+		if (masterPVLength > 0)
+			bestMove = masterPV[0];
+		else if (bestMove == PackedMove.NONE
+				&& engine.getMoveGenerator().generateMoves(isWhiteTurn,
+						moveStack[0]) > 0)
+			bestMove = moveStack[0][0];
+	}
+
+	/**
+	 * Starts one helper search per extra thread set in Constants, each on its
+	 * own copy of the engine at the current position. Helpers search to the
+	 * same depth as this search, or until they are stopped.
+	 * 
+	 * @param isWhiteTurn
+	 */
+	private void startHelpers(final boolean isWhiteTurn) {
+		int count = engine.getOptions().getThreads() - 1;
+		helpers = new AI[count];
+		helperThreads = new Thread[count];
+
+		for (int i = 0; i < count; i++) {
+			final AI helper = new Engine(engine).getAI();
+			final SearchLimits helperLimits = new SearchLimits(searchDepth);
+			helper.isHelper = true;
+			helper.depthOffset = (i + 1) % 2;
+
+			helpers[i] = helper;
+			helperThreads[i] = new Thread(new Runnable() {
+				public void run() {
+					helper.chooseMove(isWhiteTurn, helperLimits);
+				}
+			});
+			helperThreads[i].start();
+		}
+	}
+
+	/**
+	 * Stops the helper searches and waits for them to finish. A stopped
+	 * helper gives up the iteration it is in.
+	 */
+	private void stopHelpers() {
+		for (int i = 0; i < helperThreads.length; i++) {
+			while (helperThreads[i].isAlive()) {
+				helpers[i].stop();
+				try {
+					helperThreads[i].join(helperJoinInterval);
+				} catch (InterruptedException interruptedException) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the search has run out of its hard limits or has been
+	 * asked to stop, directly or (on a YBW worker) through the split point it
+	 * searches for. Only a few volatile reads per level of splitting, so it is
+	 * checked at every node. An aborted search's result won't be used, so it
+	 * unwinds without storing anything.
+	 * 
+	 * @return
+	 */
+	private boolean isAborted() {
+		return isHardLimitReached || isStopRequested
+				|| (splitPoint != null && splitPoint.isAborted());
+	}
+
+	/**
+	 * Returns the nodes searched so far by this search and its helpers
+	 * 
+	 * @return
+	 */
+	public long getTotalNodes() {
+		long result = nodes;
+		for (AI helper : helpers)
+			result += helper.getNodes();
+		return result;
+	}
+
+	/**
+	 * Returns true if the limits of the current search say no further
+	 * iteration should be started.
+	 * 
+	 * @return
+	 */
+	private boolean isIterationLimitReached() {
+		if (isStopRequested)
+			return true;
+		if (limits.isInfinite() || limits.isPonder())
+			return false;
+		if (limits.getNodes() > 0 && getTotalNodes() >= limits.getNodes())
+			return true;
+		return softTimeLimit > 0
+				&& System.currentTimeMillis() - startTime >= softTimeLimit;
+	}
+
+	/**
+	 * Called every Constants.getNodesBetweenLimitChecks() nodes. Aborts the
+	 * search if the hard time limit or the node limit has run out, but only
+	 * once an iteration has finished, so there is always a move to play. YBW
+	 * workers check for the search that split, which waits for them.
+	 */
+	private void checkHardLimits() {
+		if (splitPoint != null) {
+			splitPoint.owner.checkHardLimits();
+			return;
+		}
+		if (limits == null || isHelper || masterPVLength == 0
+				|| limits.isInfinite() || limits.isPonder())
+			return;
+
+		if (hardTimeLimit > 0
+				&& System.currentTimeMillis() - startTime >= hardTimeLimit)
+			isHardLimitReached = true;
+		if (limits.getNodes() > 0 && getTotalNodes() >= limits.getNodes())
+			isHardLimitReached = true;
+	}
+
+	/**
+	 * Asks the running search to stop. It can be called from any thread. The
+	 * search notices at its next node, takes back the moves it has made and
+	 * keeps the move of the last iteration it finished. A stop before the
+	 * search starts is lost, so callers that have to be sure keep calling it
+	 * until the searching thread has ended.
+	 */
+	public void stop() {
+		isStopRequested = true;
+	}
+
+	/**
+	 * The move being pondered on was played, so the search switches to its
+	 * normal limits. The time budget counts from now.
+	 */
+	public void ponderHit() {
+		startTime = System.currentTimeMillis();
+		limits.setPonder(false);
 	}
 
 	/**
@@ -156,394 +561,758 @@ public class AI {
 		if (printThinkingProgress)
 			System.out.println("Nodes visited: " + nodesVisited);
 
-		int pvCounter = 1;
 		System.out.println("AI is expecting this variation:");
-		for (Node node : this.masterPV) {
-			System.out.println(pvCounter++ + ": "
-					+ node.getMove().coloredAlgebraicNotationPrint());
-		}
+		for (int i = 0; i < masterPVLength; i++)
+			System.out.println((i + 1) + ": "
+					+ PackedMove.toString(masterPV[i]));
 	}
 
 	/**
-	 * Empty the arraylist of arraylists of killer moves
+	 * Clears the killer moves
 	 */
 	private void initializeKillerMoveArrays() {
 
-		for (int i = 0; i <= Constants.getDepth(); i++)
-			killerMoves.get(i).removeAll(killerMoves.get(i));
-
+		for (int i = 0; i < killerMoves.length; i++) {
+			killerMoves[i][0] = PackedMove.NONE;
+			killerMoves[i][1] = PackedMove.NONE;
+		}
 	}
 
 	/**
-	 * Updates the arrays that hold killer moves. This gets called whenever the
-	 * user changes the depth the AI is searching to.
+	 * This gets called whenever the user changes the depth the AI is searching
+	 * to. Killer moves are kept per ply for every ply the search can reach, so
+	 * they only need clearing.
 	 */
 	public void resizeKillerMoveArrays() {
-		killerMoves = new ArrayList<ArrayList<Move>>(Constants.getDepth() + 1);
-		for (int i = 0; i < Constants.getDepth() + 1; i++)
-			killerMoves.add(new ArrayList<Move>());
-
+		initializeKillerMoveArrays();
 	}
 
 	double pvSearch(double alpha, double beta, int depthleft,
-			boolean isWhiteTurn, Node parentNode) {
-		Node pv = null;
+			boolean isWhiteTurn, int ply) {
 		double score = 0.0;
-		long startTime = 0;
-		int i = 0;
-		boolean tmpHasMoved;
-		boolean bSearchPv = true;
-		boolean exploringPV = false;
-
-		validateBoardInSync();
-		score = checkPVsearchTerminationConditions(parentNode, alpha, beta,
-				depthleft, isWhiteTurn);
-		// Termination condition
-		if (depthleft == 0) {
-			this.localPV = new ArrayList<Node>();
-			this.localPV.add(parentNode);
-			return quiesce(alpha, beta, isWhiteTurn, parentNode, depthleft);
-		}
-		if (controller.isDrawByThreefoldRepitition()) {
-			this.localPV = new ArrayList<Node>();
-			this.localPV.add(parentNode);
+		boolean isOnPV = followPV;
+		boolean isPVNode = beta - alpha > nullWindow;
+		double originalAlpha = alpha;
+		int bestMoveHere = PackedMove.NONE;
+
+		nodes++;
+		followPV = false;
+		pvLength[ply] = 0;
+
+		if ((nodes & (Constants.getNodesBetweenLimitChecks() - 1)) == 0)
+			checkHardLimits();
+		if (isAborted())
+			return 0;
+
+		// Termination condition. Repetitions are checked first, so one
+		// reached at the horizon isn't left to the quiescence search.
+		if (ply > 0 && getPosition().isDrawByRepetition(ply))
 			return Constants.getDrawScore();
+		if (depthleft == 0)
+			return quiesce(alpha, beta, isWhiteTurn, ply);
+		if (ply >= Constants.getMaxSearchPly() - 1)
+			return evaluate(isWhiteTurn, false);
+
+		// A result from the transposition table can end the search here at a
+		// zero window node. At PV nodes it only supplies the move to try
+		// first, so the PV is never cut short.
+		long key = getPosition().getKey();
+		int hashMove = PackedMove.NONE;
+		if (probeHash(key)) {
+			hashMove = hashEntry.getMove();
+			if (!isPVNode && hashEntry.getDepth() >= depthleft) {
+				double hashScore = scoreFromTable(hashEntry.getScore(), ply);
+				int bound = hashEntry.getBound();
+
+				if (hashScore >= beta && bound != TranspositionTable.UPPER_BOUND)
+					return beta;
+				if (hashScore <= alpha && bound != TranspositionTable.LOWER_BOUND)
+					return alpha;
+				if (bound == TranspositionTable.EXACT)
+					return hashScore;
+			}
 		}
-		if (score != 0)
-			return score;
 
-		ArrayList<Node> localPV = new ArrayList<Node>();
-
-		if (parentNode.getChildren().size() == 0)
-			populateChildren(parentNode, isWhiteTurn, depthleft);
-
-		// We should always start with PV if on first ply of search, if it
-		// isn't null
+		boolean isInCheck = inCheck(isWhiteTurn);
+
+		// Frontier pruning: at zero window nodes a few plies from the
+		// horizon, a static evaluation far from the window decides the node
+		// or its quiet moves without searching them
+		boolean isFutile = false;
+		if (!isPVNode && !isInCheck && depthleft <= frontierDepth
+				&& Math.abs(beta) < mateThreshold) {
+			double staticScore = evaluate(isWhiteTurn, false);
+
+			// Reverse futility: so far above beta that the other side isn't
+			// expected to get back below it in the plies left
+			if (depthleft <= Constants.getReverseFutilityDepth()
+					&& staticScore
+							- getPruningMargin(
+									Constants.getReverseFutilityMargin(),
+									depthleft) >= beta)
+				return beta;
 
-		// If the established PV is longer than the chain we're looking at,
-		// then there's at least one move we might consider
-		boolean isDeepEnough = masterPV.size() > this.depth + 1 - depthleft;
+			// Razoring: so far below alpha that only a capture could help,
+			// so the quiescence search decides if the node is worth searching
+			if (depthleft <= Constants.getRazoringDepth()
+					&& staticScore
+							+ getPruningMargin(Constants.getRazoringMargin(),
+									depthleft) <= alpha) {
+				score = quiesce(alpha, beta, isWhiteTurn, ply);
+				if (isAborted())
+					return 0;
+				if (score <= alpha)
+					return alpha;
+			}
 
-		if (isDeepEnough && validatePV(parentNode, depthleft)) {
-			prioritizeNode(parentNode,
-					this.masterPV.get(this.depth + 1 - depthleft));
-			exploringPV = true;
+			// Futility: too far below alpha for a quiet move to raise it
+			isFutile = depthleft <= Constants.getFutilityDepth()
+					&& staticScore
+							+ getPruningMargin(Constants.getFutilityMargin(),
+									depthleft) <= alpha;
 		}
 
-		for (int j = 0; j < parentNode.getChildren().size(); j++) {
-
-			updateBranchCounter(depthleft, j);
-			Node node = parentNode.getChildren().get(j);
-			Move move = node.getMove();
-
-			Piece capturedPiece = RuleEngine.processMove(move);
-			tmpHasMoved = move.getPiece().isHasMoved();
-			move.getPiece().setHasMoved(true);
-
-//			// Null move addition BEGIN
-//			 if ((!(exploringPV && j == 0))&&
-//			 (depthleft-1-Constants.getNullMoveReduction()>0) ){ // If we're
-//			 //looking at PV and on the first child move, we're continuing PV
-//			 if (!inCheck(isWhiteTurn)){
-//			 isNullMoveBranch = true;
-//			 // System.out.println(depthleft-1-Constants.getNullMoveReduction());
-//			
-//			 ArrayList <Node> realChildren = new ArrayList<Node>();
-//			 realChildren.addAll(parentNode.getChildren());
-//			
-//			 parentNode.getChildren().removeAll(parentNode.getChildren());
-//			 populateChildren(parentNode,
-//			 !isWhiteTurn,depthleft-1-Constants.getNullMoveReduction());
-//			
-//			 score = -pvSearch(-beta,-alpha,
-//			 depthleft-1-Constants.getNullMoveReduction(),
-//			 isWhiteTurn,parentNode);
-//			
-//			 parentNode.getChildren().removeAll(parentNode.getChildren());
-//			 parentNode.getChildren().addAll(realChildren);
-//			
-//			 isNullMoveBranch = false;
-//			
-//			 if(score >= beta){
-//			 RuleEngine.undoChanges(capturedPiece, move);
-//			 move.getPiece().setHasMoved(tmpHasMoved);
-//			 return score; // Cutoff
-//			 }
-//			 }
-//			
-//			 }
-			// Null move addition END
-
-			// PV backend
-			if (bSearchPv) {
-				score = -pvSearch(-beta, -alpha, depthleft - 1, !isWhiteTurn,
-						node);
-			} else {
-				score = -pvSearch(-alpha - 0.00000001, -alpha, depthleft - 1,
-						!isWhiteTurn, node);
-				if (score > alpha) {
-					score = -pvSearch(-beta, -alpha, depthleft - 1,
-							!isWhiteTurn, node); // re-search
-				}
+		// Null move pruning: let the other side move twice. If a search of
+		// that still doesn't get below beta, a real move would most likely
+		// fail high too, so the node is cut off after a much smaller search.
+		// Deep cutoffs are first verified by a reduced search of the real
+		// moves, with no null moves in its first plies, so zugzwang positions
+		// the other checks miss aren't cut off wrongly.
+		if (isNullMoveAllowed(isPVNode, beta, depthleft, isWhiteTurn,
+				isInCheck, ply)) {
+			int reduction = getNullMoveReduction(depthleft);
+
+			getPosition().makeNullMove();
+			line[ply] = PackedMove.NONE;
+			isNullMove[ply] = true;
+			score = -pvSearch(-beta, -beta + nullWindow,
+					Math.max(depthleft - 1 - reduction, 0), !isWhiteTurn,
+					ply + 1);
+			isNullMove[ply] = false;
+			getPosition().unmakeNullMove();
+			if (isAborted())
+				return 0;
+
+			if (score >= beta
+					&& depthleft >= Constants.getNullMoveVerificationDepth()) {
+				int oldNullMoveMinPly = nullMoveMinPly;
+				nullMoveMinPly = ply + 3 * (depthleft - reduction) / 4;
+				score = pvSearch(beta - nullWindow, beta, depthleft - reduction,
+						isWhiteTurn, ply);
+				nullMoveMinPly = oldNullMoveMinPly;
+				if (isAborted())
+					return 0;
 			}
+			if (score >= beta)
+				return beta;
+		}
+
+		if (ply == 0 && depthleft == searchDepth)
+			numBranches = engine.getMoveGenerator().generateMoves(
+					isWhiteTurn, moveStack[ply]);
+
+		// We should always start with the PV move if we got here by following
+		// the PV from the previous iteration
+		int pvMove = PackedMove.NONE;
+		if (isOnPV && ply < masterPVLength)
+			pvMove = masterPV[ply];
+
+		MovePicker movePicker = movePickers[ply];
+		movePicker.init(isWhiteTurn, pvMove, hashMove, killerMoves[ply], false);
+
+		int movesSearched = 0;
+		int move;
+		while ((move = movePicker.nextMove()) != PackedMove.NONE) {
+
+			updateBranchCounter(ply, movesSearched);
+			movesSearched++;
+
+			score = searchMove(move, alpha, beta, depthleft, isWhiteTurn, ply,
+					movesSearched, isPVNode, isInCheck, isFutile, isOnPV
+							&& move == pvMove);
 
-			if(depthleft == Constants.getDepth())
-			log.info(node.getMove().coloredAlgebraicNotationPrint() + ": " + score);
-			
-			RuleEngine.undoChanges(capturedPiece, move);
-			move.getPiece().setHasMoved(tmpHasMoved);
+			// An aborted search's result isn't used, so it unwinds right away
+			// without storing anything
+			if (isAborted())
+				return 0;
 
 			// Fail hard beta-cutoff
 			if (score >= beta) {
 
-				// If the current move isn't already a killer move, make it one
-				boolean nodeFound = false;
-				for (Move killerNode : killerMoves.get(depthleft))
-					if (killerNode.equals(node.getMove()))
-						nodeFound = true;
-				if (!nodeFound) {
-					killerMoves.get(depthleft).add(node.getMove());
-
-				}
+				// If the current move is quiet, make it a killer move
+				if (!PackedMove.isCapture(move))
+					storeKillerMove(move, ply);
+				storeHash(key, depthleft, TranspositionTable.LOWER_BOUND,
+						scoreToTable(beta, ply), move);
 				return beta;
 			}
 
 			// Tighten the alpha bound
 			if (score > alpha) {
 				alpha = score;
-				pv = node;
-				localPV = this.localPV;
+				bestMoveHere = move;
+				updatePV(move, ply);
 
 				// If we are in the first recursive call, save the best move
 				// so we can use it later
-				if (depthleft == Constants.getDepth()) {
-					bestNode = node;
+				if (ply == 0)
+					bestMove = move;
+			}
+
+			// Young Brothers Wait: once the eldest brother is searched, the
+			// younger ones are searched in parallel. The split returns beta on
+			// a cutoff (with the killer and hash entry already stored), or the
+			// new alpha with its move first in the PV.
+			if (isSplitPoint(depthleft)) {
+				score = searchSplit(movePicker, alpha, beta, depthleft,
+						isWhiteTurn, ply, key, movesSearched, isPVNode,
+						isInCheck, isFutile);
+				if (isAborted())
+					return 0;
+				if (score >= beta)
+					return beta;
+				if (score > alpha) {
+					alpha = score;
+					bestMoveHere = pvTable[ply][0];
 				}
+				break;
 			}
+		}
 
-			bSearchPv = false;
+		// No legal moves is checkmate if we're in check and stalemate if not.
+		// Adding the ply makes quicker mates score better.
+		if (movesSearched == 0) {
+			if (inCheck(isWhiteTurn))
+				return -Constants.getCheckMateScore() + ply;
+			return Constants.getDrawScore();
 		}
 
-		ArrayList<Node> tmp = new ArrayList<Node>();
-		if (depthleft != Constants.getDepth())
-			tmp.add(parentNode);
-		tmp.addAll(localPV);
-		this.localPV = tmp;
+		if (bestMoveHere != PackedMove.NONE)
+			storeHash(key, depthleft, TranspositionTable.EXACT,
+					scoreToTable(alpha, ply), bestMoveHere);
+		else
+			storeHash(key, depthleft, TranspositionTable.UPPER_BOUND,
+					scoreToTable(originalAlpha, ply), PackedMove.NONE);
+
 		return alpha;
 	}
 
-	private void updateBranchCounter(int depth, int branchNbr) {
-		if (depth == Constants.getDepth())
-			branchCounter = branchNbr;
-		
-	}
+	/**
+	 * Makes <code>move</code>, the <code>moveNumber</code>th move at its node,
+	 * searches it and takes it back. The first move gets the full window, the
+	 * others a zero window around alpha and the full window only if they beat
+	 * it. A YBW split searches its moves here too, so they are pruned and
+	 * reduced the same as in the serial search.
+	 * 
+	 * Returns the score, or alpha for a move that was pruned.
+	 * 
+	 * @param move
+	 * @param alpha
+	 * @param beta
+	 * @param depthleft
+	 * @param isWhiteTurn
+	 * @param ply
+	 * @param moveNumber
+	 *            counting from 1
+	 * @param isPVNode
+	 * @param isInCheck
+	 * @param isFutile
+	 * @param isFollowingPV
+	 *            true if <code>move</code> is the next move of the PV
+	 * @return
+	 */
+	private double searchMove(int move, double alpha, double beta,
+			int depthleft, boolean isWhiteTurn, int ply, int moveNumber,
+			boolean isPVNode, boolean isInCheck, boolean isFutile,
+			boolean isFollowingPV) {
+		double score;
 
-	private double checkPVsearchTerminationConditions(Node parentNode,
-			double alpha, double beta, int depthleft, boolean isWhiteTurn) {
-		double score = 0.0;
-		// If Check mate/draw/king got captured
-		if (controller.isWhiteCheckmated()) {
-			this.localPV = new ArrayList<Node>();
-			this.localPV.add(parentNode);
-			score = -Constants.getCheckMateScore(); // This one should be
-													// negative
-		} else if (controller.isBlackCheckmated()) {
-			this.localPV = new ArrayList<Node>();
-			this.localPV.add(parentNode);
-			score = Constants.getCheckMateScore();
-		} else if (controller.isDrawByThreefoldRepitition()) {
-			this.localPV = new ArrayList<Node>();
-			this.localPV.add(parentNode);
-			return Constants.getDrawScore();
+		makeMove(move, ply);
+
+		// Quiet moves that don't give check are skipped at futile nodes.
+		// Late in the move order they are unlikely to be best: near the
+		// horizon at zero window nodes they are not searched at all once
+		// enough moves have been, elsewhere they are searched less deep,
+		// see below.
+		boolean isQuiet = !isInCheck && !PackedMove.isCapture(move)
+				&& !PackedMove.isPromotion(move) && !inCheck(!isWhiteTurn);
+		boolean isLateMoveCandidate = isQuiet && moveNumber > 1;
+		if ((isFutile && isQuiet || isLateMoveCandidate && !isPVNode
+				&& depthleft <= Constants.getLateMovePruningDepth()
+				&& moveNumber > getLateMovePruningCount(depthleft))
+				&& alpha > -mateThreshold) {
+			unmakeMove(ply);
+			return alpha;
+		}
+
+		// PV backend
+		followPV = isFollowingPV;
+		if (moveNumber == 1) {
+			score = -pvSearch(-beta, -alpha, depthleft - 1, !isWhiteTurn,
+					ply + 1);
+		} else {
+
+			// Late move reduction: a late quiet move is first searched
+			// shallower, and only searched to full depth if it beats alpha
+			// anyway
+			int reduction = 0;
+			if (isLateMoveCandidate)
+				reduction = getLateMoveReduction(depthleft, moveNumber,
+						isPVNode);
+
+			score = -pvSearch(-alpha - nullWindow, -alpha, depthleft - 1
+					- reduction, !isWhiteTurn, ply + 1);
+			if (score > alpha && reduction > 0)
+				score = -pvSearch(-alpha - nullWindow, -alpha, depthleft - 1,
+						!isWhiteTurn, ply + 1);
+			if (score > alpha && score < beta) {
+				score = -pvSearch(-beta, -alpha, depthleft - 1, !isWhiteTurn,
+						ply + 1); // re-search
+			}
 		}
 
+		if (ply == 0 && depthleft == searchDepth)
+			log.info(moveObjects[ply].coloredAlgebraicNotationPrint() + ": "
+					+ score);
+
+		unmakeMove(ply);
 		return score;
 	}
 
 	/**
-	 * Checks if board and pieces agree on piece location
+	 * Returns true if a null move should be tried at this node. Not at PV
+	 * nodes, whose score is wanted exactly, not right after another null
+	 * move, and not in check, where passing would be illegal. Nor with only
+	 * pawns left, where zugzwang is common and passing would often be the
+	 * best move, or when beta is a mate score, which a cutoff without a move
+	 * can't prove.
 	 * 
-	 * @return false if any piece thinks it is on a different square than it is
+	 * @param isPVNode
+	 * @param beta
+	 * @param depthleft
+	 * @param isWhiteTurn
+	 * @param isInCheck
+	 * @param ply
+	 * @return
 	 */
-	private boolean validateBoardInSync() {
-
-		// Validate board and pieces agree on all piece locations for debugging
-		for (int r = 0; r < 8; r++) {
-			for (int c = 0; c < 8; c++)
-				if (controller.getBoardController().getPieceByCoords(r, c) != null)
-					if (controller.getBoardController().getPieceByCoords(r, c)
-							.getRow() != r
-							|| controller.getBoardController()
-									.getPieceByCoords(r, c).getCol() != c) {
-						log.error("AI.pvSearch: ERROR: Board out of sync, make/unmake process unstable");
-						return false;
-					}
-		}
-		return true;
+	private boolean isNullMoveAllowed(boolean isPVNode, double beta,
+			int depthleft, boolean isWhiteTurn, boolean isInCheck, int ply) {
+		return !isPVNode && depthleft >= 2 && ply > 0 && ply >= nullMoveMinPly
+				&& !isNullMove[ply - 1] && Math.abs(beta) < mateThreshold
+				&& !isInCheck
+				&& getPosition().hasPiecesOtherThanPawns(isWhiteTurn);
 	}
 
 	/**
-	 * Returns true if the king of color <code>isWhite</code> is in check.
+	 * Returns how many plies shallower than the other moves the
+	 * <code>moveNumber</code>th move at a node <code>depthleft</code> plies
+	 * from the horizon is first searched. Zero for the first few moves and
+	 * near the horizon, then growing with the log of both, one less at PV
+	 * nodes. At least one ply is always left.
 	 * 
-	 * @param isWhite
+	 * @param depthleft
+	 * @param moveNumber
+	 *            counting from 1
+	 * @param isPVNode
 	 * @return
 	 */
-	private boolean inCheck(boolean isWhite) {
-		boolean result = false;
-		Piece king = findKing(isWhite);
-		if (RuleEngine.isAttackedSquare(king.getRow(), king.getCol(),
-				king.isWhite()))
-			result = true;
+	private static int getLateMoveReduction(int depthleft, int moveNumber,
+			boolean isPVNode) {
+		if (depthleft < Constants.getLateMoveReductionDepth()
+				|| moveNumber <= Constants.getLateMoveReductionMoves())
+			return 0;
 
-		return result;
+		int reduction = lateMoveReductions[Math.min(depthleft,
+				lateMoveReductions.length - 1)][Math.min(moveNumber,
+				lateMoveReductions[0].length - 1)];
+		if (isPVNode)
+			reduction--;
+		return Math.max(0, Math.min(reduction, depthleft - 2));
 	}
 
 	/**
-	 * Returns the number of legal moves at depth <code>depth</code>
+	 * Returns after how many moves the late quiet moves are pruned at a zero
+	 * window node <code>depthleft</code> plies from the horizon. More moves
+	 * are kept the further the horizon is.
 	 * 
-	 * @param depth
+	 * @param depthleft
 	 * @return
 	 */
-	public int perft(int depth, boolean isWhite) {
-
-		ArrayList<Move> legalMoves = controller.getMoveGenerator().findMoves(
-				isWhite);
-
-		int numMoves = 0;
-		if (depth == 0)
-			return legalMoves.size();
-		else {
-			for (Move move : legalMoves) {
-				boolean tmpHasMoved = move.getPiece().isHasMoved();
-				move.getPiece().setHasMoved(true);
-				Piece capturedPiece = RuleEngine.processMove(move);
-
-				numMoves += perft(depth - 1, !isWhite);
+	private static int getLateMovePruningCount(int depthleft) {
+		return Constants.getLateMovePruningMoves() + depthleft * depthleft;
+	}
 
-				RuleEngine.undoChanges(capturedPiece, move);
-				move.getPiece().setHasMoved(tmpHasMoved);
-			}
+	/**
+	 * Converts a frontier pruning margin from pawns per ply into evaluation
+	 * units for a node <code>depthleft</code> plies from the horizon
+	 * 
+	 * @param pawnsPerPly
+	 * @param depthleft
+	 * @return
+	 */
+	private static double getPruningMargin(double pawnsPerPly, int depthleft) {
+		return pawnsPerPly * depthleft * Constants.getPawnweight()
+				* Constants.getMaterialScoreWeight();
+	}
 
-		}
+	/**
+	 * Returns how many plies shallower than a real move the null move is
+	 * searched <code>depthleft</code> plies from the horizon. Deeper nodes
+	 * are reduced by one more, since their null move search is still deep
+	 * enough to be trusted.
+	 * 
+	 * @param depthleft
+	 * @return
+	 */
+	private int getNullMoveReduction(int depthleft) {
+		if (depthleft > Constants.getNullMoveAdaptiveDepth())
+			return Constants.getNullMoveReduction() + 1;
+		return Constants.getNullMoveReduction();
+	}
 
-		return numMoves;
+	/**
+	 * Returns true if the moves left at a node <code>depthleft</code> plies
+	 * from the horizon should be searched in parallel
+	 * 
+	 * @param depthleft
+	 * @return
+	 */
+	private boolean isSplitPoint(int depthleft) {
+		return splitPool != null && depthleft >= Constants.getMinSplitDepth()
+				&& !isAborted();
 	}
 
 	/**
-	 * Alpha Beta Search. This was replaced by pvSearch. Searches in a very
-	 * similar way but pvSearch has optimizations that help performance
-	 * significantly.
+	 * Searches the moves <code>movePicker</code> has left in parallel, one
+	 * split task each, and returns beta on a cutoff or the best score found
+	 * (alpha if none was better).
 	 * 
+	 * Each task tests its move with a zero window around alpha as it was when
+	 * the task was made, starting from the killer moves of that moment and an
+	 * empty table of its own, so its result doesn't depend on when or by
+	 * which thread it is searched. Tasks are run by the pool's workers and by
+	 * this search, which takes any task no worker has started instead of
+	 * waiting idle. The results are then taken in move order: a move that
+	 * beats alpha is searched again here with the full window if this is a
+	 * PV node, and a cutoff stops the tasks after it. When alpha is raised,
+	 * the tasks after are stopped and split again with the new alpha. Only
+	 * the tasks whose results are taken count their nodes and store their
+	 * results in this search's table, in move order, so the search finds the
+	 * same move and score with the same node count however the tasks were
+	 * scheduled.
+	 * 
+	 * @param movePicker
 	 * @param alpha
 	 * @param beta
 	 * @param depthleft
-	 * @param isWhite
-	 * @param parentNode
+	 * @param isWhiteTurn
+	 * @param ply
+	 * @param key
+	 * @param movesSearched
+	 *            moves already searched at this node
+	 * @param isPVNode
+	 * @param isInCheck
+	 * @param isFutile
 	 * @return
 	 */
-	@Deprecated
-	double alphaBeta(double alpha, double beta, int depthleft, boolean isWhite,
-			Node parentNode) {
-		Node pv = null;
-		double score = 0.0;
-		long startTime = 0;
-		int i = 0;
-		boolean tmpHasMoved;
-
-		// Termination condition
-		if (depthleft == 0) {
-			this.localPV = new ArrayList<Node>();
-			this.localPV.add(parentNode);
-			return quiesce(alpha, beta, isWhite, parentNode, depthleft);
-		}
+	private double searchSplit(MovePicker movePicker, double alpha,
+			double beta, int depthleft, boolean isWhiteTurn, int ply, long key,
+			int movesSearched, boolean isPVNode, boolean isInCheck,
+			boolean isFutile) {
+		int[] moves = moveStack[ply];
+		int count = 0;
+		int move;
+
+		while ((move = movePicker.nextMove()) != PackedMove.NONE)
+			moves[count++] = move;
+		SplitTask[] tasks = new SplitTask[count];
+
+		// The results of the tasks before taken have been used. Each pass
+		// splits the moves after them with the alpha found so far.
+		int taken = 0;
+		boolean isAlphaRaised = true;
+		while (isAlphaRaised && taken < count) {
+			SplitPoint split = new SplitPoint(this, alpha, beta, depthleft,
+					isWhiteTurn, ply, isPVNode, isInCheck, isFutile);
+			for (int i = taken; i < count; i++) {
+				tasks[i] = new SplitTask(split, moves[i], movesSearched + 1
+						+ i);
+				splitPool.execute(tasks[i]);
+			}
 
-		ArrayList<Node> localPV = new ArrayList<Node>();
+			// Every task before next has been claimed by some thread
+			int next = taken;
+			isAlphaRaised = false;
+			try {
+				while (taken < count) {
+					SplitTask task = tasks[taken];
+					while (!task.isFinished() && !isAborted()) {
+						while (next < count && !tasks[next].claim())
+							next++;
+						if (next < count)
+							tasks[next++].search(this);
+						else
+							waitFor(task);
+					}
+					nodes += task.getNodes();
+					if (isAborted())
+						break;
+					taken++;
+
+					// A move that doesn't beat alpha is done with. One that
+					// does is searched again with the full window if it is
+					// inside it; otherwise it is a cutoff.
+					move = task.getMove();
+					updateBranchCounter(ply, task.getMoveNumber() - 1);
+					double score = task.getScore();
+					if (score <= alpha)
+						continue;
+					if (isPVNode && score < beta) {
+						startSplitTask(split, task);
+						makeMove(move, ply);
+						score = -pvSearch(-beta, -alpha, depthleft - 1,
+								!isWhiteTurn, ply + 1);
+						unmakeMove(ply);
+						finishSplitTask(split);
+						if (isAborted())
+							break;
+					}
 
-		// Branch timing housekeeping
-		if (depthleft == Constants.getDepth()) {
-			startTime = System.currentTimeMillis();
-			initTime = startTime;
+					if (score >= beta) {
+						if (!PackedMove.isCapture(move))
+							storeKillerMove(move, ply);
+						storeHash(key, depthleft,
+								TranspositionTable.LOWER_BOUND,
+								scoreToTable(beta, ply), move);
+						alpha = beta;
+						break;
+					}
+					if (score > alpha) {
+						alpha = score;
+						updatePV(move, ply);
+						if (ply == 0)
+							bestMove = move;
+
+						// The tasks after this one are searched again with
+						// the new alpha, as the serial search would
+						isAlphaRaised = true;
+						break;
+					}
+				}
+			} finally {
+				split.isStopped = true;
+			}
 		}
 
-		if (parentNode.getChildren().size() == 0)
-			populateChildren(parentNode, isWhite, depthleft);
-
-		// We should always start with PV if on first ply of search, if it
-		// isn't null
+		for (int i = 0; i < taken; i++)
+			tasks[i].storeResults(this);
+		return alpha;
+	}
 
-		// If the established PV is longer than the chain we're looking at,
-		// then there's at least one move we might consider
-		boolean isDeepEnough = masterPV.size() > this.depth - depthleft + 1;
+	/**
+	 * Waits until another thread has finished <code>task</code>. The pool is
+	 * told, so it can start another worker while this one waits.
+	 * 
+	 * @param task
+	 */
+	private void waitFor(SplitTask task) {
+		try {
+			ForkJoinPool.managedBlock(task);
+		} catch (InterruptedException interruptedException) {
+			stop();
+		}
+	}
 
-		if (isDeepEnough && validatePV(parentNode, depthleft))
-			prioritizeNode(parentNode,
-					this.masterPV.get(this.depth - depthleft + 1));
+	/**
+	 * Sets this YBW worker's copy of the engine up to search for
+	 * <code>split</code>: plays the line from the root to it.
+	 * 
+	 * @param split
+	 */
+	private void enterSplit(SplitPoint split) {
+		splitPoint = split;
+		isStopRequested = false;
+		searchDepth = split.owner.searchDepth;
+		nullMoveMinPly = split.nullMoveMinPly;
+		followPV = false;
+
+		for (int ply = 0; ply < split.ply; ply++) {
+			if (split.line[ply] == PackedMove.NONE) {
+				getPosition().makeNullMove();
+				line[ply] = PackedMove.NONE;
+			} else
+				makeMove(split.line[ply], ply);
+		}
+	}
 
-		for (int j = 0; j < parentNode.getChildren().size(); j++) {
+	/**
+	 * Takes back the line played by enterSplit, so the copy is back at the
+	 * root
+	 * 
+	 * @param split
+	 */
+	private void leaveSplit(SplitPoint split) {
+		for (int ply = split.ply - 1; ply >= 0; ply--) {
+			if (split.line[ply] == PackedMove.NONE)
+				getPosition().unmakeNullMove();
+			else
+				unmakeMove(ply);
+		}
+		splitPoint = null;
+	}
 
-			// Branch timing housekeeping
-			if (depthleft == Constants.getDepth()) {
-				printTimeStats(++i, parentNode, startTime);
-				startTime = System.currentTimeMillis();
-			}
+	/**
+	 * Prepares this search to search a move at <code>split</code> for
+	 * <code>task</code>: the killer moves below the split are set to those it
+	 * was made with, and results are stored in an emptied table of the task's
+	 * own, and remembered by the task, until finishSplitTask is called.
+	 * 
+	 * @param split
+	 * @param task
+	 */
+	private void startSplitTask(SplitPoint split, SplitTask task) {
+		split.copyKillerMoves(this);
+		splitLevel++;
+		splitTasks[splitLevel] = task;
+		if (splitTables[splitLevel] == null)
+			splitTables[splitLevel] = new TranspositionTable(
+					Constants.getSplitHashSize());
+		else
+			splitTables[splitLevel].clear();
+	}
 
-			Node node = parentNode.getChildren().get(j);
-			Move move = node.getMove();
+	/**
+	 * Goes back to the table used before startSplitTask, and sets the killer
+	 * moves below <code>split</code> back to those it was made with. Which
+	 * tasks the search that split ran itself depends on scheduling, so it
+	 * doesn't keep the killers they found.
+	 * 
+	 * @param split
+	 */
+	private void finishSplitTask(SplitPoint split) {
+		splitLevel--;
+		split.copyKillerMoves(this);
+	}
 
-			Piece capturedPiece = RuleEngine.processMove(move);
-			tmpHasMoved = move.getPiece().isHasMoved();
-			move.getPiece().setHasMoved(true);
+	/**
+	 * Converts a score to how it is kept in the transposition table. Mate
+	 * scores count plies from the root, so they are changed to count from
+	 * this position instead; the same position can be reached at a different
+	 * ply later.
+	 * 
+	 * @param score
+	 * @param ply
+	 * @return
+	 */
+	private double scoreToTable(double score, int ply) {
+		if (score > mateThreshold)
+			return score + ply;
+		if (score < -mateThreshold)
+			return score - ply;
+		return score;
+	}
 
-			score = -alphaBeta(-beta, -alpha, depthleft - 1, !isWhite, node);
+	/**
+	 * Converts a score from the transposition table back to counting from the
+	 * root. The result never goes past a checkmate, so the root window always
+	 * contains it.
+	 * 
+	 * @param score
+	 * @param ply
+	 * @return
+	 */
+	private double scoreFromTable(double score, int ply) {
+		if (score > mateThreshold)
+			return Math.min(score - ply, Constants.getCheckMateScore());
+		if (score < -mateThreshold)
+			return Math.max(score + ply, -Constants.getCheckMateScore());
+		return score;
+	}
 
-			// node.setUserObject(++i + ", " + move.algebraicNotationPrint()
-			// + ": " + score);
+	/**
+	 * Looks up <code>key</code> and copies the entry into hashEntry. Inside a
+	 * YBW split task the task's own table is looked in first, then the shared
+	 * one. Returns false if neither has the position.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private boolean probeHash(long key) {
+		if (splitLevel > 0 && splitTables[splitLevel].probe(key, hashEntry))
+			return true;
+		return transpositionTable.probe(key, hashEntry);
+	}
 
-			RuleEngine.undoChanges(capturedPiece, move);
-			move.getPiece().setHasMoved(tmpHasMoved);
+	/**
+	 * Saves a search result in the shared transposition table, or inside a
+	 * YBW split task in the task's own table
+	 * 
+	 * @param key
+	 * @param depth
+	 * @param bound
+	 * @param score
+	 * @param move
+	 */
+	private void storeHash(long key, int depth, int bound, double score,
+			int move) {
+		if (splitLevel > 0) {
+			splitTables[splitLevel].store(key, depth, bound, score, move);
+			splitTasks[splitLevel].addResult(key, depth, bound, score, move);
+		} else
+			transpositionTable.store(key, depth, bound, score, move);
+	}
 
-			// Fail hard beta-cutoff
-			if (score >= beta) {
+	private void updateBranchCounter(int ply, int branchNbr) {
+		if (ply == 0)
+			branchCounter = branchNbr;
+		
+	}
 
-				// If the current move isn't already a killer move, make it one
-				boolean nodeFound = false;
-				for (Move killerNode : killerMoves.get(depthleft))
-					if (killerNode.equals(node.getMove()))
-						nodeFound = true;
-				if (!nodeFound)
-					killerMoves.get(depthleft).add(node.getMove());
+	/**
+	 * Makes <code>move</code> the first move of the PV at <code>ply</code>,
+	 * followed by the PV just found one ply deeper.
+	 * 
+	 * @param move
+	 * @param ply
+	 */
+	private void updatePV(int move, int ply) {
+		int childLength = pvLength[ply + 1];
 
-				return beta;
-			}
+		pvTable[ply][0] = move;
+		System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, childLength);
+		pvLength[ply] = childLength + 1;
+	}
 
-			// Tighten the alpha bound
-			if (score > alpha) {
-				alpha = score;
-				pv = node;
-				localPV = this.localPV;
+	/**
+	 * Plays <code>move</code> on the board. The Move object is kept in the
+	 * array for <code>ply</code> so unmakeMove can take it back.
+	 * 
+	 * @param move
+	 * @param ply
+	 */
+	private void makeMove(int move, int ply) {
+		line[ply] = move;
+		engine.getRuleEngine().processMove(
+				engine.getMoveGenerator().toMove(move, moveObjects[ply]));
+	}
 
-				// If we are in the first recursive call, save the best move
-				// so we can use it later
-				if (depthleft == Constants.getDepth()) {
-					bestNode = node;
-					System.out.println("AI.AB Choosing "
-							+ node.getMove().algebraicNotationPrint());
-				}
-			}
-		}
+	/**
+	 * Takes back the move made at <code>ply</code>
+	 * 
+	 * @param ply
+	 */
+	private void unmakeMove(int ply) {
+		engine.getRuleEngine().undoChanges(moveObjects[ply]);
+	}
 
-//		if (parentNode.getChildren().size() == 0) {
-//			// If I have no moves assume I was checkmated and return low alpha
-//			// value
-//			alpha = -Constants.getCheckMateScore();
-//		}
-
-		ArrayList<Node> tmp = new ArrayList<Node>();
-		if (depthleft != Constants.getDepth())
-			tmp.add(parentNode);
-		tmp.addAll(localPV);
-		this.localPV = tmp;
-		return alpha;
+	/**
+	 * Returns true if the king of color <code>isWhite</code> is in check.
+	 * 
+	 * @param isWhite
+	 * @return
+	 */
+	private boolean inCheck(boolean isWhite) {
+		return getPosition().getCheckers(isWhite) != 0;
 	}
 
 	/**
@@ -554,197 +1323,128 @@ public class AI {
 	 * 
 	 * @param alpha
 	 * @param beta
-	 * @param isWhite
-	 * @param parentNode
-	 * @param depthleft
+	 * @param isWhiteTurn
+	 * @param ply
 	 * @return
 	 */
 	public double quiesce(double alpha, double beta, boolean isWhiteTurn,
-			Node parentNode, int depthleft) {
+			int ply) {
 		nodesPerLevel[this.depth]++;
+		nodes++;
 		boolean printFlag = false;
+		pvLength[ply] = 0;
+
+		if ((nodes & (Constants.getNodesBetweenLimitChecks() - 1)) == 0)
+			checkHardLimits();
+		if (isAborted())
+			return 0;
+		double originalAlpha = alpha;
+		int bestMoveHere = PackedMove.NONE;
 
-		double stand_pat = evaluate(isWhiteTurn, parentNode, printFlag);
+		// Any entry is at least as deep as a quiescence search
+		long key = getPosition().getKey();
+		int hashMove = PackedMove.NONE;
+		if (probeHash(key)) {
+			double hashScore = scoreFromTable(hashEntry.getScore(), ply);
+			int bound = hashEntry.getBound();
+
+			if (hashScore >= beta && bound != TranspositionTable.UPPER_BOUND)
+				return beta;
+			if (hashScore <= alpha && bound != TranspositionTable.LOWER_BOUND)
+				return alpha;
+			hashMove = hashEntry.getMove();
+		}
+
+		double stand_pat = evaluate(isWhiteTurn, printFlag);
 		double score;
-		boolean tmpHasMoved = true;
-		if (stand_pat >= beta)
+		if (stand_pat >= beta) {
+			storeHash(key, 0, TranspositionTable.LOWER_BOUND,
+					scoreToTable(beta, ply), PackedMove.NONE);
 			return beta;
+		}
 		if (alpha < stand_pat)
 			alpha = stand_pat;
-		if (parentNode.getChildren().size() == 0)
-			populateChildren(parentNode, isWhiteTurn, depthleft);
-
-		for (Node node : parentNode.getChildren()) {
-			Move move = node.getMove();
-			int col = move.getEndCol();
-			int row = move.getEndRow();
-			Piece otherPiece = controller.boardController.getPieceByCoords(row,
-					col);
-			
-			Piece king = findKing(isWhiteTurn);
-			
-			if (otherPiece != null || RuleEngine.isAttackedSquare(king.getRow(), king.getCol(), !king.isWhite())) {
-
-				Piece capturedPiece = RuleEngine.processMove(move);
-				tmpHasMoved = move.getPiece().isHasMoved();
-				move.getPiece().setHasMoved(true);
-
-				score = -quiesce(-beta, -alpha, !isWhiteTurn, node,
-						depthleft - 1);
-
-				RuleEngine.undoChanges(capturedPiece, move);
-				move.getPiece().setHasMoved(tmpHasMoved);
-
-				if (score >= beta)
-					return beta;
-				if (score > alpha)
-					alpha = score;
-			}
-		}
-		return alpha;
-	}
-
-	/**
-	 * Verifies that we have explored a Princpal variation branch up to the node
-	 * parentNode. This allows us to continue checking the PV. If we are no
-	 * longer on the PV branch, then we shouldn't assume that the PV node at the
-	 * current depth is a good move.
-	 * 
-	 * @param parentNode
-	 * @param depthleft
-	 * @return
-	 */
-	private boolean validatePV(Node parentNode, int depthleft) {
+		if (ply >= Constants.getMaxSearchPly() - 1)
+			return alpha;
 
-		int i = this.depth - depthleft; // how deep we are
-		boolean result = true;
+		// Only captures are searched, unless we're in check and have to try
+		// every way out of it
+		MovePicker movePicker = movePickers[ply];
+		movePicker.init(isWhiteTurn, PackedMove.NONE, hashMove, null,
+				!inCheck(isWhiteTurn));
 
-		while (i >= 0 && result == true) {
-			if (parentNode == masterPV.get(i)) {
-
-				parentNode = parentNode.getParent();
-				i--;
-			} else
-				result = false;
-
-		}
+		int move;
+		while ((move = movePicker.nextMove()) != PackedMove.NONE) {
 
-		return result;
-	}
-
-	/**
-	 * Takes the Node child and puts it in the front of the arraylist of
-	 * children of the parent Node. This makes that child the first one analyzed
-	 * when looping through the parents' children.
-	 * 
-	 * @param parent
-	 * @param child
-	 */
-	public void prioritizeNode(Node parent, Node child) {
-		boolean successfulRemove = parent.getChildren().remove(child);
-		if (successfulRemove)
-			parent.getChildren().add(0, child);
-		else
-			System.out
-					.println("AI.PrioritizeNode: ERROR, non-child node was attempted to prioritize");
-		// child.setScore((-500));
-	}
+			makeMove(move, ply);
 
-	/**
-	 * Build the subtree of legal moves for the Node parent node passed as a
-	 * parameter. This also populates the DefaultMutableTree object tree, so the
-	 * GUI reflects the real game tree
-	 * 
-	 * @param parentNode
-	 * @param isWhite
-	 * @param depthleft
-	 */
-	public void populateChildren(Node parentNode, boolean isWhiteTurn,
-			int depthleft) {
+			score = -quiesce(-beta, -alpha, !isWhiteTurn, ply + 1);
 
-		ArrayList<Move> legalMoves = controller.getMoveGenerator().findMoves(
-				isWhiteTurn);
-		for (Move move : legalMoves) {
+			unmakeMove(ply);
 
-			Node node = new Node(move);
-			// node.setUserObject(move.algebraicNotationPrint());
+			if (isAborted())
+				return 0;
 
-			// parentNode.add(node);
-			parentNode.getChildren().add(node);
-			node.setParent(parentNode);
+			if (score >= beta) {
+				storeHash(key, 0, TranspositionTable.LOWER_BOUND,
+						scoreToTable(beta, ply), move);
+				return beta;
+			}
+			if (score > alpha) {
+				alpha = score;
+				bestMoveHere = move;
+			}
 		}
 
-		orderMoves(parentNode.getChildren(), depthleft);
+		if (alpha > originalAlpha)
+			storeHash(key, 0, TranspositionTable.EXACT,
+					scoreToTable(alpha, ply), bestMoveHere);
+		else
+			storeHash(key, 0, TranspositionTable.UPPER_BOUND,
+					scoreToTable(originalAlpha, ply), PackedMove.NONE);
+		return alpha;
 	}
 
 	/**
-	 * Takes a list of legal moves and attempts to sort them with the following
-	 * weight:
-	 * 
-	 * <li>1. MVV-LVA (pxn before nxp) <li>2. Killer Heuristic
+	 * Remembers a quiet move that caused a beta cutoff at <code>ply</code>,
+	 * pushing out the older of the two killer moves.
 	 * 
-	 * pvSearch prioritizes PV nodes as it finds them, and that always happens
-	 * after this method is called, so PV nodes end up in the front of the
-	 * arraylist.
-	 * 
-	 * @param nodes
-	 * @param depthleft
+	 * @param move
+	 * @param ply
 	 */
-	@SuppressWarnings("unchecked")
-	public void orderMoves(ArrayList<Node> nodes, int depthleft) {
-
-		for (int i = 0; i < nodes.size(); i++) {
-
-			Node node = nodes.get(i);
-			Piece otherPiece = controller.boardController.getPieceByCoords(node
-					.getMove().getEndRow(), node.getMove().getEndCol());
-
-			// If it is a capture, get the material difference and save it
-			// so we can sort (achieves MVV-LVA)
-			if (otherPiece != null) {
-				int materialDifference = Constants.getPieceWeight(node
-						.getMove().getPiece())
-						- Constants.getPieceWeight(otherPiece);
-				node.setScore(materialDifference);
-
-			}
-
-			// If it's not a capture, check to see if it is in the killer moves
-			// array. If so, set the score to -0.1 so it is before the
-			// noncaptures
-			else {
-				boolean nodeFound = false;
-				for (Move killerNode : killerMoves.get(depthleft))
-					if (killerNode.equals(node.getMove()))
-						nodeFound = true;
-				if (nodeFound) {
-					node.setScore(Constants.getKillerMoveScore());
-				}
-			}
+	private void storeKillerMove(int move, int ply) {
+		if (killerMoves[ply][0] != move) {
+			killerMoves[ply][1] = killerMoves[ply][0];
+			killerMoves[ply][0] = move;
 		}
-		Collections.sort(nodes, this.nodeComparator);
-
 	}
 
 	/**
-	 * Calls all evaluation methods on a potential move and returns the score of
-	 * the move.
+	 * Calls all evaluation methods on a position and returns the score of the
+	 * position from the point of view of the side to move.
 	 * 
 	 * @return
 	 */
-	public double evaluate(boolean isWhitesTurn, Node node, boolean printFlag) {
-		if (this.depth == Constants.getDepth())
+	public double evaluate(boolean isWhitesTurn, boolean printFlag) {
+		if (this.depth == searchDepth)
 			nodesVisited++;
 		double result = 0.0;
 
-		// If the current position is a checkmate, we can give it the end-game
-		// score without evaluating all the other factors.
-		if (controller.isWhiteCheckmated() || controller.isBlackCheckmated())
-			result = Constants.getCheckMateScore();
-		else if (controller.isDrawByThreefoldRepitition())
-			result = Constants.getDrawScore();
-		else {
-			int positionalScore = computePositionalScore(isWhitesTurn, node);
+		MoveGenerator moveGenerator = engine.getMoveGenerator();
+		int whiteMoves = moveGenerator.generateMoves(true, evaluationMoves);
+		int blackMoves = moveGenerator.generateMoves(false, evaluationMoves);
+
+		// If the side to move has no legal moves, it's checkmate or
+		// stalemate and we can give it the end-game score without evaluating
+		// all the other factors.
+		if ((isWhitesTurn ? whiteMoves : blackMoves) == 0) {
+			if (inCheck(isWhitesTurn))
+				result = -Constants.getCheckMateScore();
+			else
+				result = Constants.getDrawScore();
+		} else {
+			int positionalScore = computePositionalScore(whiteMoves,
+					blackMoves);
 			int materialScore = computeMaterialScore();
 			int bonusScore = computeBonusScore();
 
@@ -772,18 +1472,12 @@ public class AI {
 				System.out.println("-Bonus score:" + weightedBonusScore);
 			}
 
+			// Positive scores mean white is winning, so we negate the
+			// calculated score here if it is black's turn
+			if (!isWhitesTurn)
+				result = result * -1.0;
 		}
 
-		// Positive scores mean white is winning, so we negate the calculated
-		// score here
-		// if it is black's turn
-		if (!isWhitesTurn)
-			result = result * -1.0;
-
-		// If no legal moves, it's a stalemate
-		if (node.getChildren().size() == 0)
-			result = Constants.getDrawScore();
-
 		return result;
 	}
 
@@ -792,43 +1486,13 @@ public class AI {
 	 * mobility, king safety, mobility of the enemy, passed pawns, doubled
 	 * pawns, pawn structure, etc.
 	 * 
-	 * Very computationally expensive, will need to optimize this in the future.
+	 * Only mobility is counted so far: the number of legal moves white has
+	 * minus the number black has.
 	 */
-	public int computePositionalScore(boolean isWhite, Node node) {
+	public int computePositionalScore(int whiteMoves, int blackMoves) {
 
-		/*
-		 * Note: isWhite is the OPPOSITE color of the piece in node. We have a
-		 * reference to that so we can add legal children nodes to node if they
-		 * don't exist already
-		 */
 		// TODO: Extra points for center control
 
-		int whiteMoves = 0;
-		int blackMoves = 0;
-
-		// This method is only called when evaluate is called, which is only
-		// when depth = 0
-		int depth = 0;
-
-		if (isWhite) {
-			if (node.getChildren().size() == 0)
-				populateChildren(node, isWhite, depth);
-
-			whiteMoves = node.getChildren().size();
-
-			blackMoves = controller.getMoveGenerator().findMoves(false).size();
-		}
-
-		else {
-
-			if (node.getChildren().size() == 0)
-				populateChildren(node, isWhite, depth);
-			blackMoves = node.getChildren().size();
-
-			whiteMoves = controller.getMoveGenerator().findMoves(true).size();
-
-		}
-
 		int difference = whiteMoves - blackMoves;
 
 		return difference;
@@ -837,7 +1501,8 @@ public class AI {
 	/**
 	 * Computes the material score of a move. This is the difference between the
 	 * amount of material (in points) for black and white. Positive means white
-	 * is ahead in material.
+	 * is ahead in material. Counts the bits in each piece bitboard rather than
+	 * walking the piece lists.
 	 * 
 	 * @return
 	 */
@@ -846,34 +1511,25 @@ public class AI {
 		int whiteScore = 0;
 		int blackScore = 0;
 
-		PieceArray whitePieces = controller.getModel().getWhitePieces();
-		PieceArray blackPieces = controller.getModel().getBlackPieces();
-
-		for (int i = 0; i < PieceArray.numPieces; i++) {
-			Piece piece = whitePieces.getPiece(i);
-			if (piece != null) {
-				whiteScore += Constants.getPieceWeight(piece);
+		Position position = getPosition();
 
-				// If it's a pawn that will be promoting, let it have the extra
-				// value it would have if it promotes to a queen (-1 because it
-				// already has 1 for being pawn)
-				if (piece.getType() == Constants.getPawnChar()
-						&& piece.getRow() == 7) {
-					whiteScore += Constants.getQueenweight() - 1;
-				}
-			}
-		}
-		for (int i = 0; i < PieceArray.numPieces; i++) {
-			Piece piece = blackPieces.getPiece(i);
-			if (piece != null) {
-				blackScore += Constants.getPieceWeight(piece);
-
-				if (piece.getType() == Constants.getPawnChar()
-						&& piece.getRow() == 0) {
-					blackScore += Constants.getQueenweight() - 1;
-				}
-			}
+		for (int type = Position.PAWN; type <= Position.KING; type++) {
+			whiteScore += pieceWeights[type]
+					* Bitboard.countBits(position.getPieces(type, true));
+			blackScore += pieceWeights[type]
+					* Bitboard.countBits(position.getPieces(type, false));
 		}
+
+		// If it's a pawn that will be promoting, let it have the extra
+		// value it would have if it promotes to a queen (-1 because it
+		// already has 1 for being pawn)
+		whiteScore += (Constants.getQueenweight() - 1)
+				* Bitboard.countBits(position.getPieces(Position.PAWN, true)
+						& Bitboard.RANK_8);
+		blackScore += (Constants.getQueenweight() - 1)
+				* Bitboard.countBits(position.getPieces(Position.PAWN, false)
+						& Bitboard.RANK_1);
+
 		// TODO account for passant
 
 		result = whiteScore - blackScore;
@@ -944,23 +1600,19 @@ public class AI {
 		// is working 100% right
 
 		int result = 0;
-		if (controller.getModel().getMoveList().size() < 16) {
-			PieceArray pieces = findPieceList(isWhite);
-			Piece queen = pieces.getQueen();
-			if (queen != null) {
-				int row = queen.getRow();
-				int col = queen.getCol();
-
+		if (getPosition().getMoveCount() < 16) {
+			long queens = getPosition().getPieces(Position.QUEEN, isWhite);
+			if (queens != 0) {
 				int homeRow;
 				if (isWhite)
 					homeRow = Constants.getWhitePieceRow();
 				else
 					homeRow = Constants.getBlackPieceRow();
 
-				if (!(col == Constants.getQueenCol() && row == homeRow))
+				long homeSquare = Bitboard.getBit(Bitboard.getSquare(homeRow,
+						Constants.getQueenCol()));
+				if ((queens & homeSquare) == 0)
 					result = -Constants.getEarlyQueenPenaltyWeight();
-				// if (result <0)
-				// System.out.println("Queen penalty, " + queen.toString());
 			}
 		} else
 			result = 0;
@@ -999,7 +1651,7 @@ public class AI {
 		int result = 0;
 
 		// TODO: Find a faster implementation
-		// ArrayList<Move>moveList = controller.getModel().getMoveList();
+		// ArrayList<Move>moveList = engine.getModel().getMoveList();
 
 		// If we're not in the opening anymore, this isn't relevant anymore
 		// if (moveList.size() > 30)
@@ -1033,46 +1685,16 @@ public class AI {
 	 * @return
 	 */
 	private int computeConnectedRooksBonus(boolean isWhite) {
-		// TODO Implement this.
 		int result = 0;
-		Piece A_rook = findPieceList(isWhite).getA_rook();
-		Piece H_rook = findPieceList(isWhite).getH_rook();
-
-		// If either or both rooks are dead, no bonus
-		if (A_rook == null || H_rook == null)
-			result = 0;
-		else {
-			int A_rookCol = A_rook.getCol();
-			int A_rookRow = A_rook.getRow();
-			int H_rookCol = H_rook.getCol();
-			int H_rookRow = H_rook.getRow();
-
-			// If on same col
-			if (A_rookCol == H_rookCol) {
-				int startRow = Math.min(A_rookRow, H_rookRow);
-				boolean pathBlocked = false;
-				for (int i = 1; i < Math.abs(A_rookRow - H_rookRow); i++)
-					if (controller.getBoardController().getPieceByCoords(
-							startRow + i, A_rookCol) != null)
-						pathBlocked = true;
-				if (!pathBlocked)
-					result = Constants.getConnectedRooksBonusWeight();
-			}
-			// Else if on same row
-			else if (A_rookRow == H_rookRow) {
-
-				int startCol = Math.min(A_rookCol, H_rookCol);
-				boolean pathBlocked = false;
-				for (int i = 1; i < Math.abs(A_rookCol - H_rookCol); i++)
-					if (controller.getBoardController().getPieceByCoords(
-							A_rookRow, startCol + i) != null)
-						pathBlocked = true;
-				if (!pathBlocked)
-					result = Constants.getConnectedRooksBonusWeight();
-			}
-			// If not on same row or col, they are not connected
-			else
-				result = 0;
+		Position position = getPosition();
+		long rooks = position.getPieces(Position.ROOK, isWhite);
+
+		// If either or both rooks are dead, no bonus. Otherwise they are
+		// connected if one rook attacks the other along an open row or col.
+		if (Bitboard.countBits(rooks) == 2) {
+			int square = Bitboard.getLowestSquare(rooks);
+			if ((Bitboard.getRookAttacks(square, position.getOccupancy()) & rooks) != 0)
+				result = Constants.getConnectedRooksBonusWeight();
 		}
 		return result;
 	}
@@ -1084,17 +1706,10 @@ public class AI {
 	 * @return
 	 */
 	private int computeBishopPairBonus(boolean isWhite) {
-
-		PieceArray pieces = findPieceList(isWhite);
-		int numBishops = 0;
 		int result = 0;
 
-		if (pieces.getPiece(PieceArray.C_bishopId) != null)
-			numBishops++;
-		if (pieces.getPiece(PieceArray.F_bishopId) != null)
-			numBishops++;
-
-		if (numBishops == 2)
+		if (Bitboard.countBits(getPosition().getPieces(Position.BISHOP,
+				isWhite)) >= 2)
 			result = Constants.getBishopPairBonusWeight();
 
 		return result;
@@ -1110,8 +1725,7 @@ public class AI {
 	private int computeCentralPawnsPushedBonus(boolean isWhite) {
 		int result = 0;
 		int pawnRow = -1;
-		int col = -1;
-		Piece piece = null;
+		long pawns = getPosition().getPieces(Position.PAWN, isWhite);
 
 		if (isWhite)
 			pawnRow = Constants.getWhitePawnRow();
@@ -1119,15 +1733,13 @@ public class AI {
 			pawnRow = Constants.getBlackPawnRow();
 
 		// Check King column pawn
-		col = Constants.getKingColumn();
-		piece = controller.getBoardController().getPieceByCoords(pawnRow, col);
-		if ((piece == null) || (piece.getType() != Constants.getPawnChar()))
+		if ((pawns & Bitboard.getBit(Bitboard.getSquare(pawnRow,
+				Constants.getKingColumn()))) == 0)
 			result += Constants.getCentralPawnsPushedBonusWeight();
 
 		// Check Queen column pawn
-		col = Constants.getQueenColumn();
-		piece = controller.getBoardController().getPieceByCoords(pawnRow, col);
-		if ((piece == null) || (piece.getType() != Constants.getPawnChar()))
+		if ((pawns & Bitboard.getBit(Bitboard.getSquare(pawnRow,
+				Constants.getQueenColumn()))) == 0)
 			result += Constants.getCentralPawnsPushedBonusWeight();
 
 		return result;
@@ -1158,12 +1770,21 @@ public class AI {
 	public PieceArray findPieceList(boolean isWhite) {
 		PieceArray pieceList = null;
 		if (isWhite)
-			pieceList = controller.getModel().getWhitePieces();
+			pieceList = engine.getModel().getWhitePieces();
 		else
-			pieceList = controller.getModel().getBlackPieces();
+			pieceList = engine.getModel().getBlackPieces();
 		return pieceList;
 	}
 
+	/**
+	 * Returns the bitboard version of the board that evaluation reads from.
+	 * 
+	 * @return
+	 */
+	private Position getPosition() {
+		return engine.getModel().getPosition();
+	}
+
 	/**
 	 * Returns a bonus if there have been less than 10 moves and the move being
 	 * considered is a castling move
@@ -1173,83 +1794,73 @@ public class AI {
 	 */
 	public int computeCastlingBonus(Piece king) {
 		int result = 0;
-		if (controller.getModel().getMoveList().size() < 20) {
-			boolean isWhite = king.isWhite();
+		if (getPosition().getMoveCount() < 20
+				&& getPosition().hasCastled(king.isWhite()))
+			result = Constants.getCastlingBonusWeight();
 
-			for (Move move : controller.getModel().getMoveList()) {
-				if (move.getPiece() == king
-						&& RuleEngine.calculateDeltaColUnsigned(move) == 2)
-					result = Constants.getCastlingBonusWeight();
-			}
+		return result;
+	}
 
-		}
+	public TranspositionTable getTranspositionTable() {
+		return transpositionTable;
+	}
 
-		return result;
+	public void setTranspositionTable(TranspositionTable transpositionTable) {
+		this.transpositionTable = transpositionTable;
+	}
+
+	public int getBestMove() {
+		return bestMove;
 	}
 
 	/**
-	 * Old version of Negamax, replaced by method AlphaBeta.
+	 * Returns the principal variation from the last finished iteration. Only
+	 * the first getPVLength() moves are used.
 	 * 
-	 * @param depth
-	 * @param previousMove
-	 * @param parentNode
 	 * @return
 	 */
-	@Deprecated
-	public double Negamax(int depth, Move previousMove,
-			DefaultMutableTreeNode parentNode) {
-		if (depth == 0) {
-			// previousMove.timesEvaluated++;
-			// return evaluate(!previousMove.getPiece().isWhite(),
-			// previousMove));
-		}
-		double max = Integer.MIN_VALUE;
-		double score = 0.0;
-
-		boolean isWhite = !previousMove.getPiece().isWhite();
-		ArrayList<Move> legalMoves = controller.getMoveGenerator().findMoves(
-				isWhite);
-		int i = 0;
-		for (Move move : legalMoves) {
-			i++;
-			Piece capturedPiece = RuleEngine.processMove(move);
+	public int[] getPV() {
+		return masterPV;
+	}
 
-			DefaultMutableTreeNode node = new DefaultMutableTreeNode();
-			node.setAllowsChildren(true);
-			score = -Negamax(depth - 1, move, node);
+	public int getPVLength() {
+		return masterPVLength;
+	}
 
-			node.setUserObject(i + ", " + move.algebraicNotationPrint() + ": "
-					+ score);
+	public double getScore() {
+		return rootScore;
+	}
 
-			parentNode.add(node);
+	public long getNodes() {
+		return nodes;
+	}
 
-			if (score > max)
-				max = score;
-			RuleEngine.undoChanges(capturedPiece, move);
-		}
-		return max;
+	/**
+	 * Returns how many iterations of the last search scored below their
+	 * aspiration window and were searched again
+	 * 
+	 * @return
+	 */
+	public int getAspirationFailLows() {
+		return aspirationFailLows;
 	}
 
 	/**
-	 * Calculate how long the previous branch of the tree took to search and
-	 * print to the console.
+	 * Returns how many iterations of the last search scored above their
+	 * aspiration window and were searched again
 	 * 
-	 * @param i
-	 * @param parentNode
-	 * @param startTime
+	 * @return
 	 */
-	public void printTimeStats(int i, Node parentNode, long startTime) {
-		long endTime = System.currentTimeMillis();
-		if (printThinkingProgress) {
-			System.out.println("AI.ChooseMove: " + ++i + " of "
-					+ parentNode.getChildren().size()
-
-					+ " branches searched. Time elapsed: "
-					+ (endTime - initTime) / 1000.0
-					+ " seconds, last branch took " + (endTime - startTime)
-					/ 1000.0 + " seconds");
-		}
-		startTime = System.currentTimeMillis();
+	public int getAspirationFailHighs() {
+		return aspirationFailHighs;
+	}
+
+	public SearchListener getSearchListener() {
+		return searchListener;
+	}
+
+	public void setSearchListener(SearchListener searchListener) {
+		this.searchListener = searchListener;
 	}
 
 	public int getBranchCounter() {
@@ -1261,42 +1872,259 @@ public class AI {
 	}
 
 	/**
-	 * Getter to let outside classes know if we are on a NullMoveBranch, since
-	 * there will be a null move if that's the case.
-	 * 
-	 * @return
+	 * A node whose younger brothers are searched in parallel. alpha is the
+	 * best score the search that split had found there when it split, and
+	 * killerMoves its killer moves for the plies below then.
 	 */
-	public boolean isNullMoveBranch() {
-		return isNullMoveBranch;
+	private static class SplitPoint {
+		AI owner;
+		int[] line;
+		int depthleft;
+		boolean isWhiteTurn;
+		int ply;
+		boolean isPVNode;
+		boolean isInCheck;
+		boolean isFutile;
+		int nullMoveMinPly;
+		double alpha;
+		double beta;
+		int[][] killerMoves;
+		volatile boolean isStopped;
+
+		SplitPoint(AI ownerIn, double alphaIn, double betaIn, int depthleftIn,
+				boolean isWhiteTurnIn, int plyIn, boolean isPVNodeIn,
+				boolean isInCheckIn, boolean isFutileIn) {
+			this.owner = ownerIn;
+			this.line = new int[plyIn];
+			System.arraycopy(ownerIn.line, 0, line, 0, plyIn);
+			this.alpha = alphaIn;
+			this.beta = betaIn;
+			this.depthleft = depthleftIn;
+			this.isWhiteTurn = isWhiteTurnIn;
+			this.ply = plyIn;
+			this.isPVNode = isPVNodeIn;
+			this.isInCheck = isInCheckIn;
+			this.isFutile = isFutileIn;
+			this.nullMoveMinPly = ownerIn.nullMoveMinPly;
+			this.killerMoves = new int[ownerIn.killerMoves.length][];
+			for (int i = plyIn + 1; i < killerMoves.length; i++)
+				killerMoves[i] = ownerIn.killerMoves[i].clone();
+		}
+
+		/**
+		 * Sets the killer moves of <code>search</code> for the plies below
+		 * the split to those the split was made with
+		 * 
+		 * @param search
+		 */
+		void copyKillerMoves(AI search) {
+			for (int i = ply + 1; i < killerMoves.length; i++) {
+				search.killerMoves[i][0] = killerMoves[i][0];
+				search.killerMoves[i][1] = killerMoves[i][1];
+			}
+		}
+
+		/**
+		 * Returns true once the split is done or its search is aborted
+		 * 
+		 * @return
+		 */
+		boolean isAborted() {
+			return isStopped || owner.isAborted();
+		}
 	}
 
-	public boolean isThinking() {
-		return isThinking;
+	/**
+	 * Searches one younger brother at a split point with a zero window. It is
+	 * searched by whichever thread claims it first: a pool worker, on its own
+	 * copy of the engine, or the search that split, which is at the split
+	 * point already. A worker that waits at a split of its own doesn't pick
+	 * up other tasks meanwhile, so its copy is always back at the root when
+	 * it starts one.
+	 */
+	private static class SplitTask extends RecursiveAction implements
+			ForkJoinPool.ManagedBlocker {
+		private static final long serialVersionUID = 1L;
+
+		SplitPoint split;
+		int move;
+		int moveNumber;
+		AtomicBoolean isClaimed = new AtomicBoolean();
+		double score;
+		long searchedNodes;
+		long[] results = new long[0];
+		int resultsLength;
+		volatile boolean isFinished;
+
+		SplitTask(SplitPoint splitIn, int moveIn, int moveNumberIn) {
+			this.split = splitIn;
+			this.move = moveIn;
+			this.moveNumber = moveNumberIn;
+		}
+
+		protected void compute() {
+			if (claim())
+				search(((SplitWorker) Thread.currentThread()).search);
+		}
+
+		/**
+		 * Returns true if the calling thread is the first to claim the task,
+		 * and so has to search it
+		 * 
+		 * @return
+		 */
+		boolean claim() {
+			return isClaimed.compareAndSet(false, true);
+		}
+
+		/**
+		 * Searches the move on <code>search</code>, unless the split is done
+		 * already. At a PV node beta is put just above alpha, so the full
+		 * window search is left to the search that split. A zero window node
+		 * keeps its own beta, as the serial search does. The nodes are taken
+		 * off the count of the search that split if it ran the task itself;
+		 * it adds them back with the other tasks' in move order.
+		 * 
+		 * @param search
+		 */
+		void search(AI search) {
+			try {
+				if (split.isAborted())
+					return;
+				double beta = split.isPVNode ? split.alpha + nullWindow
+						: split.beta;
+				boolean isOwner = search == split.owner;
+				long startNodes = search.getNodes();
+
+				if (!isOwner)
+					search.enterSplit(split);
+				search.startSplitTask(split, this);
+				score = search.searchMove(move, split.alpha, beta,
+						split.depthleft, split.isWhiteTurn, split.ply,
+						moveNumber, split.isPVNode, split.isInCheck,
+						split.isFutile, false);
+				search.finishSplitTask(split);
+				if (!isOwner)
+					search.leaveSplit(split);
+
+				searchedNodes = search.getNodes() - startNodes;
+				if (isOwner)
+					search.nodes = startNodes;
+			} finally {
+				synchronized (split) {
+					isFinished = true;
+					split.notifyAll();
+				}
+			}
+		}
+
+		public boolean block() throws InterruptedException {
+			synchronized (split) {
+				while (!isFinished)
+					split.wait();
+			}
+			return true;
+		}
+
+		public boolean isReleasable() {
+			return isFinished;
+		}
+
+		boolean isFinished() {
+			return isFinished;
+		}
+
+		int getMove() {
+			return move;
+		}
+
+		int getMoveNumber() {
+			return moveNumber;
+		}
+
+		double getScore() {
+			return score;
+		}
+
+		/**
+		 * Returns the nodes searched for the task
+		 * 
+		 * @return
+		 */
+		long getNodes() {
+			return searchedNodes;
+		}
+
+		/**
+		 * Remembers a result stored in the task's own table, three longs
+		 * each, so it can be stored in the table of the search that split
+		 * later
+		 * 
+		 * @param key
+		 * @param depth
+		 * @param bound
+		 * @param score
+		 * @param move
+		 */
+		void addResult(long key, int depth, int bound, double score, int move) {
+			if (resultsLength + 3 > results.length)
+				results = Arrays.copyOf(results,
+						Math.max(3 * 64, 2 * results.length));
+			results[resultsLength++] = key;
+			results[resultsLength++] = Double.doubleToLongBits(score);
+			results[resultsLength++] = (move & 0xFFFFFFFFL)
+					| ((long) depth << 32) | ((long) bound << 40);
+		}
+
+		/**
+		 * Stores the results the task found in the table of
+		 * <code>search</code>, in the order they were found
+		 * 
+		 * @param search
+		 */
+		void storeResults(AI search) {
+			for (int i = 0; i < resultsLength; i += 3)
+				search.storeHash(results[i], (int) (results[i + 2] >>> 32)
+						& 0xFF, (int) (results[i + 2] >>> 40),
+						Double.longBitsToDouble(results[i + 1]),
+						(int) results[i + 2]);
+		}
 	}
-}
 
-/**
- * Simple comparator implementation so I can use the sort method in the
- * Collection class. This helps move ordering to get tight alpha/beta bounds
- * quickly
- * 
- * @author Matthew
- * 
- */
-class NodeComparator implements Comparator {
+	/**
+	 * Worker thread of a YBW search with its own copy of the engine to search
+	 * on
+	 */
+	private static class SplitWorker extends ForkJoinWorkerThread {
+		AI search;
+
+		SplitWorker(ForkJoinPool pool, Engine root) {
+			super(pool);
+			search = new Engine(root).getAI();
+			search.isHelper = true;
+			search.splitPool = pool;
+		}
+	}
 
-	@Override
-	public int compare(Object node1, Object node2) {
-		// TODO Auto-generated method stub neg is less than
+	/**
+	 * Makes the YBW workers, each with a copy of <code>root</code>. The root
+	 * engine is never searched on, so workers the pool starts in the middle
+	 * of a search still start from the root position.
+	 */
+	private static class SplitWorkerFactory implements
+			ForkJoinPool.ForkJoinWorkerThreadFactory {
+		Engine root;
 
-		double scoreDifference = (((Node) node1).getScore() - ((Node) node2)
-				.getScore());
+		SplitWorkerFactory(Engine rootIn) {
+			this.root = rootIn;
+		}
 
-		if (scoreDifference > 0)
-			return 1;
-		else if (scoreDifference == 0)
-			return 0;
-		else
-			return -1;
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			return new SplitWorker(pool, root);
+		}
 	}
-}
\ No newline at end of file
+
+	public boolean isThinking() {
+		return isThinking;
+	}
+}
@@ -41,7 +41,7 @@ public class AI_ProgressThread implements Runnable{
 			text = "Quiet Intrigue is thinking..." + ai.getBranchCounter() + "/" + ai.getNumBranches() + " moves considered.";
 		}
 		else{
-			double score = ai.evaluate(controller.isWhiteTurn(), controller.gameTreeController.root, false);
+			double score = ai.evaluate(controller.isWhiteTurn(), false);
 			text = "It is your turn to move. Evaluation of current position: " + score;
 		}
 		
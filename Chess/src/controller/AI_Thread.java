@@ -18,12 +18,18 @@ along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
 
 package controller;
 
+import model.Node;
 import view.View;
 
 /**
  * AI_Thread is a backend thread that the GUI event can kick off so that
  * the program is responsive and the GUI doesn't have to wait until search
  * and evaluation is done to update the board.
+ * 
+ * The search can be cancelled from the GUI thread (see
+ * Controller.stopAIThread), for instance when a new game is started. The
+ * search then stops within a few milliseconds, leaving the model as it found
+ * it, and its move is not played.
  * @author Matthew
  *
  */
@@ -32,6 +38,7 @@ public class AI_Thread implements Runnable{
 	boolean isWhiteTurn;
 	Controller controller;
 	AI ai;
+	volatile boolean isCancelled;
 	
 	public AI_Thread(Controller controllerIn, AI aiIn, boolean whiteTurnIn) {
 		isWhiteTurn = whiteTurnIn;
@@ -41,13 +48,21 @@ public class AI_Thread implements Runnable{
 
 	@Override
 	public void run() {
-		// TODO Auto-generated method stub
-		
-		synchronized(controller.getModel()){
-		controller.processMove(ai.move(isWhiteTurn));
+		Node node = ai.move(isWhiteTurn);
+		if (isCancelled || node == null)
+			return;
+
+		controller.processMove(node);
 		
 		View view = controller.getView();
 		view.update();
 	}
+
+	/**
+	 * Asks the search to stop and makes sure its move won't be played
+	 */
+	public void cancel() {
+		isCancelled = true;
+		ai.stop();
 	}
 }
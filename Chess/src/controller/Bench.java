@@ -0,0 +1,196 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package controller;
+
+import java.util.ArrayList;
+
+import model.PackedMove;
+import utils.Constants;
+
+/**
+ * Measures how much faster the search gets with more threads. A few
+ * positions are each searched to a fixed depth with 1, 2, 4 ... threads up to
+ * the number asked for, starting from an empty transposition table, and the
+ * time, nodes, nodes per second and speedup in time to depth over one thread
+ * are printed for each thread count.
+ *
+ * With <code>-repeat N</code> every position is then searched N more times
+ * with the most threads, and any run that finds a different move, score or
+ * node count than the first is reported, and the exit status is 1. The YBW
+ * search should always repeat itself; Lazy SMP isn't expected to.
+ *
+ * Start it with
+ * <code>java controller.Bench [-depth N] [-threads N] [-repeat N]</code>.
+ * The flags of the GUI, such as -parallel ybw or -log, work too.
+ *
+ * @author Matthew
+ *
+ */
+public class Bench {
+
+	private final static int defaultDepth = 6;
+
+	// Iterations searched again after failing low or high on their
+	// aspiration window, counted by searchPositions
+	private static int failLows;
+	private static int failHighs;
+
+	private final static String[] positions = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1" };
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int depth = defaultDepth;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		int repeats = 0;
+		ArrayList<String> engineArgs = new ArrayList<String>();
+
+		try {
+			for (int i = 0; i + 1 < args.length; i = i + 2) {
+				if (args[i].equals("-depth"))
+					depth = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-threads"))
+					maxThreads = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-repeat"))
+					repeats = Integer.parseInt(args[i + 1]);
+				else {
+					engineArgs.add(args[i]);
+					engineArgs.add(args[i + 1]);
+				}
+			}
+		} catch (NumberFormatException numberFormatException) {
+			System.out.println("ERROR: Command line argument invalid: "
+					+ numberFormatException);
+			return;
+		}
+		Engine.processCommandLineArguments(engineArgs
+				.toArray(new String[engineArgs.size()]));
+		depth = Math.max(1, Math.min(depth, Constants.getMaxSearchPly() - 1));
+		maxThreads = Math.max(1, Math.min(maxThreads, Constants.getMaxThreads()));
+
+		Engine engine = new Engine();
+		long baseTime = 0;
+
+		// One untimed pass first, so the JIT has compiled the search before
+		// the one thread time is taken
+		engine.getOptions().setThreads(1);
+		searchPositions(engine, depth);
+
+		for (int threads = 1;; threads = Math.min(2 * threads, maxThreads)) {
+			engine.getOptions().setThreads(threads);
+			long startTime = System.currentTimeMillis();
+			long nodes = searchPositions(engine, depth);
+			long time = Math.max(1, System.currentTimeMillis() - startTime);
+			if (threads == 1)
+				baseTime = time;
+
+			System.out.println("Threads: " + threads + " Depth: " + depth
+					+ " Nodes: " + nodes + " Time: " + time + " ms Nps: "
+					+ nodes * 1000 / time + " Speedup: "
+					+ String.format("%.2f", (double) baseTime / time)
+					+ " Fail lows: " + failLows + " Fail highs: " + failHighs);
+			if (threads == maxThreads)
+				break;
+		}
+
+		if (repeats > 0 && checkRepeatability(engine, depth, repeats) > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Searches every position <code>repeats</code> more times to
+	 * <code>depth</code> from an empty transposition table and prints any run
+	 * whose best move, score or node count differs from the first one.
+	 * Returns the number of positions that didn't repeat.
+	 *
+	 * @param engine
+	 * @param depth
+	 * @param repeats
+	 * @return
+	 */
+	private static int checkRepeatability(Engine engine, int depth,
+			int repeats) {
+		int differing = 0;
+
+		for (int i = 0; i < positions.length; i++) {
+			String first = null;
+			boolean isRepeated = true;
+
+			for (int run = 0; run <= repeats; run++) {
+				engine.setUpPosition(positions[i]);
+				engine.getAI().getTranspositionTable().clear();
+				engine.getAI().chooseMove(engine.isWhiteTurn(),
+						new SearchLimits(depth));
+				String result = PackedMove.toString(engine.getAI()
+						.getBestMove())
+						+ " score " + engine.getAI().getScore() + " nodes "
+						+ engine.getAI().getTotalNodes();
+
+				if (first == null)
+					first = result;
+				else if (!result.equals(first)) {
+					System.out.println("Position " + (i + 1) + " run "
+							+ (run + 1) + ": " + result + ", first run: "
+							+ first);
+					isRepeated = false;
+				}
+			}
+			if (!isRepeated)
+				differing++;
+		}
+		System.out.println("Repeat check: Threads: "
+				+ engine.getOptions().getThreads() + " Depth: " + depth
+				+ " Runs: " + (repeats + 1) + " Positions differing: "
+				+ differing + " of " + positions.length);
+		return differing;
+	}
+
+	/**
+	 * Searches every position to <code>depth</code> from an empty
+	 * transposition table and returns the nodes searched by all threads
+	 *
+	 * @param engine
+	 * @param depth
+	 * @return
+	 */
+	private static long searchPositions(Engine engine, int depth) {
+		long result = 0;
+		failLows = 0;
+		failHighs = 0;
+
+		for (String fen : positions) {
+			engine.setUpPosition(fen);
+			engine.getAI().getTranspositionTable().clear();
+			engine.getAI().chooseMove(engine.isWhiteTurn(),
+					new SearchLimits(depth));
+			result += engine.getAI().getTotalNodes();
+			failLows += engine.getAI().getAspirationFailLows();
+			failHighs += engine.getAI().getAspirationFailHighs();
+		}
+		return result;
+	}
+}
@@ -18,12 +18,16 @@ along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
 
 package controller;
 
+import model.Bitboard;
 import model.Model;
 import model.Move;
 import model.Piece;
+import model.Position;
 
 /**
- * This class is the controller for the board. All advanced operations on the board are handled in this class
+ * This class is the controller for the board. All advanced operations on the board are handled in this class.
+ * Every change to the board array goes through setPieceByCoords and clearSquare, so those two methods also
+ * keep the bitboards in the model's Position in sync.
  * @author Matthew
  *
  */
@@ -83,6 +87,7 @@ public class BoardController {
 			System.out.println("BoardController.setPieceByCoords: Error; attempt to move null piece ignored.");
 		else{
 			model.getBoard()[row][col] = piece;
+			model.getPosition().addPiece(Bitboard.getSquare(row, col), Position.getPieceIndex(piece));
 			result = true;
 			
 	}
@@ -106,6 +111,7 @@ public class BoardController {
 			System.out.println("Model.clearSquare: Column value of " + row + " outside range [0,7]. No action taken.");
 		else{
 			model.getBoard()[row][col] = null;
+			model.getPosition().removePiece(Bitboard.getSquare(row, col));
 			result = true;
 			
 	}
@@ -39,13 +39,14 @@ import model.Node;
 import model.Piece;
 import model.PieceArray;
 import utils.Constants;
-import utils.Constants.LogLevel;
 import utils.Log;
 import utils.Utils;
 import view.View;
 
 /**
- * Controller class that runs the game and handles logic for user interaction
+ * Controller class that runs the game and handles logic for user interaction.
+ * The game itself (position, rules and search) is kept by an Engine, which
+ * this class shows on the board and feeds the user's moves into.
  * 
  * @author Matthew
  * 
@@ -53,6 +54,7 @@ import view.View;
 public class Controller {
 
 	View view;
+	Engine engine;
 	Model model;
 	BoardController boardController;
 	MasterListener masterListener;
@@ -62,6 +64,14 @@ public class Controller {
 	AI AI;
 	Log log;
 
+	// The AI's search, while it is thinking
+	AI_Thread aiRunnable;
+	Thread aiThread;
+
+	// How often stopAIThread checks whether the search has stopped, in
+	// milliseconds
+	private final static int aiStopInterval = 1;
+
 	/**
 	 * Runs the chess game
 	 * 
@@ -93,20 +103,20 @@ public class Controller {
 		//String gameMode = Constants.getDefaultGameMode();
 
 
-		processCommandLineArguments(args);
+		Engine.processCommandLineArguments(args);
 		
 		
-		model = new Model();
-		ruleEngine = new RuleEngine(this);
-		boardController = new BoardController(model);
-		moveGenerator = new MoveGenerator(boardController, ruleEngine, this);
+		engine = new Engine();
+		model = engine.getModel();
+		ruleEngine = engine.getRuleEngine();
+		boardController = engine.getBoardController();
+		moveGenerator = engine.getMoveGenerator();
+		AI = engine.getAI();
+		log = engine.getLog();
 		masterListener = new MasterListener(this);
 		view = new View(this, boardController, masterListener,
 				model.getCapturedPieces());
 		gameTreeController = new GameTreeController(model.getGameTree(), this);
-		AI = new AI(this);
-		long startTime = System.currentTimeMillis();
-		log = new Log();
 
 
 		Runnable aiProgressRunnable = new AI_ProgressThread(this);
@@ -114,92 +124,6 @@ public class Controller {
 		aiProgressThread.start();
 	}
 
-	/**
-	 * Checks command line arguments for valid flags and configures engine accordingly
-	 * @param args
-	 * @param debug
-	 * @param depth
-	 * @param gameMode
-	 */
-	private void processCommandLineArguments(String[] args) {
-		if (args.length > 0) {
-
-			for (int i = 0; i < args.length; i = i + 2) {
-
-				String arg = args[i];
-
-				if (arg.equals("-debug")) {
-					if (args[i + 1].equals("true"))
-						Constants.setDebugFlag(true);
-					else if (args[i + 1].equals("false"))
-						Constants.setDebugFlag(false);
-					else
-						System.out
-								.println("ERROR: Command line argument for debug \'"
-										+ args[i + 1]
-										+ "\' doesn't match expected values of true or false. Default value of "
-										+ Constants.getDebugFlag() + " used.");
-				} else if (arg.equals("-depth")) {
-					try {
-						int d = Integer.parseInt(args[i + 1]);
-						if (d >= Constants.getMinDepth() && d <= Constants.getMaxDepth())
-							Constants.setDepth(d);
-						else
-							System.out
-							.println("ERROR: Command line argument for depth \'"
-									+ args[i + 1]
-									+ "\' invalid. Default value of "
-									+ Constants.getDefaultDepth() + " used. Legal range is ["+ Constants.getMinDepth() + ", " + Constants.getMaxDepth() + "]");
-					} catch (NumberFormatException numberFormatException) {
-						System.out
-								.println("ERROR: Command line argument for depth \'"
-										+ args[i + 1]
-										+ "\' invalid. Default value of "
-										+ Constants.getDefaultDepth() + " used. Legal range is ["+ Constants.getMinDepth() + ", " + Constants.getMaxDepth() + "]");
-					}
-				} else if (arg.equals("-mode")) {
-					String modeIn = args[i + 1];
-					String gameMode = Constants.getDefaultGameMode();
-					if (modeIn.equals("pVc"))
-						gameMode = modeIn;
-					else if (modeIn.equals("pVp"))
-						gameMode = modeIn;
-					else if (modeIn.equals("cVp"))
-						gameMode = modeIn;
-					else if (modeIn.equals("cVc"))
-						gameMode = modeIn;
-					else
-						System.out
-								.println("ERROR: Command line argument for mode \'"
-										+ modeIn
-										+ "\' doesn't match expected values of pVp, pVc, cVp, or cVc. Default value of "
-										+ gameMode + " used.");
-					Constants.setGameMode(gameMode);
-				}
-				else if (arg.equals("-log")){
-					String level =args[i + 1].toLowerCase();
-					
-					if (level.equals("info"))
-						Constants.setLogLevel(LogLevel.INFO);
-					else if(level.equals("error"))
-						Constants.setLogLevel(LogLevel.ERROR);
-					else if (level.equals("debug"))
-						Constants.setLogLevel(LogLevel.DEBUG);
-					else
-						System.out.println("ERROR: Command line argument for log level \'" + level + "\' doesn't match expected values of info, debug, or error. Default value of info used.");
-						
-					
-				}
-				else{
-					System.out.println("ERROR: Command line argument \'" + arg + "\' doesn't match supported arguments mode, depth, logLevel, or debug. No action taken.");
-				}
-				
-
-			}
-		}
-
-	}
-
 	/**
 	 * Sets drag icon to that of the square where mouse was pressed, clears the
 	 * square where mouse was pressed
@@ -270,17 +194,18 @@ public class Controller {
 		view.removeHighlights();
 		view.update();
 
-		gameOver = isGameOver();
+		gameOver = engine.isGameOver();
 
-		if (isGameOver())
+		if (gameOver)
 			JOptionPane.showMessageDialog(new JFrame(), "Game over!");
 
 		if (model.getMoveList().size() != 0)
 			view.highlightPreviousMove(model.getMoveList());
 
 		if (isAIturn() && !gameOver) {
-			Runnable aiRunnable = new AI_Thread(this, AI, isWhiteTurn());
-			Thread aiThread = new Thread(aiRunnable);
+			stopAIThread();
+			aiRunnable = new AI_Thread(this, AI, isWhiteTurn());
+			aiThread = new Thread(aiRunnable);
 			aiThread.start();
 
 		}
@@ -304,59 +229,27 @@ public class Controller {
 	 * @param move
 	 */
 	public void processMoveAttempt(Move move) {
-		boolean moveFound = false;
-		if (RuleEngine.validateMove(move, boardController, true)) {
-			Node root = gameTreeController.getRoot();
-			if (root.getChildren().size() != 0)
-				for (Node node : root.getChildren())
-					if (node.getMove().equals(move)) {
-						moveFound = true;
-						processMove(node);
-					}
-			if (!moveFound) {
-				processMove(new Node(move));
-				System.out
-						.println("Controller.processMoveAttempt: Error: Chosen move not found.");
-			}
-		} else
+		if (ruleEngine.validateMove(move, boardController, true))
+			processMove(new Node(move));
+		else
 			System.out
 					.println("Controller.handleMouseRelease: Invalid move. Board not modified.");
 	}
 
 	/**
-	 * Assumes that the move is valid and updates the move on the board
+	 * Assumes that the move is valid and updates the move on the board. If the
+	 * user is promoting a pawn, they are asked which piece to promote it to.
 	 * 
 	 * @param move
 	 */
 	public void processMove(Node node) {
 		Move move = node.getMove();
-		model.getMoveList().add(move);
-		// Check for special cases, such as pawn promotes, en
-		// passant captures
-		handleSpecialCases(move);
-
-		// Remove piece from it's list in model if a capture
-		// occurred
-		updatePieceLists(move);
-
-		// Move the piece
-		boardController.setPieceByCoords(move.getEndRow(), move.getEndCol(),
-				move.getPiece());
-		move.getPiece().setCol(move.getEndCol());
-		move.getPiece().setRow(move.getEndRow());
-
-		if (boardController.getPieceByCoords(move.getStartRow(),
-				move.getStartCol()) == null) {
-			System.out
-					.println("Controller.processMove ERROR: Trying to move a null piece? A move probably wasn't selected from the search, so the same move that was picked last time is now being picked.");
-			System.out.println("Controller.processMove: " + move.toString());
-		}
-		// Mark the piece has having moved
-		boardController
-				.getPieceByCoords(move.getStartRow(), move.getStartCol())
-				.setHasMoved(true);
 
-		boardController.clearSquare(move.getStartRow(), move.getStartCol());
+		if (!isAIturn() && move.getPiece().getType() == Constants.getPawnChar()
+				&& (move.getEndRow() == 7 || move.getEndRow() == 0))
+			move.setPromotePiece(getPawnPromoteChoice());
+
+		engine.processMove(move);
 
 		gameTreeController.setRoot(node);
 		node.setParent(null);
@@ -401,103 +294,6 @@ public class Controller {
 
 	}
 
-	/**
-	 * Returns true if white or black is in checkmate or stalemate.
-	 * 
-	 * @return
-	 */
-	public boolean isGameOver() {
-
-		boolean result = false;
-
-		boolean isWhite = true;
-
-		if (isBlackCheckmated() || isWhiteCheckmated()
-				|| moveGenerator.isStalemated(isWhite)
-				|| moveGenerator.isStalemated(!isWhite))
-			result = true;
-
-		return result;
-	}
-
-	/**
-	 * Returns true if white is in check and has no legal moves
-	 * 
-	 * @return
-	 */
-	public boolean isWhiteCheckmated() {
-		PieceArray white = model.getWhitePieces();
-		Piece king = null;
-		boolean inCheck = false;
-		boolean result = false;
-
-		king = white.getKing();
-
-		if (king == null)
-			result = true;
-		else {
-			boolean black = false;
-			if (RuleEngine
-					.isAttackedSquare(king.getRow(), king.getCol(), black))
-				inCheck = true;
-
-			ArrayList<Move> legalMoves = new ArrayList<Move>();
-
-			if (inCheck) {
-				for (int row = 0; row < 8; row++) {
-					for (int col = 0; col < 8; col++)
-						if (boardController.getPieceByCoords(row, col) != null
-								&& boardController.getPieceByCoords(row, col)
-										.isWhite()) {
-							moveGenerator.findMoves(legalMoves, row, col);
-
-						}
-				}
-			}
-			result = inCheck && (legalMoves.isEmpty());
-		}
-		return result;
-	}
-
-	/**
-	 * Returns true if black is in check and has no legal moves
-	 * 
-	 * @return
-	 */
-	public boolean isBlackCheckmated() {
-		PieceArray black = model.getBlackPieces();
-		Piece king = null;
-		boolean inCheck = false;
-		boolean result = false;
-
-		king = black.getKing();
-
-		if (king == null)
-			result = true;
-		else {
-			boolean white = true;
-			if (RuleEngine
-					.isAttackedSquare(king.getRow(), king.getCol(), white))
-				inCheck = true;
-
-			ArrayList<Move> legalMoves = new ArrayList<Move>();
-			if (inCheck) {
-				for (int row = 0; row < 8; row++) {
-					for (int col = 0; col < 8; col++)
-						if (boardController.getPieceByCoords(row, col) != null
-								&& !boardController.getPieceByCoords(row, col)
-										.isWhite()) {
-							moveGenerator.findMoves(legalMoves, row, col);
-
-						}
-				}
-			}
-
-			result = inCheck && (legalMoves.isEmpty());
-		}
-		return result;
-	}
-
 	/**
 	 * Returns true if a square designated by row = endRow and col = endCol is
 	 * on the board
@@ -510,84 +306,6 @@ public class Controller {
 		return (endRow >= 0 && endRow <= 7 && endCol >= 0 && endCol <= 7);
 	}
 
-	/**
-	 * Calls methods to process edge case moves <li>En Passant captures <li>Pawn
-	 * promotions <li>Castling
-	 * 
-	 * @param move
-	 */
-	private void handleSpecialCases(Move move) {
-		handleEnPassantCaptures(move);
-		handlePawnPromote(move);
-		handleCastling(move);
-	}
-
-	/**
-	 * Calls move generator and prints all the legal moves that it finds
-	 */
-	public void printLegalMoves() {
-		ArrayList<Move> legalMoves = new ArrayList<Move>();
-
-		for (int row = 0; row < 8; row++) {
-			for (int col = 0; col < 8; col++) {
-				moveGenerator.findMoves(legalMoves, row, col);
-			}
-		}
-
-		for (Move move : legalMoves)
-			System.out.println(move.toString());
-	}
-
-	/**
-	 * If parameter move was a kingside or queenside castle, this method moves
-	 * the rook to the proper square
-	 * 
-	 * @param move
-	 */
-	public void handleCastling(Move move) {
-		if (move.getPiece().getType() == Constants.getKingChar()
-				&& RuleEngine.calculateDeltaColUnsigned(move) == 2) {
-			if (RuleEngine.calculateDeltaColSigned(move) == 2) {
-				Piece rook = boardController.getPieceByCoords(
-						move.getStartRow(), 7);
-				boardController.setPieceByCoords(move.getStartRow(), 5, rook);
-				rook.setCol(5);
-				boardController.clearSquare(move.getStartRow(), 7);
-			} else {
-				Piece rook = boardController.getPieceByCoords(
-						move.getStartRow(), 0);
-				boardController.setPieceByCoords(move.getStartRow(), 3, rook);
-				rook.setCol(3);
-				boardController.clearSquare(move.getStartRow(), 0);
-			}
-
-		}
-
-	}
-
-	/**
-	 * If parameter move was a pawn being moved to the first or last rank, this
-	 * method prompts the user for a piece type and turns the pawn into the type
-	 * chosen by the user. If it's the AI's move, default to a queen.
-	 * 
-	 * @param move
-	 */
-	private void handlePawnPromote(Move move) {
-
-		// If it's a user move, the piece type will be a pawn
-		if (move.getPiece().getType() == Constants.getPawnChar()
-				&& (move.getEndRow() == 7 || move.getEndRow() == 0)) {
-			char choice;
-
-			if (isAIturn())
-				choice = move.getPromotePiece();
-			else
-				choice = getPawnPromoteChoice();
-			move.getPiece().setType(choice);
-		}
-
-	}
-
 	/**
 	 * Prompts the user for the type of piece they want to promote their pawn
 	 * to, and returns a string of the name of that type.
@@ -628,95 +346,6 @@ public class Controller {
 		}
 	}
 
-	/**
-	 * If the move was a capture, remove the captured piece from it's list
-	 * 
-	 * @param move
-	 */
-	private void updatePieceLists(Move move) {
-		if (boardController
-				.getPieceByCoords(move.getEndRow(), move.getEndCol()) != null)
-			removePieceFromList(move);
-
-	}
-
-	/**
-	 * If execution gets to this method, then Move parameter move is valid.
-	 * Check if it was an en passant capture. If it is a valid en passant
-	 * capture, then we can clear the square that the previous move ended on,
-	 * because it had to have been where the captured pawn ended up.
-	 * 
-	 * Returns a reference to the pawn that got captured, if one exists
-	 * 
-	 * @param move
-	 */
-	public Piece handleEnPassantCaptures(Move move) {
-		Piece pawnCaptured = null;
-
-		if (move.getPiece().getType() == Constants.getPawnChar()
-				&& move.getStartCol() != move.getEndCol()
-				&& boardController.getPieceByCoords(move.getEndRow(),
-						move.getEndCol()) == null) {
-			int size = model.getMoveList().size();
-
-			// This method only gets called after the passant move has been
-			// added to the move list,
-			// so we need to look 2 moves back to fine the move where the enemy
-			// pawn moved 2 squares.
-			Move previousMove = null;
-			// if (AI.isNullMoveBranch())
-			// previousMove = model.getMoveList().get(size - 3);
-			// else
-			previousMove = model.getMoveList().get(size - 2);
-
-			// if (null ==
-			// boardController.getPieceByCoords(previousMove.getEndRow(),
-			// previousMove.getEndCol()))
-			// System.out.println("Error");
-			// System.out.println(model.getMoveList().get(size-2).coloredAlgebraicNotationPrint());
-			// System.out.println(move.algebraicNotationPrint());
-			removePieceFromList(previousMove);
-
-			pawnCaptured = previousMove.getPiece();
-
-			boardController.clearSquare(previousMove.getEndRow(),
-					previousMove.getEndCol());
-		}
-		return pawnCaptured;
-
-	}
-
-	/**
-	 * Removes the piece on the destination square of Move parameter move from
-	 * it's black/white piece list in the model.
-	 * 
-	 * Note: This method gets called eventually when checking to see how many
-	 * moves a player has form a given position. If the player can check their
-	 * opponent, then capturing the enemy king is a legal move from that
-	 * position (even though it is not that player's turn). The end result is
-	 * that the king might get "captured" by this method, but it's not because
-	 * it's possible, the engine is just seeing if that is a legal move from the
-	 * position (assuming it were able to move).
-	 * 
-	 * @param move
-	 */
-	public void removePieceFromList(Move move) {
-
-		Piece piece = boardController.getPieceByCoords(move.getEndRow(),
-				move.getEndCol());
-
-		if (piece == null)
-			log.error("Controller.removePieceFromList: Removing null piece?");
-
-		if (piece.isWhite()) {
-			model.getWhitePieces().remove(piece);
-		} else
-			model.getBlackPieces().remove(piece);
-
-		model.getCapturedPieces().add(piece);
-
-	}
-
 	/**
 	 * Returns the column designated by a mouseEvent
 	 * 
@@ -761,6 +390,29 @@ public class Controller {
 		return result;
 	}
 
+	/**
+	 * Stops the AI if it is thinking and waits until it has, so the game can
+	 * be changed without racing the search. The move it was thinking about is
+	 * not played. The search checks for the stop at every node, so this only
+	 * takes a few milliseconds.
+	 */
+	public void stopAIThread() {
+		if (aiThread == null)
+			return;
+
+		aiRunnable.cancel();
+		while (aiThread.isAlive()) {
+			AI.stop();
+			try {
+				aiThread.join(aiStopInterval);
+			} catch (InterruptedException interruptedException) {
+				break;
+			}
+		}
+		aiThread = null;
+		aiRunnable = null;
+	}
+
 	/**
 	 * Processes action events
 	 * 
@@ -769,6 +421,7 @@ public class Controller {
 	public void handleActionEvent(ActionEvent e) {
 		if (e.getActionCommand().equals("newGame")) {
 			System.out.println("Controller.handleActionEvent: ResettingGame");
+			stopAIThread();
 			model.resetModel();
 			view.update();
 		} else if (e.getActionCommand().equals("flipBoard")) {
@@ -776,6 +429,7 @@ public class Controller {
 		} else if (e.getActionCommand().equals("changeGameMode")) {
 			String choice = promptForGameMode();
 			if (choice != null) {
+				stopAIThread();
 				model.setGameMode(choice);
 				// model.resetModel();
 				view.update();
@@ -810,6 +464,7 @@ public class Controller {
 
 		if (s != null && s.length() > 0) {
 			int i = new Integer(s);
+			stopAIThread();
 			Constants.setDepth(i);
 			model.resetModel();
 			view.update();
@@ -955,14 +610,7 @@ public class Controller {
 	 * @return
 	 */
 	public boolean isWhiteTurn() {
-		boolean result = false;
-		int turnNumber = model.getMoveList().size();
-
-		if ((turnNumber % 2) == 1)
-			result = false;
-		else
-			result = true;
-		return result;
+		return engine.isWhiteTurn();
 	}
 
 	/**
@@ -992,35 +640,14 @@ public class Controller {
 
 	}
 
-	/**
-	 * Returns true if the same position has occurred 3 times in a row.
-	 * 
-	 * @return
-	 */
-	public boolean isDrawByThreefoldRepitition() {
-		boolean result = true;
-
-		if (model.getMoveList().size() < 11)
-			result = false;
-		else {
-			int size = model.getMoveList().size();
-			ArrayList<Move> moveList = model.getMoveList();
-			for (int i = 0; i < 5; i++) {
-				if (!moveList.get(size - 1 - i).equals(
-						moveList.get(size - 4 - 1 - i)))
-					result = false;
-
-			}
-
-		}
-
-		return result;
-	}
-
 	/******************************************************************/
 	/** Getters and Setters **/
 	/******************************************************************/
 
+	public Engine getEngine() {
+		return engine;
+	}
+
 	public Model getModel() {
 		return model;
 	}
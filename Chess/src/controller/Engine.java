@@ -0,0 +1,568 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package controller;
+
+import java.util.ArrayList;
+
+import model.Model;
+import model.Move;
+import model.PackedMove;
+import model.Piece;
+import utils.Constants;
+import utils.Constants.LogLevel;
+import utils.Constants.ParallelSearch;
+import utils.Log;
+
+/**
+ * The chess engine without the GUI: a game position, the rules and the
+ * search. Everything it needs hangs off the instance, so any number of
+ * engines can play their own games in one JVM (on different threads if need
+ * be), and nothing from AWT or Swing is loaded. Controller wraps one of these
+ * and adds the board display and mouse handling.
+ *
+ * @author Matthew
+ *
+ */
+public class Engine {
+
+	Model model;
+	BoardController boardController;
+	RuleEngine ruleEngine;
+	MoveGenerator moveGenerator;
+	AI AI;
+	Log log;
+	EngineOptions options;
+
+	/**
+	 * Constructor. The engine starts from the initial position, with the
+	 * options in Constants.
+	 */
+	public Engine() {
+		log = new Log();
+		options = new EngineOptions();
+		model = new Model();
+		boardController = new BoardController(model);
+		ruleEngine = new RuleEngine(this);
+		moveGenerator = new MoveGenerator(this);
+		AI = new AI(this);
+	}
+
+	/**
+	 * Copy constructor. The copy gets its own copy of the game, so it can
+	 * search or count moves on another thread while the original is left
+	 * alone, but shares the original's transposition table. The options are
+	 * copied too.
+	 *
+	 * @param engineIn
+	 */
+	public Engine(Engine engineIn) {
+		log = new Log();
+		options = new EngineOptions(engineIn.getOptions());
+		model = new Model(engineIn.getModel());
+		boardController = new BoardController(model);
+		ruleEngine = new RuleEngine(this);
+		moveGenerator = new MoveGenerator(this);
+		AI = new AI(this, engineIn.getAI().getTranspositionTable());
+	}
+
+	/**
+	 * Checks command line arguments for valid flags and configures engine accordingly.
+	 * Hash size, threads, move time and parallel search are set in Constants
+	 * for the engines created afterwards.
+	 * @param args
+	 */
+	public static void processCommandLineArguments(String[] args) {
+		if (args.length > 0) {
+
+			for (int i = 0; i < args.length; i = i + 2) {
+
+				String arg = args[i];
+
+				if (arg.equals("-debug")) {
+					if (args[i + 1].equals("true"))
+						Constants.setDebugFlag(true);
+					else if (args[i + 1].equals("false"))
+						Constants.setDebugFlag(false);
+					else
+						System.out
+								.println("ERROR: Command line argument for debug \'"
+										+ args[i + 1]
+										+ "\' doesn't match expected values of true or false. Default value of "
+										+ Constants.getDebugFlag() + " used.");
+				} else if (arg.equals("-depth")) {
+					try {
+						int d = Integer.parseInt(args[i + 1]);
+						if (d >= Constants.getMinDepth() && d <= Constants.getMaxDepth())
+							Constants.setDepth(d);
+						else
+							System.out
+							.println("ERROR: Command line argument for depth \'"
+									+ args[i + 1]
+									+ "\' invalid. Default value of "
+									+ Constants.getDefaultDepth() + " used. Legal range is ["+ Constants.getMinDepth() + ", " + Constants.getMaxDepth() + "]");
+					} catch (NumberFormatException numberFormatException) {
+						System.out
+								.println("ERROR: Command line argument for depth \'"
+										+ args[i + 1]
+										+ "\' invalid. Default value of "
+										+ Constants.getDefaultDepth() + " used. Legal range is ["+ Constants.getMinDepth() + ", " + Constants.getMaxDepth() + "]");
+					}
+				} else if (arg.equals("-mode")) {
+					String modeIn = args[i + 1];
+					String gameMode = Constants.getDefaultGameMode();
+					if (modeIn.equals("pVc"))
+						gameMode = modeIn;
+					else if (modeIn.equals("pVp"))
+						gameMode = modeIn;
+					else if (modeIn.equals("cVp"))
+						gameMode = modeIn;
+					else if (modeIn.equals("cVc"))
+						gameMode = modeIn;
+					else
+						System.out
+								.println("ERROR: Command line argument for mode \'"
+										+ modeIn
+										+ "\' doesn't match expected values of pVp, pVc, cVp, or cVc. Default value of "
+										+ gameMode + " used.");
+					Constants.setGameMode(gameMode);
+				}
+				else if (arg.equals("-log")){
+					String level =args[i + 1].toLowerCase();
+					
+					if (level.equals("info"))
+						Constants.setLogLevel(LogLevel.INFO);
+					else if(level.equals("error"))
+						Constants.setLogLevel(LogLevel.ERROR);
+					else if (level.equals("debug"))
+						Constants.setLogLevel(LogLevel.DEBUG);
+					else
+						System.out.println("ERROR: Command line argument for log level \'" + level + "\' doesn't match expected values of info, debug, or error. Default value of info used.");
+						
+					
+				}
+				else if (arg.equals("-threads")) {
+					try {
+						int threads = Integer.parseInt(args[i + 1]);
+						if (threads >= 1 && threads <= Constants.getMaxThreads())
+							Constants.setThreads(threads);
+						else
+							System.out.println("ERROR: Command line argument for threads \'" + args[i + 1] + "\' invalid. Default value of " + Constants.getDefaultThreads() + " used. Legal range is [1, " + Constants.getMaxThreads() + "]");
+					} catch (NumberFormatException numberFormatException) {
+						System.out.println("ERROR: Command line argument for threads \'" + args[i + 1] + "\' invalid. Default value of " + Constants.getDefaultThreads() + " used. Legal range is [1, " + Constants.getMaxThreads() + "]");
+					}
+				}
+				else if (arg.equals("-hash")) {
+					try {
+						int hashSize = Integer.parseInt(args[i + 1]);
+						if (hashSize >= 1 && hashSize <= Constants.getMaxHashSize())
+							Constants.setHashSize(hashSize);
+						else
+							System.out.println("ERROR: Command line argument for hash size \'" + args[i + 1] + "\' invalid. Default value of " + Constants.getDefaultHashSize() + " MB used. Legal range is [1, " + Constants.getMaxHashSize() + "]");
+					} catch (NumberFormatException numberFormatException) {
+						System.out.println("ERROR: Command line argument for hash size \'" + args[i + 1] + "\' invalid. Default value of " + Constants.getDefaultHashSize() + " MB used. Legal range is [1, " + Constants.getMaxHashSize() + "]");
+					}
+				}
+				else if (arg.equals("-movetime")) {
+					try {
+						int moveTime = Integer.parseInt(args[i + 1]);
+						if (moveTime >= 0)
+							Constants.setMoveTime(moveTime);
+						else
+							System.out.println("ERROR: Command line argument for move time \'" + args[i + 1] + "\' invalid. Default value of " + Constants.getDefaultMoveTime() + " ms used. Use 0 for no limit.");
+					} catch (NumberFormatException numberFormatException) {
+						System.out.println("ERROR: Command line argument for move time \'" + args[i + 1] + "\' invalid. Default value of " + Constants.getDefaultMoveTime() + " ms used. Use 0 for no limit.");
+					}
+				}
+				else if (arg.equals("-parallel")) {
+					String parallel = args[i + 1].toLowerCase();
+					if (parallel.equals("lazysmp"))
+						Constants.setParallelSearch(ParallelSearch.LAZY_SMP);
+					else if (parallel.equals("ybw"))
+						Constants.setParallelSearch(ParallelSearch.YBW);
+					else
+						System.out.println("ERROR: Command line argument for parallel search \'" + parallel + "\' doesn't match expected values of lazysmp or ybw. Default value of lazysmp used.");
+				}
+				else{
+					System.out.println("ERROR: Command line argument \'" + arg + "\' doesn't match supported arguments mode, depth, logLevel, debug, hash, movetime, threads, or parallel. No action taken.");
+				}
+				
+
+			}
+		}
+
+	}
+
+	/**
+	 * Sets the game up from the start position
+	 */
+	public void setUpStartPosition() {
+		model.resetModel();
+	}
+
+	/**
+	 * Sets the game up from a position in Forsyth-Edwards Notation. Returns
+	 * null once it is set up, or why the FEN can't be read, with the position
+	 * unchanged.
+	 *
+	 * @param fen
+	 * @return
+	 */
+	public String setUpPosition(String fen) {
+		return model.setUpFromFen(fen);
+	}
+
+	/**
+	 * Plays a move given in coordinate notation, such as e2e4, e1g1 for
+	 * castling or e7e8q for a promotion. Returns false, without changing
+	 * anything, if it isn't a legal move for the side to move.
+	 *
+	 * @param moveText
+	 * @return
+	 */
+	public boolean processMove(String moveText) {
+		int[] moves = new int[Constants.getMaxMovesPerPosition()];
+		int count = moveGenerator.generateMoves(isWhiteTurn(), moves);
+
+		for (int i = 0; i < count; i++) {
+			if (PackedMove.toString(moves[i]).equals(moveText)) {
+				processMove(moveGenerator.toMove(moves[i]));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Searches the current position for the side to move and returns the
+	 * move the search picked, or null if there are no legal moves. The move
+	 * is not played.
+	 *
+	 * @return
+	 */
+	public Move findBestMove() {
+		Move result = null;
+		AI.chooseMove(isWhiteTurn());
+
+		if (AI.getBestMove() != PackedMove.NONE)
+			result = moveGenerator.toMove(AI.getBestMove());
+		return result;
+	}
+
+	/**
+	 * Assumes that the move is legal and plays it in the game. A pawn moving
+	 * to the last rank is promoted to the move's promote piece.
+	 *
+	 * @param move
+	 */
+	public void processMove(Move move) {
+		boolean isIrreversible = move.getPiece().getType() == Constants
+				.getPawnChar()
+				|| boardController.getPieceByCoords(move.getEndRow(),
+						move.getEndCol()) != null;
+		model.getPosition().saveState();
+		model.getMoveList().add(move);
+		// Check for special cases, such as pawn promotes, en
+		// passant captures
+		Piece capturedPiece = handleSpecialCases(move);
+
+		// Remove piece from it's list in model if a capture
+		// occurred
+		if (capturedPiece == null)
+			capturedPiece = updatePieceLists(move);
+
+		// Only moves played in the game are shown as captured. The search
+		// keeps its captures in the position's undo records instead.
+		if (capturedPiece != null)
+			model.getCapturedPieces().add(capturedPiece);
+
+		// Move the piece
+		boardController.setPieceByCoords(move.getEndRow(), move.getEndCol(),
+				move.getPiece());
+		move.getPiece().setCol(move.getEndCol());
+		move.getPiece().setRow(move.getEndRow());
+
+		if (boardController.getPieceByCoords(move.getStartRow(),
+				move.getStartCol()) == null) {
+			System.out
+					.println("Engine.processMove ERROR: Trying to move a null piece? A move probably wasn't selected from the search, so the same move that was picked last time is now being picked.");
+			System.out.println("Engine.processMove: " + move.toString());
+		}
+		// Mark the piece has having moved
+		boardController
+				.getPieceByCoords(move.getStartRow(), move.getStartCol())
+				.setHasMoved(true);
+
+		boardController.clearSquare(move.getStartRow(), move.getStartCol());
+		ruleEngine.updatePositionState(move, isIrreversible);
+	}
+
+	/**
+	 * Returns true if white or black is in checkmate or stalemate.
+	 *
+	 * @return
+	 */
+	public boolean isGameOver() {
+
+		boolean result = false;
+
+		boolean isWhite = true;
+
+		if (isBlackCheckmated() || isWhiteCheckmated()
+				|| moveGenerator.isStalemated(isWhite)
+				|| moveGenerator.isStalemated(!isWhite))
+			result = true;
+
+		return result;
+	}
+
+	/**
+	 * Returns true if white is in check and has no legal moves
+	 *
+	 * @return
+	 */
+	public boolean isWhiteCheckmated() {
+		return isCheckmated(true);
+	}
+
+	/**
+	 * Returns true if black is in check and has no legal moves
+	 *
+	 * @return
+	 */
+	public boolean isBlackCheckmated() {
+		return isCheckmated(false);
+	}
+
+	/**
+	 * Returns true if the side designated by isWhite is in check and has no
+	 * legal moves. Generation stops at the first legal move found.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	private boolean isCheckmated(boolean isWhite) {
+		boolean result = false;
+		Piece king = isWhite ? model.getWhitePieces().getKing() : model
+				.getBlackPieces().getKing();
+
+		if (king == null)
+			result = true;
+		else if (ruleEngine.isAttackedSquare(king.getRow(), king.getCol(),
+				!isWhite))
+			result = !moveGenerator.hasAnyLegalMove(isWhite);
+
+		return result;
+	}
+
+	/**
+	 * Returns true if the current position has occurred 3 times in the game.
+	 *
+	 * @return
+	 */
+	public boolean isDrawByThreefoldRepitition() {
+		return model.getPosition().isDrawByRepetition(0);
+	}
+
+	/**
+	 * Returns true if it is white's turn to move, false otherwise.
+	 *
+	 * @return
+	 */
+	public boolean isWhiteTurn() {
+		return model.getPosition().isWhiteToMove();
+	}
+
+	/**
+	 * Calls move generator and prints all the legal moves that it finds
+	 */
+	public void printLegalMoves() {
+		ArrayList<Move> legalMoves = new ArrayList<Move>();
+
+		for (int row = 0; row < 8; row++) {
+			for (int col = 0; col < 8; col++) {
+				moveGenerator.findMoves(legalMoves, row, col);
+			}
+		}
+
+		for (Move move : legalMoves)
+			System.out.println(move.toString());
+	}
+
+	/**
+	 * Calls methods to process edge case moves <li>En Passant captures <li>Pawn
+	 * promotions <li>Castling
+	 *
+	 * Returns the pawn captured en passant, if there was one
+	 *
+	 * @param move
+	 * @return
+	 */
+	private Piece handleSpecialCases(Move move) {
+		Piece result = handleEnPassantCaptures(move);
+		handlePawnPromote(move);
+		handleCastling(move);
+		return result;
+	}
+
+	/**
+	 * If parameter move was a kingside or queenside castle, this method moves
+	 * the rook to the proper square
+	 *
+	 * @param move
+	 */
+	public void handleCastling(Move move) {
+		if (move.getPiece().getType() == Constants.getKingChar()
+				&& RuleEngine.calculateDeltaColUnsigned(move) == 2) {
+			if (RuleEngine.calculateDeltaColSigned(move) == 2) {
+				Piece rook = boardController.getPieceByCoords(
+						move.getStartRow(), 7);
+				boardController.setPieceByCoords(move.getStartRow(), 5, rook);
+				rook.setCol(5);
+				boardController.clearSquare(move.getStartRow(), 7);
+			} else {
+				Piece rook = boardController.getPieceByCoords(
+						move.getStartRow(), 0);
+				boardController.setPieceByCoords(move.getStartRow(), 3, rook);
+				rook.setCol(3);
+				boardController.clearSquare(move.getStartRow(), 0);
+			}
+
+		}
+
+	}
+
+	/**
+	 * If parameter move was a pawn being moved to the first or last rank, this
+	 * method turns the pawn into the move's promote piece.
+	 *
+	 * @param move
+	 */
+	private void handlePawnPromote(Move move) {
+		if (move.getPiece().getType() == Constants.getPawnChar()
+				&& (move.getEndRow() == 7 || move.getEndRow() == 0))
+			move.getPiece().setType(move.getPromotePiece());
+	}
+
+	/**
+	 * If the move was a capture, remove the captured piece from it's list.
+	 * Returns the captured piece, or null.
+	 *
+	 * @param move
+	 * @return
+	 */
+	private Piece updatePieceLists(Move move) {
+		Piece result = boardController.getPieceByCoords(move.getEndRow(),
+				move.getEndCol());
+		if (result != null)
+			removePieceFromList(result);
+		return result;
+	}
+
+	/**
+	 * If execution gets to this method, then Move parameter move is valid.
+	 * Check if it was an en passant capture. If it is a valid en passant
+	 * capture, the captured pawn is beside the start square, on the column
+	 * the capturing pawn moved to, so we can clear that square.
+	 *
+	 * Returns a reference to the pawn that got captured, if one exists
+	 *
+	 * @param move
+	 */
+	public Piece handleEnPassantCaptures(Move move) {
+		Piece pawnCaptured = null;
+
+		if (ruleEngine.isEnPassantCapture(move)) {
+			pawnCaptured = boardController.getPieceByCoords(
+					move.getStartRow(), move.getEndCol());
+
+			removePieceFromList(pawnCaptured);
+			boardController.clearSquare(move.getStartRow(), move.getEndCol());
+		}
+		return pawnCaptured;
+
+	}
+
+	/**
+	 * Removes the piece on the destination square of Move parameter move from
+	 * it's black/white piece list in the model.
+	 *
+	 * Note: This method gets called eventually when checking to see how many
+	 * moves a player has form a given position. If the player can check their
+	 * opponent, then capturing the enemy king is a legal move from that
+	 * position (even though it is not that player's turn). The end result is
+	 * that the king might get "captured" by this method, but it's not because
+	 * it's possible, the engine is just seeing if that is a legal move from the
+	 * position (assuming it were able to move).
+	 *
+	 * @param move
+	 */
+	public void removePieceFromList(Move move) {
+
+		removePieceFromList(boardController.getPieceByCoords(
+				move.getEndRow(), move.getEndCol()));
+	}
+
+	/**
+	 * Removes <code>piece</code> from it's black/white piece list in the
+	 * model. Both lists are indexed by piece id, so this takes constant time.
+	 *
+	 * @param piece
+	 */
+	private void removePieceFromList(Piece piece) {
+		if (piece == null)
+			log.error("Engine.removePieceFromList: Removing null piece?");
+
+		if (piece.isWhite()) {
+			model.getWhitePieces().remove(piece);
+		} else
+			model.getBlackPieces().remove(piece);
+	}
+
+	/******************************************************************/
+	/** Getters and Setters **/
+	/******************************************************************/
+
+	public Model getModel() {
+		return model;
+	}
+
+	public BoardController getBoardController() {
+		return boardController;
+	}
+
+	public EngineOptions getOptions() {
+		return options;
+	}
+
+	public RuleEngine getRuleEngine() {
+		return ruleEngine;
+	}
+
+	public MoveGenerator getMoveGenerator() {
+		return moveGenerator;
+	}
+
+	public AI getAI() {
+		return AI;
+	}
+
+	public Log getLog() {
+		return log;
+	}
+}
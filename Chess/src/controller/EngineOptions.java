@@ -0,0 +1,109 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package controller;
+
+import utils.Constants;
+import utils.Constants.ParallelSearch;
+
+/**
+ * The settings of one engine that can be changed while it runs, such as the
+ * UCI options. Each engine has its own, so engines in the same program don't
+ * change each other's settings. A new set starts from the values in
+ * Constants, which the command line may have changed.
+ *
+ * @author Matthew
+ *
+ */
+public class EngineOptions {
+
+	int hashSize;
+	int threads;
+	ParallelSearch parallelSearch;
+	int moveTime;
+
+	/**
+	 * Constructor. Every option starts at its value in Constants.
+	 */
+	public EngineOptions() {
+		this.hashSize = Constants.getHashSize();
+		this.threads = Constants.getThreads();
+		this.parallelSearch = Constants.getParallelSearch();
+		this.moveTime = Constants.getMoveTime();
+	}
+
+	/**
+	 * Copy constructor
+	 *
+	 * @param optionsIn
+	 */
+	public EngineOptions(EngineOptions optionsIn) {
+		this.hashSize = optionsIn.hashSize;
+		this.threads = optionsIn.threads;
+		this.parallelSearch = optionsIn.parallelSearch;
+		this.moveTime = optionsIn.moveTime;
+	}
+
+	/**
+	 * Returns the size of the transposition table in megabytes
+	 *
+	 * @return
+	 */
+	public int getHashSize() {
+		return hashSize;
+	}
+
+	public void setHashSize(int hashSize) {
+		this.hashSize = hashSize;
+	}
+
+	/**
+	 * Returns the number of threads the search may use
+	 *
+	 * @return
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public ParallelSearch getParallelSearch() {
+		return parallelSearch;
+	}
+
+	public void setParallelSearch(ParallelSearch parallelSearch) {
+		this.parallelSearch = parallelSearch;
+	}
+
+	/**
+	 * Returns how many milliseconds a search started by the GUI may take, or
+	 * 0 for no limit
+	 *
+	 * @return
+	 */
+	public int getMoveTime() {
+		return moveTime;
+	}
+
+	public void setMoveTime(int moveTime) {
+		this.moveTime = moveTime;
+	}
+}
@@ -201,21 +201,14 @@ public class GameTreeController {
 		return root;
 	}
 
+	/**
+	 * Makes <code>rootIn</code> the node for the current position. The search
+	 * keeps its own move arrays now and no longer hangs children off of the
+	 * root, so there is nothing to look up.
+	 * 
+	 * @param rootIn
+	 */
 	public void setRoot(Node rootIn) {
-		boolean isUpdated = false;
-		for (Node node: root.getChildren()){
-			if (node.getMove().equals(rootIn.getMove())){
-				this.root = node;
-				isUpdated = true;
-			}
-		}
-		
-		if (!isUpdated){
-			
-			System.out.println("GameTreeController.setRoot: Could not find move " + rootIn.getMove().algebraicNotationPrint() + " in children of current root. Replaced anyway. Error?");
-			
-			this.root=rootIn;
-		
-		}
+		this.root = rootIn;
 	}
 }
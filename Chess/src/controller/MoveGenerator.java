@@ -19,38 +19,299 @@ along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
 package controller;
 
 import java.util.ArrayList;
-import java.util.Collection;
 
 import utils.Constants;
+import model.Bitboard;
 import model.Move;
+import model.PackedMove;
 import model.Piece;
+import model.Position;
 
 /**
- * This class is the efficient way for finding legal moves. It searches only
- * legal move styles for a given piece, and stops when the path along a file or
- * diagonal is blocked. It relies on the RuleEngine class for selfCheck checking
- * as well as king castling, but all other validation is done internally.
- * 
+ * This class is the efficient way for finding legal moves. Target squares for
+ * each piece come straight from the bitboards in the model's Position, so
+ * sliding pieces stop when the path along a file or diagonal is blocked
+ * without walking the board array.
+ *
+ * Moves are written as packed ints (see PackedMove) into an int array the
+ * caller owns, so the search can reuse one array per ply and generate moves
+ * without creating any objects. findMoves still returns Move objects for the
+ * GUI and the rest of the controller. Captures and quiet moves can also be
+ * generated separately, so the search only generates quiet moves at nodes
+ * where no capture caused a cutoff.
+ *
+ * Every move it returns is fully legal without trying it on the board. Before
+ * generating, the pieces giving check and the pieces pinned to the king are
+ * worked out once for the side to move:
+ * <li>If in check by one piece, other pieces may only capture the checker or
+ * block between it and the king (the check mask). In double check only the
+ * king may move.
+ * <li>A pinned piece may only move along the line through its king and the
+ * pinning piece.
+ * <li>King moves are tested with the king lifted off the board so it can't
+ * step backwards along a slider's ray.
+ * <li>En passant is tested by removing both pawns from the occupancy and
+ * looking for an enemy slider that sees the king, which catches the case of
+ * both pawns sharing a rank with the king.
+ *
  * @author Matthew
- * 
+ *
  */
 public class MoveGenerator {
 
 	BoardController boardController;
-	RuleEngine ruleEngine;
-	Controller controller;
+	Engine engine;
+
+	// Legality information for the side currently being generated for
+	private long checkMask;
+	private long pinned;
+	private int kingSquare;
+	private boolean isDoubleCheck;
+
+	// What the current call generates: target squares allowed, whether en
+	// passant and castling are included and which pieces may move
+	private long targetMask;
+	private boolean isGeneratingCaptures;
+	private boolean isGeneratingQuiets;
+	private long fromMask;
+
+	// The array being filled by generateMoves and the index of the next free
+	// entry in it
+	private int[] moveBuffer;
+	private int moveCount;
+
+	// Moves of a single piece, for checking a move is legal
+	private int[] legalityBuffer;
+
+	// Material balance after each capture of a static exchange. There can't
+	// be more captures on one square than pieces on the board.
+	private int[] exchangeGains = new int[32];
+
+	private final static int[] promoteTypes = { Position.QUEEN, Position.ROOK,
+			Position.BISHOP, Position.KNIGHT };
 
 	/**
 	 * Constructor
-	 * 
-	 * @param boardControllerIn
-	 * @param ruleEngineIn
+	 *
+	 * @param engineIn
+	 */
+	public MoveGenerator(Engine engineIn) {
+		this.engine = engineIn;
+		this.boardController = engineIn.getBoardController();
+		this.legalityBuffer = new int[Constants.getMaxMovesPerPosition()];
+	}
+
+	/**
+	 * Writes every legal move for the side designated by <code>isWhite</code>
+	 * into <code>moves</code> as packed ints and returns how many there are.
+	 * <code>moves</code> must hold at least
+	 * Constants.getMaxMovesPerPosition() entries.
+	 *
+	 * @param isWhite
+	 * @param moves
+	 * @return
+	 */
+	public int generateMoves(boolean isWhite, int[] moves) {
+		return generate(isWhite, moves, 0, true, true, ~0L);
+	}
+
+	/**
+	 * Writes the legal captures (including en passant, and promotions that
+	 * capture) for the side designated by <code>isWhite</code> into
+	 * <code>moves</code>, starting at index <code>start</code>. Returns the
+	 * index after the last move written.
+	 *
+	 * @param isWhite
+	 * @param moves
+	 * @param start
+	 * @return
+	 */
+	public int generateCaptures(boolean isWhite, int[] moves, int start) {
+		return generate(isWhite, moves, start, true, false, ~0L);
+	}
+
+	/**
+	 * Writes the legal moves onto empty squares (including castling and
+	 * promotions that don't capture) for the side designated by
+	 * <code>isWhite</code> into <code>moves</code>, starting at index
+	 * <code>start</code>. Together with generateCaptures this gives every
+	 * legal move exactly once. Returns the index after the last move written.
+	 *
+	 * @param isWhite
+	 * @param moves
+	 * @param start
+	 * @return
+	 */
+	public int generateQuietMoves(boolean isWhite, int[] moves, int start) {
+		return generate(isWhite, moves, start, false, true, ~0L);
+	}
+
+	/**
+	 * Returns true if <code>move</code> is legal for the side designated by
+	 * <code>isWhite</code> in the current position. Used for moves that were
+	 * found in another position, like hash moves and killer moves, before
+	 * the search tries them.
+	 *
+	 * @param isWhite
+	 * @param move
+	 * @return
+	 */
+	public boolean isLegalMove(boolean isWhite, int move) {
+		int from = PackedMove.getFrom(move);
+		if (getPosition().getPieceAt(from) != PackedMove.getPiece(move)
+				|| Position.isWhitePiece(PackedMove.getPiece(move)) != isWhite)
+			return false;
+
+		int count = generate(isWhite, legalityBuffer, 0, true, true,
+				Bitboard.getBit(from));
+		for (int i = 0; i < count; i++)
+			if (legalityBuffer[i] == move)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Static exchange evaluation: returns the material the capture
+	 * <code>move</code> wins (below zero if it loses), in piece weights, if
+	 * both sides then keep recapturing on its target square with their least
+	 * valuable piece, each side stopping when recapturing would lose more.
+	 * Pieces behind others on the same line join in once the ones in front
+	 * have captured. Pins are ignored.
+	 *
+	 * @param move
+	 * @return
+	 */
+	public int getExchangeScore(int move) {
+		Position position = getPosition();
+		int to = PackedMove.getTo(move);
+		boolean isWhite = Position.isWhitePiece(PackedMove.getPiece(move));
+		int attackerType = Position.getPieceType(PackedMove.getPiece(move));
+		long occupancy = position.getOccupancy()
+				& ~Bitboard.getBit(PackedMove.getFrom(move));
+
+		exchangeGains[0] = AI.getPieceWeight(Position.getPieceType(PackedMove
+				.getCaptured(move)));
+		if (PackedMove.isEnPassant(move))
+			occupancy &= ~Bitboard.getBit(Bitboard.getSquare(
+					Bitboard.getRow(PackedMove.getFrom(move)),
+					Bitboard.getCol(to)));
+		if (PackedMove.isPromotion(move)) {
+			attackerType = Position.getPieceType(PackedMove.getPromotion(move));
+			exchangeGains[0] += AI.getPieceWeight(attackerType)
+					- AI.getPieceWeight(Position.PAWN);
+		}
+
+		int depth = 0;
+		boolean isWhiteToCapture = !isWhite;
+		while (true) {
+			long attackers = position.getAttackers(to, isWhiteToCapture,
+					occupancy) & occupancy;
+			if (attackers == 0)
+				break;
+
+			// Least valuable attacker
+			int type = Position.PAWN;
+			long pieces = attackers & position.getPieces(type, isWhiteToCapture);
+			while (pieces == 0) {
+				type++;
+				pieces = attackers & position.getPieces(type, isWhiteToCapture);
+			}
+			long from = Bitboard.getBit(Bitboard.getLowestSquare(pieces));
+
+			// The king can't take a defended piece
+			if (type == Position.KING
+					&& (position.getAttackers(to, !isWhiteToCapture, occupancy
+							& ~from) & occupancy & ~from) != 0)
+				break;
+
+			depth++;
+			exchangeGains[depth] = AI.getPieceWeight(attackerType)
+					- exchangeGains[depth - 1];
+			if (Math.max(-exchangeGains[depth - 1], exchangeGains[depth]) < 0)
+				break;
+
+			occupancy &= ~from;
+			attackerType = type;
+			isWhiteToCapture = !isWhiteToCapture;
+		}
+
+		// Each side only makes its capture if that is better than stopping
+		while (depth > 0) {
+			exchangeGains[depth - 1] = -Math.max(-exchangeGains[depth - 1],
+					exchangeGains[depth]);
+			depth--;
+		}
+		return exchangeGains[0];
+	}
+
+	/**
+	 * Writes the legal moves of the side designated by <code>isWhite</code>
+	 * into <code>moves</code> from index <code>start</code> on, limited to
+	 * captures and/or quiet moves and to pieces standing on
+	 * <code>fromMaskIn</code>. Returns the index after the last move written.
+	 *
+	 * @param isWhite
+	 * @param moves
+	 * @param start
+	 * @param includeCaptures
+	 * @param includeQuiets
+	 * @param fromMaskIn
+	 * @return
 	 */
-	public MoveGenerator(BoardController boardControllerIn,
-			RuleEngine ruleEngineIn, Controller controllerIn) {
-		this.boardController = boardControllerIn;
-		this.ruleEngine = ruleEngineIn;
-		this.controller = controllerIn;
+	private int generate(boolean isWhite, int[] moves, int start,
+			boolean includeCaptures, boolean includeQuiets, long fromMaskIn) {
+		Position position = getPosition();
+		long own = position.getOccupancy(isWhite);
+		long occupancy = position.getOccupancy();
+
+		computeLegalityMasks(isWhite);
+		moveBuffer = moves;
+		moveCount = start;
+		isGeneratingCaptures = includeCaptures;
+		isGeneratingQuiets = includeQuiets;
+		fromMask = fromMaskIn;
+		targetMask = 0L;
+		if (includeCaptures)
+			targetMask |= position.getOccupancy(!isWhite);
+		if (includeQuiets)
+			targetMask |= ~occupancy;
+
+		// In double check, only the king can move
+		if (!isDoubleCheck) {
+			findPawnMoves(isWhite);
+
+			long knights = position.getPieces(Position.KNIGHT, isWhite)
+					& fromMask;
+			while (knights != 0) {
+				int square = Bitboard.getLowestSquare(knights);
+				knights &= knights - 1;
+				addMoves(square, Bitboard.getKnightAttacks(square) & ~own);
+			}
+
+			long diagonalSliders = (position.getPieces(Position.BISHOP, isWhite) | position
+					.getPieces(Position.QUEEN, isWhite)) & fromMask;
+			while (diagonalSliders != 0) {
+				int square = Bitboard.getLowestSquare(diagonalSliders);
+				diagonalSliders &= diagonalSliders - 1;
+				addMoves(square, Bitboard.getBishopAttacks(square, occupancy)
+						& ~own);
+			}
+
+			long straightSliders = (position.getPieces(Position.ROOK, isWhite) | position
+					.getPieces(Position.QUEEN, isWhite)) & fromMask;
+			while (straightSliders != 0) {
+				int square = Bitboard.getLowestSquare(straightSliders);
+				straightSliders &= straightSliders - 1;
+				addMoves(square, Bitboard.getRookAttacks(square, occupancy)
+						& ~own);
+			}
+		}
+
+		if (kingSquare != -1 && (fromMask & Bitboard.getBit(kingSquare)) != 0)
+			findKingMoves(isWhite);
+
+		moveBuffer = null;
+		return moveCount;
 	}
 
 	/**
@@ -58,50 +319,31 @@ public class MoveGenerator {
 	 * of legal moves for the piece on that square.
 	 */
 	public ArrayList<Move> findMoves(ArrayList<Move> legalMoves, int row, int col) {
-//		ArrayList<Move> legalMoves = new ArrayList<Move>();
-
 		Piece piece = boardController.getPieceByCoords(row, col);
 		if (piece != null) {
-			if (piece.getType()==Constants.getRookChar())
-				findRookMoves(legalMoves, row, col);
-			else if (piece.getType()==Constants.getBishopChar())
-				findBishopMoves(legalMoves, row, col);
-			else if (piece.getType()==Constants.getQueenChar()) {
-				findBishopMoves(legalMoves, row, col);
-				findRookMoves(legalMoves, row, col);
-			} else if (piece.getType()==Constants.getKnightChar())
-				findKnightMoves(legalMoves, row, col);
-			else if (piece.getType()==Constants.getKingChar())
-				findKingMoves(legalMoves,row, col);
-			else if (piece.getType()==Constants.getPawnChar())
-				findPawnMoves(legalMoves,row, col);
+			int[] moves = new int[Constants.getMaxMovesPerPosition()];
+			int count = generateMoves(piece.isWhite(), moves);
+			int square = Bitboard.getSquare(row, col);
 
+			for (int i = 0; i < count; i++)
+				if (PackedMove.getFrom(moves[i]) == square)
+					legalMoves.add(toMove(moves[i]));
 		}
-		
-		
-		
 		return legalMoves;
 	}
 
 	/**
 	 * Finds all moves for the color of the given parameter <code>color</code>
-	 * 
+	 *
 	 * @return
 	 */
 	public ArrayList<Move> findMoves(boolean isWhite) {
-		Piece piece = null;
-		ArrayList<Move> legalMoves = new ArrayList<Move>();
-		for (int row = 0; row < 8; row++) {
-			for (int col = 0; col < 8; col++) {
-				piece = boardController.getPieceByCoords(row, col);
-				if (piece != null) {
-					if (isWhite == piece.isWhite()){
-						
-						findMoves(legalMoves, row, col);
-					}
-				}
-			}
-		}
+		int[] moves = new int[Constants.getMaxMovesPerPosition()];
+		int count = generateMoves(isWhite, moves);
+
+		ArrayList<Move> legalMoves = new ArrayList<Move>(count);
+		for (int i = 0; i < count; i++)
+			legalMoves.add(toMove(moves[i]));
 
 		return legalMoves;
 	}
@@ -111,36 +353,11 @@ public class MoveGenerator {
 	 * and is not in check.
 	 */
 	public boolean isStalemated(boolean isWhite) {
-		Piece piece = null;
-		int row = 0;
-		int col = 0;
-		int numMoves = 0;
 		boolean result = false;
-		Piece king = null;
-		ArrayList<Move>legalMoves = new ArrayList<Move>();
-		while (row < 8 && numMoves == 0) {
-			col = 0;
-			while (col < 8 && numMoves == 0) {
-				piece = boardController.getPieceByCoords(row, col);
-				if (piece != null) {
-					if ((isWhite == piece.isWhite())) {
-						numMoves += findMoves(legalMoves, row, col).size();
-					}
-				}
-				col++;
-			}
-			row++;
-		}
-
-		if (numMoves == 0) {
-			king = controller.getAI().findKing(isWhite);
 
-			// If the king's square is attacked, it's checkmate, not stalemate.
-			if (!RuleEngine.isAttackedSquare(king.getRow(), king.getCol(),
-					isWhite))
-				
+		if (getPosition().getCheckers(isWhite) == 0
+				&& !hasAnyLegalMove(isWhite))
 			result = true;
-		}
 
 		if (result)
 			System.out.println("MoveGenerator.isStaleMated: StalemateDetected");
@@ -148,419 +365,418 @@ public class MoveGenerator {
 	}
 
 	/**
-	 * Checks one square in each direction around the king and calls
-	 * RuleEngine's logic for validating castling moves.
-	 * 
-	 * @param row
-	 * @param col
+	 * Returns true if the side designated by <code>isWhite</code> has at least
+	 * one legal move. Nothing is written anywhere; it stops at the first piece
+	 * with a legal target. The king is tried first since it is the only piece
+	 * that can move in double check, then the pieces whose targets are
+	 * cheapest to work out.
+	 *
+	 * @param isWhite
 	 * @return
 	 */
-	public ArrayList<Move> findKingMoves(ArrayList<Move> legalMoves,int row, int col) {
-		Piece piece = boardController.getPieceByCoords(row, col);
-		Move move = null;
-		int newRow = 0;
-		int newCol = 0;
-
-		// Check normal one-square moves
-		for (int deltaRow = -1; deltaRow < 2; deltaRow++) {
-			for (int deltaCol = -1; deltaCol < 2; deltaCol++) {
-
-				// You can't move to the same square you are on
-				if (!(deltaRow == 0 && deltaCol == 0)) {
-					newRow = row + deltaRow;
-					newCol = col + deltaCol;
-
-					// If the new square is still on the board
-					if ((newRow < 8 && newRow >= 0)
-							&& (newCol < 8 && newCol >= 0)) {
-
-						// If our own piece is on the destination square, don't
-						// validate it
-						if (!isEmptySquare(newRow, newCol)
-								&& !isEnemyPiece(piece, newRow, newCol))
-							move = null;
-
-						// Otherwise it's empty or a capture, so validate
-						else
-							move = new Move(piece, row, col, newRow, newCol);
-
-						// Add it if it is valid
-						if (move != null
-								&& RuleEngine.isNotSelfCheck(move,
-										boardController))
-							legalMoves.add(move);
-					}
-				}
+	public boolean hasAnyLegalMove(boolean isWhite) {
+		Position position = getPosition();
+		long own = position.getOccupancy(isWhite);
+		long occupancy = position.getOccupancy();
+		computeLegalityMasks(isWhite);
+
+		if (kingSquare != -1) {
+			long occupancyWithoutKing = occupancy
+					& ~Bitboard.getBit(kingSquare);
+			long targets = Bitboard.getKingAttacks(kingSquare) & ~own;
+			while (targets != 0) {
+				int target = Bitboard.getLowestSquare(targets);
+				targets &= targets - 1;
+				if (!position.isAttacked(target, !isWhite,
+						occupancyWithoutKing))
+					return true;
 			}
 		}
 
-		// Check kingside castling
-		move = new Move(piece, piece.getRow(), piece.getCol(), piece.getRow(),
-				piece.getCol() + 2);
-		if (RuleEngine.isLegalKingMove(move))
-			legalMoves.add(move);
+		if (isDoubleCheck)
+			return false;
 
-		// Check queenside castling
-		move = new Move(piece, piece.getRow(), piece.getCol(), piece.getRow(),
-				piece.getCol() - 2);
-		if (RuleEngine.isLegalKingMove(move))
-			legalMoves.add(move);
+		long knights = position.getPieces(Position.KNIGHT, isWhite);
+		while (knights != 0) {
+			int square = Bitboard.getLowestSquare(knights);
+			knights &= knights - 1;
+			if (getLegalTargets(square, Bitboard.getKnightAttacks(square)
+					& ~own) != 0)
+				return true;
+		}
 
-		return legalMoves;
+		long empty = ~occupancy;
+		long enemies = position.getOccupancy(!isWhite);
+		int enPassantSquare = findEnPassantSquare(isWhite);
+		long pawns = position.getPieces(Position.PAWN, isWhite);
+		while (pawns != 0) {
+			int square = Bitboard.getLowestSquare(pawns);
+			pawns &= pawns - 1;
+			if (getLegalTargets(square, getPawnTargets(square, isWhite,
+					empty, enemies)) != 0)
+				return true;
+			if (enPassantSquare != -1
+					&& (Bitboard.getPawnAttacks(isWhite, square) & Bitboard
+							.getBit(enPassantSquare)) != 0
+					&& isLegalEnPassant(isWhite, square, enPassantSquare))
+				return true;
+		}
+
+		long diagonalSliders = position.getPieces(Position.BISHOP, isWhite)
+				| position.getPieces(Position.QUEEN, isWhite);
+		while (diagonalSliders != 0) {
+			int square = Bitboard.getLowestSquare(diagonalSliders);
+			diagonalSliders &= diagonalSliders - 1;
+			if (getLegalTargets(square, Bitboard.getBishopAttacks(square,
+					occupancy) & ~own) != 0)
+				return true;
+		}
+
+		long straightSliders = position.getPieces(Position.ROOK, isWhite)
+				| position.getPieces(Position.QUEEN, isWhite);
+		while (straightSliders != 0) {
+			int square = Bitboard.getLowestSquare(straightSliders);
+			straightSliders &= straightSliders - 1;
+			if (getLegalTargets(square, Bitboard.getRookAttacks(square,
+					occupancy) & ~own) != 0)
+				return true;
+		}
+
+		// Castling needs the square next to the king to be safe, so it never
+		// adds a legal move when no king step was legal
+		return false;
 	}
 
 	/**
-	 * Moves along all 4 diagonals until the path becomes blocks, and returns an
-	 * arraylist of all legal moves to unoccupied squares or square occupied by
-	 * the enemy.
-	 * 
-	 * @param row
-	 * @param col
+	 * Creates a Move object for a packed move, using the Piece on the board at
+	 * the move's from square.
+	 *
+	 * @param move
 	 * @return
 	 */
-	public void findBishopMoves(ArrayList<Move> legalMoves,int row, int col) {
-
-		// Call the findBishopMovesAlongDiagonal method with each of the 4
-		// directions
-		findBishopMovesAlongDiagonal(legalMoves, row, col, 1, 1);
-		findBishopMovesAlongDiagonal(legalMoves, row, col, 1, -1);
-		findBishopMovesAlongDiagonal(legalMoves, row, col, -1, 1);
-		findBishopMovesAlongDiagonal(legalMoves, row, col, -1, -1);
-
+	public Move toMove(int move) {
+		return toMove(move, new Move(null, 0, 0, 0, 0));
 	}
 
 	/**
-	 * Checks all 8 squares a knight can move to and returns a list of the ones
-	 * that it can go to.
-	 * 
-	 * @param row
-	 * @param col
+	 * Fills in an existing Move object from a packed move and returns it. The
+	 * search keeps one Move per ply and reuses it this way, since processMove
+	 * and undoChanges still work with Move objects.
+	 *
+	 * @param move
+	 * @param result
 	 * @return
 	 */
-	public void findKnightMoves(ArrayList<Move> legalMoves,int row, int col) {
-
-		// Check all moves that are two rows over and one column over
-		findKnightMoves_2Row1Col(legalMoves,row, col, 1, 1);
-		findKnightMoves_2Row1Col(legalMoves,row, col, -1, 1);
-		findKnightMoves_2Row1Col(legalMoves,row, col, 1, -1);
-		findKnightMoves_2Row1Col(legalMoves,row, col, -1, -1);
-
-		// Check all moves that are one row over and two columns over
-		findKnightMoves_1Row2Col(legalMoves,row, col, 1, 1);
-		findKnightMoves_1Row2Col(legalMoves,row, col, -1, 1);
-		findKnightMoves_1Row2Col(legalMoves,row, col, 1, -1);
-		findKnightMoves_1Row2Col(legalMoves,row, col, -1, -1);
+	public Move toMove(int move, Move result) {
+		int from = PackedMove.getFrom(move);
+		int to = PackedMove.getTo(move);
+
+		result.setPiece(boardController.getPieceByCoords(Bitboard.getRow(from),
+				Bitboard.getCol(from)));
+		result.setStartRow(Bitboard.getRow(from));
+		result.setStartCol(Bitboard.getCol(from));
+		result.setEndRow(Bitboard.getRow(to));
+		result.setEndCol(Bitboard.getCol(to));
+
+		if (PackedMove.isPromotion(move))
+			result.setPromotePiece(Position.getPieceChar(Position
+					.getPieceType(PackedMove.getPromotion(move))));
+		else
+			result.setPromotePiece((char) Character.UNASSIGNED);
 
+		return result;
 	}
 
 	/**
-	 * Returns knight moves that are two rows over and one column over in the
-	 * direction designated by rowDirection and colDirection.
-	 * 
-	 * @param row
-	 * @param col
-	 * @param rowDirection
-	 * @param colDirection
-	 * @return
+	 * Works out the check mask, pinned pieces and king square for the side
+	 * designated by <code>isWhite</code>. Must be called before generating
+	 * moves for a position.
+	 *
+	 * @param isWhite
 	 */
-	public void findKnightMoves_2Row1Col(ArrayList<Move> legalMoves, int row, int col,
-			int rowDirection, int colDirection) {
-		
-		Move move = null;
+	private void computeLegalityMasks(boolean isWhite) {
+		Position position = getPosition();
+		kingSquare = position.getKingSquare(isWhite);
+		pinned = position.getPinned(isWhite);
+
+		long checkers = position.getCheckers(isWhite);
+		isDoubleCheck = Bitboard.countBits(checkers) > 1;
+
+		if (checkers == 0)
+			checkMask = ~0L;
+		else if (isDoubleCheck)
+			checkMask = 0L;
+		else
+			checkMask = checkers
+					| Bitboard.getBetween(kingSquare,
+							Bitboard.getLowestSquare(checkers));
+	}
 
-		Piece piece = boardController.getPieceByCoords(row, col);
+	/**
+	 * Adds every king step to a square that isn't attacked once the king has
+	 * left its square, then adds castling moves.
+	 *
+	 * @param isWhite
+	 */
+	private void findKingMoves(boolean isWhite) {
+		Position position = getPosition();
+		int kingIndex = Position.getPieceIndex(Position.KING, isWhite);
+
+		// Lift the king off the board so squares behind it along a checking
+		// slider's ray show up as attacked
+		long occupancy = position.getOccupancy()
+				& ~Bitboard.getBit(kingSquare);
+		long targets = Bitboard.getKingAttacks(kingSquare)
+				& ~position.getOccupancy(isWhite) & targetMask;
+
+		while (targets != 0) {
+			int target = Bitboard.getLowestSquare(targets);
+			targets &= targets - 1;
+			if (!position.isAttacked(target, !isWhite, occupancy))
+				addMove(PackedMove.encode(kingSquare, target, kingIndex,
+						position.getPieceAt(target), 0, 0));
+		}
 
-		int newRow = row + (2 * rowDirection);
-		int newCol = col + (1 * colDirection);
-		if ((newRow < 8 && newRow >= 0) && (newCol < 8 && newCol >= 0)) {
-			if (isEmptySquare(newRow, newCol))
-				move = new Move(piece, row, col, newRow, newCol);
-			else if (isEnemyPiece(piece, newRow, newCol))
-				move = new Move(piece, row, col, newRow, newCol);
-
-			if (move != null
-					&& RuleEngine.isNotSelfCheck(move, boardController))
-				legalMoves.add(move);
+		// Can't castle out of check
+		if (checkMask == ~0L && isGeneratingQuiets) {
+			addCastlingMove(isWhite, Constants.getKingRookCol());
+			addCastlingMove(isWhite, Constants.getQueenRookCol());
 		}
-		
 	}
 
 	/**
-	 * Returns knight moves that are one row over and two columns over in the
-	 * direction designated by rowDirection and colDirection.
-	 * 
-	 * @param row
-	 * @param col
-	 * @param rowDirection
-	 * @param colDirection
-	 * @return
+	 * Adds the castling move towards the rook in column <code>rookCol</code>
+	 * if neither the king nor that rook has moved, the squares between them are
+	 * empty and the king doesn't pass through or land on an attacked square.
+	 * The caller has already checked that the king isn't in check.
+	 *
+	 * @param isWhite
+	 * @param rookCol
 	 */
-	public void findKnightMoves_1Row2Col(ArrayList<Move> legalMoves, int row, int col,
-			int rowDirection, int colDirection) {
-		
-		Move move = null;
-
-		Piece piece = boardController.getPieceByCoords(row, col);
-
-		int newRow = row + (1 * rowDirection);
-		int newCol = col + (2 * colDirection);
+	private void addCastlingMove(boolean isWhite, int rookCol) {
+		Position position = getPosition();
+		int row = Bitboard.getRow(kingSquare);
+		int col = Bitboard.getCol(kingSquare);
+
+		// Having the right means neither the king nor this rook has moved
+		int right = rookCol == Constants.getKingRookCol() ? Position
+				.getKingsideRight(isWhite) : Position
+				.getQueensideRight(isWhite);
+		if ((position.getCastlingRights() & right) == 0)
+			return;
+
+		if ((Bitboard.getBetween(kingSquare, Bitboard.getSquare(row, rookCol)) & position
+				.getOccupancy()) != 0)
+			return;
+
+		int direction = rookCol > col ? 1 : -1;
+		if (position.isAttacked(Bitboard.getSquare(row, col + direction),
+				!isWhite)
+				|| position.isAttacked(
+						Bitboard.getSquare(row, col + 2 * direction), !isWhite))
+			return;
+
+		addMove(PackedMove.encode(kingSquare,
+				Bitboard.getSquare(row, col + 2 * direction),
+				Position.getPieceIndex(Position.KING, isWhite), Position.EMPTY,
+				0, PackedMove.CASTLE));
+	}
 
-		if ((newRow < 8 && newRow >= 0) && (newCol < 8 && newCol >= 0)) {
-			if (isEmptySquare(newRow, newCol))
-				move = new Move(piece, row, col, newRow, newCol);
-			else if (isEnemyPiece(piece, newRow, newCol))
-				move = new Move(piece, row, col, newRow, newCol);
+	/**
+	 * Adds a move from <code>from</code> to every square in
+	 * <code>targets</code> that survives getLegalTargets and is a kind of
+	 * move being generated. The caller has already removed squares holding our
+	 * own pieces.
+	 *
+	 * @param from
+	 * @param targets
+	 */
+	private void addMoves(int from, long targets) {
+		Position position = getPosition();
+		int pieceIndex = position.getPieceAt(from);
+		targets = getLegalTargets(from, targets & targetMask);
 
-			if (move != null
-					&& RuleEngine.isNotSelfCheck(move, boardController))
-				legalMoves.add(move);
+		while (targets != 0) {
+			int to = Bitboard.getLowestSquare(targets);
+			targets &= targets - 1;
 
+			addMove(PackedMove.encode(from, to, pieceIndex,
+					position.getPieceAt(to), 0, 0));
 		}
+	}
 
-		
-
+	private void addMove(int move) {
+		moveBuffer[moveCount++] = move;
 	}
 
 	/**
-	 * Moves along the diagonal designated by rowDirection and colDirection and
-	 * checks the validity of moving to each square until the path is blocked.
-	 * 
-	 * @param row
-	 * @param col
-	 * @param rowDirection
-	 * @param colDirection
+	 * Narrows <code>targets</code> for a non-king piece on
+	 * <code>square</code> down to squares that resolve any check and, if the
+	 * piece is pinned, stay on the line between the king and the pinner.
+	 *
+	 * @param square
+	 * @param targets
 	 * @return
 	 */
-	public void findBishopMovesAlongDiagonal(ArrayList<Move> legalMoves,int row, int col,
-			int rowDirection, int colDirection) {
-		
-
-		Piece piece = boardController.getPieceByCoords(row, col);
-		boolean isBlocked = false;
-		Move move;
-		int i = 1;
-		int newRow = row + (rowDirection * i);
-		int newCol = col + (colDirection * i);
-
-		while (!isBlocked && (newRow < 8 && newRow >= 0)
-				&& (newCol < 8 && newCol >= 0)) {
-			move = null;
-			if (isEmptySquare(newRow, newCol)) {
-				move = new Move(piece, row, col, newRow, newCol);
-			} else if (isEnemyPiece(piece, newRow, newCol)) {
-				move = new Move(piece, row, col, newRow, newCol);
-				isBlocked = true;
-			}
-			// If the square is not empty and it does not hold an enemy piece,
-			// it must hold our piece. Our own piece will block us from moving
-			// any farther in this direction
-			else
-				isBlocked = true;
-
-			if (move != null
-					&& RuleEngine.isNotSelfCheck(move, boardController)) {
-				legalMoves.add(move);
-			}
-			i++;
-			newRow = row + i * rowDirection;
-			newCol = col + i * colDirection;
-		}
-
-		
+	private long getLegalTargets(int square, long targets) {
+		targets &= checkMask;
+		if ((pinned & Bitboard.getBit(square)) != 0)
+			targets &= Bitboard.getLine(kingSquare, square);
+		return targets;
 	}
 
 	/**
-	 * Checks for all legal pawn moves and returns an arrayList of legal moves.
-	 * @param row
-	 * @param col
-	 * @return
+	 * Adds the legal pushes, captures and en passant captures of every pawn
+	 * of color <code>isWhite</code>.
+	 *
+	 * @param isWhite
 	 */
-	public ArrayList<Move> findPawnMoves(ArrayList<Move> legalMoves, int row, int col) {
-	
-		Piece piece = boardController.getPieceByCoords(row, col);
-		Move move;
-		int rowDirection;
-		if (piece.isWhite())
-			rowDirection = 1;
-		else
-			rowDirection = -1;
-
-		// Moving one step forward
-		move = new Move(piece, row, col, row + 1 * rowDirection, col);
-		if (RuleEngine.isLegalPawnMove(move, boardController)
-				&& RuleEngine.isNotSelfCheck(move, boardController)) {
-			if (move.getEndRow() == 0 || move.getEndRow() == 7) {
-				
-				move.setPromotePiece(Constants.getQueenChar());
-				
+	private void findPawnMoves(boolean isWhite) {
+		Position position = getPosition();
+		long empty = ~position.getOccupancy();
+		long enemies = position.getOccupancy(!isWhite);
+		int pawnIndex = Position.getPieceIndex(Position.PAWN, isWhite);
+		int enPassantSquare = findEnPassantSquare(isWhite);
+
+		long pawns = position.getPieces(pawnIndex) & fromMask;
+		while (pawns != 0) {
+			int square = Bitboard.getLowestSquare(pawns);
+			pawns &= pawns - 1;
+
+			long attacks = Bitboard.getPawnAttacks(isWhite, square);
+			long targets = getLegalTargets(square, getPawnTargets(square,
+					isWhite, empty, enemies) & targetMask);
+			while (targets != 0) {
+				int target = Bitboard.getLowestSquare(targets);
+				targets &= targets - 1;
+				addPawnMove(square, target, pawnIndex, isWhite);
 			}
-			legalMoves.add(move);
-			
-		}
 
-		// Moving two steps forward
-		if (!piece.isHasMoved()
-				&& boardController
-						.getPieceByCoords(row + 1 * rowDirection, col) == null) {
-			move = new Move(piece, row, col, row + 2 * rowDirection, col);
-
-			if (RuleEngine.isLegalPawnMove(move, boardController)
-					&& RuleEngine.isNotSelfCheck(move, boardController))
-				legalMoves.add(move);
+			if (enPassantSquare != -1 && isGeneratingCaptures
+					&& (attacks & Bitboard.getBit(enPassantSquare)) != 0
+					&& isLegalEnPassant(isWhite, square, enPassantSquare))
+				addMove(PackedMove.encode(square, enPassantSquare, pawnIndex,
+						Position.getPieceIndex(Position.PAWN, !isWhite), 0,
+						PackedMove.EN_PASSANT));
 		}
-
-		// Capturing to the right
-		int newCol = col + 1;
-		int newRow = row + 1 * rowDirection;
-		move = new Move(piece, row, col, newRow, newCol);
-		if (isLegalSquare(newRow, newCol)
-				&& isEnemyPieceOrEmpty(piece, newRow, newCol)
-				&& RuleEngine.isLegalPawnMove(move, boardController)
-				&& RuleEngine.isNotSelfCheck(move, boardController)){
-			// If it is a move to the first or last rank, add a move for each promote
-						if (move.getEndRow() == 0 || move.getEndRow() == 7) {
-							
-							move.setPromotePiece(Constants.getQueenChar());
-							
-							
-						}
-			legalMoves.add(move);}
-
-		// Capturing to the left
-		newCol = col - 1;
-
-		move = new Move(piece, row, col, newRow, newCol);
-		if (isLegalSquare(newRow, newCol)
-				&& isEnemyPieceOrEmpty(piece, newRow, newCol)
-				&& RuleEngine.isLegalPawnMove(move, boardController)
-				&& RuleEngine.isNotSelfCheck(move, boardController)){
-			// If it is a move to the first or last rank, add a move for each promote
-						if (move.getEndRow() == 0 || move.getEndRow() == 7) {
-												
-							move.setPromotePiece(Constants.getQueenChar());
-							
-							
-						}
-						
-			legalMoves.add(move);}
-		return legalMoves;
 	}
 
 	/**
-	 * Returns true if the square designated by (row,col) is on the board.
-	 * @param row
-	 * @param col
+	 * Returns the squares the pawn on <code>square</code> can move to, not
+	 * counting en passant: one step forward, two steps forward from the start
+	 * row if both squares are empty, and diagonal captures.
+	 *
+	 * @param square
+	 * @param isWhite
+	 * @param empty
+	 * @param enemies
 	 * @return
 	 */
-	public boolean isLegalSquare(int row, int col) {
-		boolean result = true;
+	private long getPawnTargets(int square, boolean isWhite, long empty,
+			long enemies) {
+		int step = isWhite ? 8 : -8;
+		int startRow = isWhite ? Constants.getWhitePawnRow() : Constants
+				.getBlackPawnRow();
+
+		long targets = 0L;
+		long oneStep = Bitboard.getBit(square + step);
+		if ((empty & oneStep) != 0) {
+			targets |= oneStep;
+
+			long twoStep = Bitboard.getBit(square + 2 * step);
+			if (Bitboard.getRow(square) == startRow && (empty & twoStep) != 0)
+				targets |= twoStep;
+		}
 
-		if (row < 0 || row > 7 || col < 0 || col > 7)
-			result = false;
+		return targets | (Bitboard.getPawnAttacks(isWhite, square) & enemies);
+	}
 
-		return result;
+	/**
+	 * Adds a pawn move. A move to the first or last rank is added once for
+	 * each piece the pawn can promote to.
+	 *
+	 * @param from
+	 * @param to
+	 * @param pawnIndex
+	 * @param isWhite
+	 */
+	private void addPawnMove(int from, int to, int pawnIndex, boolean isWhite) {
+		int captured = getPosition().getPieceAt(to);
+		int row = Bitboard.getRow(to);
+
+		if (row == 0 || row == 7) {
+			for (int promoteType : promoteTypes)
+				addMove(PackedMove.encode(from, to, pawnIndex, captured,
+						Position.getPieceIndex(promoteType, isWhite), 0));
+		} else {
+			int flags = Math.abs(to - from) == 16 ? PackedMove.DOUBLE_PUSH : 0;
+			addMove(PackedMove.encode(from, to, pawnIndex, captured, 0, flags));
+		}
 	}
 
 	/**
-	 * All rule checking is enforced by the way that potential moves are
-	 * explored. I.e. no need to call isValidMoveStyle because this method will
-	 * only look at squares in the same row or column as the start square.
-	 * isNotSelfCheck is called within to ensure total move legality.
-	 * 
-	 * @param row
-	 * @param col
+	 * Returns the square a pawn of color <code>isWhite</code> could capture en
+	 * passant onto, or -1. That is only possible right after an enemy pawn
+	 * moved two squares, which the position remembers for the side to move.
+	 *
+	 * @param isWhite
 	 * @return
 	 */
-	public void findRookMoves(ArrayList<Move> legalMoves,int row, int col) {
-		int i = 1;
-		int direction = 1;
-
-		// Check up direction
-		findRookMovesAlongCol(legalMoves, row, col, direction);
-
-		// Check down direction
-		findRookMovesAlongCol(legalMoves, row, col, direction * -1);
-
-		// Check right direction
-		findRookMovesAlongRow(legalMoves, row, col, direction);
-
-		// Check left direction
-		findRookMovesAlongRow(legalMoves, row, col, direction * -1);
-
+	private int findEnPassantSquare(boolean isWhite) {
+		Position position = getPosition();
+		if (position.isWhiteToMove() != isWhite)
+			return -1;
+		return position.getEnPassantSquare();
 	}
 
-	
-	/** 
-	 * Returns all moves along a column that a rook has.
-	 * @param row
-	 * @param col
-	 * @param direction
+	/**
+	 * Returns true if the pawn on <code>from</code> may capture en passant onto
+	 * <code>to</code>. The capture must resolve any check, either by taking
+	 * the checking pawn or by blocking, and no enemy rook, bishop or queen may
+	 * see the king once both pawns are gone from their squares.
+	 *
+	 * @param isWhite
+	 * @param from
+	 * @param to
 	 * @return
 	 */
-	public void findRookMovesAlongCol(ArrayList<Move> legalMoves, int row, int col, int direction) {
-		
-		Piece piece = boardController.getPieceByCoords(row, col);
-		boolean isBlocked = false;
-		Move move;
-		int i = 1;
-		int newRow = row + (direction * i);
-
-		while (!isBlocked && (newRow < 8 && newRow >= 0)) {
-			move = null;
-			if (isEmptySquare(newRow, col)) {
-				move = new Move(piece, row, col, newRow, col);
-			} else if (isEnemyPiece(piece, newRow, col)) {
-				move = new Move(piece, row, col, newRow, col);
-				isBlocked = true;
-			} else
-				isBlocked = true;
-
-			if (move != null
-					&& RuleEngine.isNotSelfCheck(move, boardController)) {
-				legalMoves.add(move);
-			}
-			i++;
-			newRow = row + i * direction;
-		}
-		
+	private boolean isLegalEnPassant(boolean isWhite, int from, int to) {
+		Position position = getPosition();
+		int capturedSquare = Bitboard.getSquare(Bitboard.getRow(from),
+				Bitboard.getCol(to));
+
+		if ((checkMask & (Bitboard.getBit(to) | Bitboard.getBit(capturedSquare))) == 0)
+			return false;
+
+		long occupancy = (position.getOccupancy() & ~Bitboard.getBit(from) & ~Bitboard
+				.getBit(capturedSquare)) | Bitboard.getBit(to);
+		long queens = position.getPieces(Position.QUEEN, !isWhite);
+		long rookSliders = position.getPieces(Position.ROOK, !isWhite) | queens;
+		long bishopSliders = position.getPieces(Position.BISHOP, !isWhite)
+				| queens;
+
+		return (Bitboard.getRookAttacks(kingSquare, occupancy) & rookSliders) == 0
+				&& (Bitboard.getBishopAttacks(kingSquare, occupancy) & bishopSliders) == 0;
 	}
 
 	/**
-	 * Returns all legal moves a rook has along a row.
+	 * Returns true if the square designated by (row,col) is on the board.
 	 * @param row
 	 * @param col
-	 * @param direction
 	 * @return
 	 */
-	public void findRookMovesAlongRow(	ArrayList<Move> legalMoves,int row, int col, int direction) {
-		Piece piece = boardController.getPieceByCoords(row, col);
-		boolean isBlocked = false;
-		Move move;
-		int i = 1;
-		int newCol = col + (direction * i);
-
-		while (!isBlocked && (newCol < 8 && newCol >= 0)) {
-			move = null;
-			if (isEmptySquare(row, newCol)) {
-				move = new Move(piece, row, col, row, newCol);
-			} else if (isEnemyPiece(piece, row, newCol)) {
-				move = new Move(piece, row, col, row, newCol);
-				isBlocked = true;
-			} else
-				isBlocked = true;
-
-			if (move != null
-					&& RuleEngine.isNotSelfCheck(move, boardController)) {
-				legalMoves.add(move);
-			}
-			i++;
-			newCol = col + i * direction;
-		}
+	public boolean isLegalSquare(int row, int col) {
+		boolean result = true;
+
+		if (row < 0 || row > 7 || col < 0 || col > 7)
+			result = false;
+
+		return result;
 	}
 
 	/**
 	 * Returns true if the square designated by (row,col) is empty
-	 * 
+	 *
 	 * @param row
 	 * @param col
 	 * @return
@@ -577,7 +793,7 @@ public class MoveGenerator {
 	/**
 	 * Returns true if the piece on square (row,col) is not the same color as
 	 * parameter <code>piece</code>.
-	 * 
+	 *
 	 * @param piece
 	 * @param row
 	 * @param col
@@ -595,7 +811,7 @@ public class MoveGenerator {
 	/**
 	 * Returns true if the piece on square (row,col) is not the same color as
 	 * parameter <code>piece</code>, or if it is null.
-	 * 
+	 *
 	 * @param piece
 	 * @param row
 	 * @param col
@@ -610,6 +826,10 @@ public class MoveGenerator {
 		return result;
 	}
 
+	private Position getPosition() {
+		return engine.getModel().getPosition();
+	}
+
 	public BoardController getBoardController() {
 		return boardController;
 	}
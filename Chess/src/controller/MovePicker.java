@@ -0,0 +1,309 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package controller;
+
+import model.PackedMove;
+import model.Position;
+import utils.Constants;
+
+/**
+ * Hands the search the moves of one node one at a time, best guesses first,
+ * generating them in stages so a node that cuts off early never pays for the
+ * moves it didn't need:
+ *
+ * <li>1. The PV move from the previous iteration <li>2. The hash move from
+ * the transposition table <li>3. Captures, by MVV-LVA: the most valuable
+ * victim first and, for the same victim, the least valuable attacker (pxn
+ * before nxn before qxn) <li>4. The two killer moves <li>5. The other quiet
+ * moves, generated only once the stages above are used up <li>6. Captures
+ * that lose material, tried in the same order
+ *
+ * Only a capture by a piece worth more than the one it takes can lose
+ * material. Those are checked by static exchange evaluation when their turn
+ * comes and wait for stage 6 if the exchange loses.
+ *
+ * The PV, hash and killer moves come from other positions, so each is checked
+ * for legality before it is returned, and skipped when the later stages
+ * generate it again.
+ *
+ * The search keeps one picker per ply and calls init at every node, so
+ * nothing is allocated while searching.
+ *
+ * @author Matthew
+ *
+ */
+public class MovePicker {
+
+	// Stages, in the order they are tried
+	private final static int PV_MOVE = 0;
+	private final static int HASH_MOVE = 1;
+	private final static int GENERATE_CAPTURES = 2;
+	private final static int GOOD_CAPTURES = 3;
+	private final static int FIRST_KILLER = 4;
+	private final static int SECOND_KILLER = 5;
+	private final static int GENERATE_QUIETS = 6;
+	private final static int QUIETS = 7;
+	private final static int BAD_CAPTURES = 8;
+	private final static int DONE = 9;
+
+	// Taken off the score of a capture that loses material, which puts it
+	// below every other capture
+	private final static int losingCapturePenalty = 1000;
+
+	MoveGenerator moveGenerator;
+
+	// Generated captures are kept at the front of moves, quiet moves after
+	// them. Captures that lose material have a score below zero and wait
+	// from badCaptureIndex to captureEnd until the quiet moves are done.
+	int[] moves;
+	int[] scores;
+	int captureEnd;
+	int moveEnd;
+	int index;
+	int badCaptureIndex;
+
+	int stage;
+	boolean isWhite;
+	boolean capturesOnly;
+	int pvMove;
+	int hashMove;
+	int firstKiller;
+	int secondKiller;
+
+	/**
+	 * Constructor
+	 *
+	 * @param moveGeneratorIn
+	 */
+	public MovePicker(MoveGenerator moveGeneratorIn) {
+		this.moveGenerator = moveGeneratorIn;
+		moves = new int[Constants.getMaxMovesPerPosition()];
+		scores = new int[Constants.getMaxMovesPerPosition()];
+	}
+
+	/**
+	 * Starts picking moves for a new node.
+	 *
+	 * @param isWhiteIn
+	 *            side to move
+	 * @param pvMoveIn
+	 *            move from the previous iteration's PV, or PackedMove.NONE
+	 * @param hashMoveIn
+	 *            move from the transposition table, or PackedMove.NONE
+	 * @param killers
+	 *            the killer moves for this ply, or null for none
+	 * @param capturesOnlyIn
+	 *            true to return only captures, as the quiescence search wants
+	 */
+	public void init(boolean isWhiteIn, int pvMoveIn, int hashMoveIn,
+			int[] killers, boolean capturesOnlyIn) {
+		isWhite = isWhiteIn;
+		capturesOnly = capturesOnlyIn;
+		pvMove = pvMoveIn;
+		hashMove = hashMoveIn != pvMove ? hashMoveIn : PackedMove.NONE;
+		firstKiller = PackedMove.NONE;
+		secondKiller = PackedMove.NONE;
+		if (killers != null && !capturesOnly) {
+			firstKiller = killers[0];
+			secondKiller = killers[1];
+		}
+
+		if (capturesOnly) {
+			if (!PackedMove.isCapture(pvMove))
+				pvMove = PackedMove.NONE;
+			if (!PackedMove.isCapture(hashMove))
+				hashMove = PackedMove.NONE;
+		}
+
+		stage = PV_MOVE;
+	}
+
+	/**
+	 * Returns the next move to search, or PackedMove.NONE once every move has
+	 * been returned.
+	 *
+	 * @return
+	 */
+	public int nextMove() {
+		while (true) {
+			switch (stage) {
+			case PV_MOVE:
+				stage++;
+				if (pvMove != PackedMove.NONE
+						&& moveGenerator.isLegalMove(isWhite, pvMove))
+					return pvMove;
+				pvMove = PackedMove.NONE;
+				break;
+
+			case HASH_MOVE:
+				stage++;
+				if (hashMove != PackedMove.NONE
+						&& moveGenerator.isLegalMove(isWhite, hashMove))
+					return hashMove;
+				hashMove = PackedMove.NONE;
+				break;
+
+			case GENERATE_CAPTURES:
+				captureEnd = moveGenerator.generateCaptures(isWhite, moves, 0);
+				scoreCaptures();
+				index = 0;
+				stage++;
+				break;
+
+			case GOOD_CAPTURES:
+				if (index < captureEnd) {
+					selectBest(index, captureEnd);
+					if (scores[index] >= 0) {
+						int move = moves[index];
+						if (isAlreadyPicked(move)) {
+							index++;
+							break;
+						}
+						if (isLosingCapture(move)) {
+							scores[index] -= losingCapturePenalty;
+							break;
+						}
+						index++;
+						return move;
+					}
+				}
+				badCaptureIndex = index;
+				stage = capturesOnly ? BAD_CAPTURES : FIRST_KILLER;
+				break;
+
+			case FIRST_KILLER:
+				stage++;
+				if (isUsableKiller(firstKiller))
+					return firstKiller;
+				firstKiller = PackedMove.NONE;
+				break;
+
+			case SECOND_KILLER:
+				stage++;
+				if (secondKiller != firstKiller && isUsableKiller(secondKiller))
+					return secondKiller;
+				secondKiller = PackedMove.NONE;
+				break;
+
+			case GENERATE_QUIETS:
+				moveEnd = moveGenerator.generateQuietMoves(isWhite, moves,
+						captureEnd);
+				index = captureEnd;
+				stage++;
+				break;
+
+			case QUIETS:
+				if (index < moveEnd) {
+					int move = moves[index++];
+					if (!isAlreadyPicked(move) && move != firstKiller
+							&& move != secondKiller)
+						return move;
+					break;
+				}
+				index = badCaptureIndex;
+				stage++;
+				break;
+
+			case BAD_CAPTURES:
+				if (index < captureEnd) {
+					selectBest(index, captureEnd);
+					int move = moves[index++];
+					if (!isAlreadyPicked(move))
+						return move;
+					break;
+				}
+				stage++;
+				break;
+
+			default:
+				return PackedMove.NONE;
+			}
+		}
+	}
+
+	/**
+	 * Scores each capture by MVV-LVA: by the type of the piece taken, then
+	 * the cheaper the piece taking it, the higher. Every score is zero or
+	 * more until a capture is found to lose material.
+	 */
+	private void scoreCaptures() {
+		for (int i = 0; i < captureEnd; i++) {
+			int move = moves[i];
+			scores[i] = (Position.KING + 1)
+					* Position.getPieceType(PackedMove.getCaptured(move))
+					+ Position.KING
+					- Position.getPieceType(PackedMove.getPiece(move));
+		}
+	}
+
+	/**
+	 * Returns true if <code>capture</code> loses material by static exchange
+	 * evaluation. Taking a piece worth at least as much never does.
+	 *
+	 * @param capture
+	 * @return
+	 */
+	private boolean isLosingCapture(int capture) {
+		return AI.getPieceWeight(Position.getPieceType(PackedMove
+				.getPiece(capture))) > AI.getPieceWeight(Position
+				.getPieceType(PackedMove.getCaptured(capture)))
+				&& moveGenerator.getExchangeScore(capture) < 0;
+	}
+
+	/**
+	 * Finds the highest scoring move between <code>from</code> and
+	 * <code>to</code> and swaps it to <code>from</code>. Only sorting as far
+	 * as the search gets saves work when a cutoff comes early.
+	 *
+	 * @param from
+	 * @param to
+	 */
+	private void selectBest(int from, int to) {
+		int best = from;
+		for (int i = from + 1; i < to; i++)
+			if (scores[i] > scores[best])
+				best = i;
+
+		int move = moves[best];
+		moves[best] = moves[from];
+		moves[from] = move;
+
+		int score = scores[best];
+		scores[best] = scores[from];
+		scores[from] = score;
+	}
+
+	private boolean isAlreadyPicked(int move) {
+		return move == pvMove || move == hashMove;
+	}
+
+	/**
+	 * Killers are quiet moves that caused a cutoff at this ply in another
+	 * position. They are only used if they are still quiet, legal and
+	 * weren't already tried as the PV or hash move.
+	 *
+	 * @param killer
+	 * @return
+	 */
+	private boolean isUsableKiller(int killer) {
+		return killer != PackedMove.NONE && !PackedMove.isCapture(killer)
+				&& !isAlreadyPicked(killer)
+				&& moveGenerator.isLegalMove(isWhite, killer);
+	}
+}
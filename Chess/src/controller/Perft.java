@@ -0,0 +1,435 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import model.Move;
+import model.PackedMove;
+import model.PerftTable;
+import model.Position;
+import utils.Constants;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth (perft). The
+ * counts are known for many positions, so a wrong one shows a bug in the move
+ * generator or in making and taking back moves, and the nodes per second
+ * measure how fast moves are generated, made and unmade.
+ *
+ * <li>Divide prints the count below each root move, to narrow a wrong count
+ * down to the move that causes it.
+ * <li>With bulk counting the last ply isn't played out, the number of legal
+ * moves generated there is used as its count.
+ * <li>With a perft table, subtrees reached again by a different move order
+ * are counted only once.
+ * <li>With more than one thread the subtrees below the first ply (or the
+ * first two) are counted in parallel on a ForkJoinPool. Each worker thread
+ * plays on its own copy of the engine; the perft table is shared.
+ *
+ * Start it with
+ * <code>java controller.Perft -depth N [-fen FEN] [-divide true|false] [-bulk true|false] [-hash MB] [-threads N] [-split 1|2] [-scaling true|false]</code>
+ * . Without a FEN it counts from the start position. -scaling counts the
+ * position with 1, 2, 4 ... up to -threads threads and reports the speedup
+ * over one thread.
+ *
+ * @author Matthew
+ *
+ */
+public class Perft {
+
+	private final static int defaultDepth = 5;
+
+	Engine engine;
+	boolean isBulkCounting = true;
+	PerftTable perftTable;
+
+	// Threads counting in parallel, and how many plies are played out before
+	// the work is split between them
+	int threads = 1;
+	int splitDepth = 1;
+
+	// Moves and Move objects per ply, allocated once
+	int[][] moveStack;
+	Move[] moveObjects;
+
+	/**
+	 * Counts the position given on the command line
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int depth = defaultDepth;
+		String fen = null;
+		boolean isDivide = true;
+		boolean isScaling = false;
+		Perft perft = new Perft(new Engine());
+
+		try {
+			for (int i = 0; i + 1 < args.length; i = i + 2) {
+				String arg = args[i];
+				String value = args[i + 1];
+
+				if (arg.equals("-depth"))
+					depth = Integer.parseInt(value);
+				else if (arg.equals("-fen"))
+					fen = value;
+				else if (arg.equals("-divide"))
+					isDivide = value.equals("true");
+				else if (arg.equals("-bulk"))
+					perft.setBulkCounting(value.equals("true"));
+				else if (arg.equals("-hash")) {
+					int size = Integer.parseInt(value);
+					perft.setPerftTable(size > 0 ? new PerftTable(size)
+							: null);
+				} else if (arg.equals("-threads"))
+					perft.setThreads(Math.max(1, Integer.parseInt(value)));
+				else if (arg.equals("-split"))
+					perft.setSplitDepth(Math.max(1,
+							Math.min(2, Integer.parseInt(value))));
+				else if (arg.equals("-scaling"))
+					isScaling = value.equals("true");
+				else
+					System.out.println("ERROR: Unknown command line argument '"
+							+ arg + "' ignored.");
+			}
+		} catch (NumberFormatException numberFormatException) {
+			System.out.println("ERROR: Command line argument invalid: "
+					+ numberFormatException);
+			return;
+		}
+
+		if (depth < 1 || depth >= Constants.getMaxSearchPly()) {
+			System.out.println("ERROR: perft depth must be between 1 and "
+					+ (Constants.getMaxSearchPly() - 1));
+			return;
+		}
+		if (fen != null) {
+			String error = perft.getEngine().setUpPosition(fen);
+			if (error != null) {
+				System.out.println("ERROR: " + error);
+				return;
+			}
+		}
+
+		if (isScaling) {
+			perft.printScaling(depth);
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		long nodes = isDivide ? perft.divide(depth) : perft.perft(depth);
+		long time = System.currentTimeMillis() - startTime;
+
+		System.out.println();
+		System.out.println("Depth: " + depth);
+		System.out.println("Threads: " + perft.getThreads());
+		System.out.println("Nodes: " + nodes);
+		System.out.println("Time: " + time + " ms");
+		System.out.println("Nps: " + nodes * 1000 / Math.max(1, time));
+	}
+
+	/**
+	 * Constructor. Counts the positions of <code>engineIn</code>, with bulk
+	 * counting and without a perft table.
+	 *
+	 * @param engineIn
+	 */
+	public Perft(Engine engineIn) {
+		this.engine = engineIn;
+
+		int maxPly = Constants.getMaxSearchPly();
+		moveStack = new int[maxPly][Constants.getMaxMovesPerPosition()];
+		moveObjects = new Move[maxPly];
+		for (int i = 0; i < maxPly; i++)
+			moveObjects[i] = new Move(null, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Returns the number of leaf nodes <code>depth</code> plies below the
+	 * engine's current position. The position is the same afterwards.
+	 *
+	 * @param depth
+	 * @return
+	 */
+	public long perft(int depth) {
+		if (threads > 1 && depth > splitDepth)
+			return countInParallel(depth, false);
+		return perft(depth, engine.isWhiteTurn(), 0);
+	}
+
+	/**
+	 * Like perft, but also prints the count below each root move, in
+	 * coordinate notation like "e2e4: 20"
+	 *
+	 * @param depth
+	 * @return
+	 */
+	public long divide(int depth) {
+		if (threads > 1 && depth > splitDepth)
+			return countInParallel(depth, true);
+
+		boolean isWhite = engine.isWhiteTurn();
+		int[] moves = moveStack[0];
+		int count = engine.getMoveGenerator().generateMoves(isWhite, moves);
+		long result = 0;
+
+		for (int i = 0; i < count; i++) {
+			long nodes = 1;
+			if (depth > 1) {
+				makeMove(moves[i], 0);
+				nodes = perft(depth - 1, !isWhite, 1);
+				unmakeMove(0);
+			}
+			System.out.println(PackedMove.toString(moves[i]) + ": " + nodes);
+			result += nodes;
+		}
+		return result;
+	}
+
+	private long perft(int depth, boolean isWhite, int ply) {
+		if (depth == 0)
+			return 1;
+
+		long key = 0;
+		if (perftTable != null && depth > 1) {
+			key = getPosition().getKey();
+			long stored = perftTable.probe(key, depth);
+			if (stored >= 0)
+				return stored;
+		}
+
+		int[] moves = moveStack[ply];
+		int count = engine.getMoveGenerator().generateMoves(isWhite, moves);
+		if (depth == 1 && isBulkCounting)
+			return count;
+
+		long result = 0;
+		for (int i = 0; i < count; i++) {
+			makeMove(moves[i], ply);
+			result += perft(depth - 1, !isWhite, ply + 1);
+			unmakeMove(ply);
+		}
+
+		if (perftTable != null && depth > 1)
+			perftTable.store(key, depth, result);
+		return result;
+	}
+
+	/**
+	 * Counts each root move's subtree, or each subtree two plies down when
+	 * splitDepth is 2, as its own fork/join task and adds the counts up. The
+	 * lines to the subtrees are played out here, before the pool starts, so
+	 * this engine isn't touched while the workers run.
+	 *
+	 * @param depth
+	 * @param isDivide
+	 *            true to print the count below each root move
+	 * @return
+	 */
+	private long countInParallel(int depth, boolean isDivide) {
+		boolean isWhite = engine.isWhiteTurn();
+		int[] rootMoves = new int[Constants.getMaxMovesPerPosition()];
+		int rootCount = engine.getMoveGenerator().generateMoves(isWhite,
+				rootMoves);
+		final List<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+
+		for (int i = 0; i < rootCount; i++) {
+			if (splitDepth == 1) {
+				tasks.add(new SubtreeTask(i, new int[] { rootMoves[i] },
+						depth - 1));
+				continue;
+			}
+			int[] replies = moveStack[1];
+			makeMove(rootMoves[i], 0);
+			int replyCount = engine.getMoveGenerator().generateMoves(!isWhite,
+					replies);
+			unmakeMove(0);
+			for (int j = 0; j < replyCount; j++)
+				tasks.add(new SubtreeTask(i, new int[] { rootMoves[i],
+						replies[j] }, depth - 2));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads, new WorkerFactory(),
+				null, false);
+		try {
+			pool.invoke(new RecursiveAction() {
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		long[] rootCounts = new long[rootCount];
+		for (SubtreeTask task : tasks)
+			rootCounts[task.getRootIndex()] += task.getRawResult();
+
+		long result = 0;
+		for (int i = 0; i < rootCount; i++) {
+			if (isDivide)
+				System.out.println(PackedMove.toString(rootMoves[i]) + ": "
+						+ rootCounts[i]);
+			result += rootCounts[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the position to <code>depth</code> with 1, 2, 4 ... threads up to
+	 * the number of threads set, and prints the time and the speedup over one
+	 * thread for each. The perft table is cleared before each count so they
+	 * all do the same work.
+	 *
+	 * @param depth
+	 */
+	public void printScaling(int depth) {
+		int maxThreads = threads;
+		long baseTime = 0;
+
+		for (int n = 1;; n = Math.min(2 * n, maxThreads)) {
+			threads = n;
+			if (perftTable != null)
+				perftTable.clear();
+
+			long startTime = System.currentTimeMillis();
+			long nodes = perft(depth);
+			long time = Math.max(1, System.currentTimeMillis() - startTime);
+			if (n == 1)
+				baseTime = time;
+
+			System.out.println("Threads: " + n + " Nodes: " + nodes
+					+ " Time: " + time + " ms Nps: " + nodes * 1000 / time
+					+ " Speedup: "
+					+ String.format("%.2f", (double) baseTime / time));
+			if (n == maxThreads)
+				break;
+		}
+	}
+
+	private void makeMove(int move, int ply) {
+		engine.getRuleEngine().processMove(
+				engine.getMoveGenerator().toMove(move, moveObjects[ply]));
+	}
+
+	private void unmakeMove(int ply) {
+		engine.getRuleEngine().undoChanges(moveObjects[ply]);
+	}
+
+	private Position getPosition() {
+		return engine.getModel().getPosition();
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public boolean isBulkCounting() {
+		return isBulkCounting;
+	}
+
+	public void setBulkCounting(boolean isBulkCounting) {
+		this.isBulkCounting = isBulkCounting;
+	}
+
+	public PerftTable getPerftTable() {
+		return perftTable;
+	}
+
+	public void setPerftTable(PerftTable perftTable) {
+		this.perftTable = perftTable;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getSplitDepth() {
+		return splitDepth;
+	}
+
+	public void setSplitDepth(int splitDepth) {
+		this.splitDepth = splitDepth;
+	}
+
+	/**
+	 * Worker thread with its own copy of the engine to count on
+	 */
+	private class Worker extends ForkJoinWorkerThread {
+		Perft perft;
+
+		Worker(ForkJoinPool pool) {
+			super(pool);
+			perft = new Perft(new Engine(engine));
+			perft.setBulkCounting(isBulkCounting);
+			perft.setPerftTable(perftTable);
+		}
+	}
+
+	private class WorkerFactory implements
+			ForkJoinPool.ForkJoinWorkerThreadFactory {
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			return new Worker(pool);
+		}
+	}
+
+	/**
+	 * Counts the subtree after the moves in <code>line</code> on the worker's
+	 * own copy of the engine. It never waits on other tasks, so the copy is
+	 * always back at the root when the worker picks up the next one.
+	 */
+	private static class SubtreeTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		int rootIndex;
+		int[] line;
+		int depth;
+
+		SubtreeTask(int rootIndexIn, int[] lineIn, int depthIn) {
+			this.rootIndex = rootIndexIn;
+			this.line = lineIn;
+			this.depth = depthIn;
+		}
+
+		protected Long compute() {
+			Perft perft = ((Worker) Thread.currentThread()).perft;
+
+			for (int ply = 0; ply < line.length; ply++)
+				perft.makeMove(line[ply], ply);
+			long result = perft.perft(depth, perft.getEngine().isWhiteTurn(),
+					line.length);
+			for (int ply = line.length - 1; ply >= 0; ply--)
+				perft.unmakeMove(ply);
+			return result;
+		}
+
+		int getRootIndex() {
+			return rootIndex;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package controller;
+
+import model.PerftTable;
+
+/**
+ * Regression suite of well known perft positions with their node counts. Each
+ * position is counted through Perft to every depth whose count isn't above a
+ * node budget, and a line with the result, the time and the speed in millions
+ * of nodes per second is printed per count, so a change to MoveGenerator or
+ * RuleEngine that breaks the rules or slows them down shows up right away.
+ *
+ * The positions include the start position, "Kiwipete" and the usual edge
+ * cases: en passant captures that are illegal because of a pin or that give
+ * check, castling that gives check or is blocked by attacks, promotions and
+ * underpromotions that give check, and positions full of stalemates and
+ * mates.
+ *
+ * Start it with
+ * <code>java controller.PerftSuite [-maxnodes N] [-threads N] [-hash MB]</code>.
+ * It exits with status 1 if any count is wrong.
+ *
+ * @author Matthew
+ *
+ */
+public class PerftSuite {
+
+	private final static long defaultMaxNodes = 20000000L;
+
+	// One position per line: a FEN, then ";Dn count" for every known depth
+	private final static String[] positions = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1 ;D1 20 ;D2 400 ;D3 8902 ;D4 197281 ;D5 4865609 ;D6 119060324",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1 ;D1 48 ;D2 2039 ;D3 97862 ;D4 4085603 ;D5 193690690",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1 ;D1 14 ;D2 191 ;D3 2812 ;D4 43238 ;D5 674624 ;D6 11030083",
+			"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1 ;D1 6 ;D2 264 ;D3 9467 ;D4 422333 ;D5 15833292",
+			"r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1 ;D1 6 ;D2 264 ;D3 9467 ;D4 422333 ;D5 15833292",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8 ;D1 44 ;D2 1486 ;D3 62379 ;D4 2103487 ;D5 89941194",
+			"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10 ;D1 46 ;D2 2079 ;D3 89890 ;D4 3894594 ;D5 164075551",
+			// En passant
+			"3k4/3p4/8/K1P4r/8/8/8/8 b - - 0 1 ;D6 1134888",
+			"8/8/4k3/8/2p5/8/B2P2K1/8 w - - 0 1 ;D6 1015133",
+			"8/8/1k6/2b5/2pP4/8/5K2/8 b - d3 0 1 ;D6 1440467",
+			// Castling
+			"5k2/8/8/8/8/8/8/4K2R w K - 0 1 ;D6 661072",
+			"3k4/8/8/8/8/8/8/R3K3 w Q - 0 1 ;D6 803711",
+			"r3k2r/1b4bq/8/8/8/8/7B/R3K2R w KQkq - 0 1 ;D4 1274206",
+			"r3k2r/8/3Q4/8/8/5q2/8/R3K2R b KQkq - 0 1 ;D4 1720476",
+			// Promotion and discovered check
+			"2K2r2/4P3/8/8/8/8/8/3k4 w - - 0 1 ;D6 3821001",
+			"8/8/1P2K3/8/2n5/1q6/8/5k2 b - - 0 1 ;D5 1004658",
+			"4k3/1P6/8/8/8/8/K7/8 w - - 0 1 ;D6 217342",
+			"8/P1k5/K7/8/8/8/8/8 w - - 0 1 ;D6 92683",
+			// Stalemate and checkmate
+			"K1k5/8/P7/8/8/8/8/8 w - - 0 1 ;D6 2217",
+			"8/k1P5/8/1K6/8/8/8/8 w - - 0 1 ;D7 567584",
+			"8/8/2k5/5q2/5n2/8/5K2/8 b - - 0 1 ;D4 23527" };
+
+	/**
+	 * Runs the suite
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		long maxNodes = defaultMaxNodes;
+		int threads = 1;
+		int hashSize = 0;
+
+		try {
+			for (int i = 0; i + 1 < args.length; i = i + 2) {
+				String arg = args[i];
+				String value = args[i + 1];
+
+				if (arg.equals("-maxnodes"))
+					maxNodes = Long.parseLong(value);
+				else if (arg.equals("-threads"))
+					threads = Math.max(1, Integer.parseInt(value));
+				else if (arg.equals("-hash"))
+					hashSize = Integer.parseInt(value);
+				else
+					System.out.println("ERROR: Unknown command line argument '"
+							+ arg + "' ignored.");
+			}
+		} catch (NumberFormatException numberFormatException) {
+			System.out.println("ERROR: Command line argument invalid: "
+					+ numberFormatException);
+			return;
+		}
+
+		Perft perft = new Perft(new Engine());
+		perft.setThreads(threads);
+		if (hashSize > 0)
+			perft.setPerftTable(new PerftTable(hashSize));
+
+		if (!run(perft, maxNodes))
+			System.exit(1);
+	}
+
+	/**
+	 * Counts every position of the suite with <code>perft</code> to each depth
+	 * with at most <code>maxNodes</code> nodes and prints the results. Returns
+	 * true if every count was right.
+	 *
+	 * @param perft
+	 * @param maxNodes
+	 * @return
+	 */
+	public static boolean run(Perft perft, long maxNodes) {
+		int passed = 0;
+		int failed = 0;
+		long totalNodes = 0;
+		long totalTime = 0;
+
+		for (String line : positions) {
+			String[] fields = line.split(";");
+			String fen = fields[0].trim();
+
+			String error = perft.getEngine().setUpPosition(fen);
+			if (error != null) {
+				System.out.println(fen);
+				System.out.println("  FAIL " + error);
+				failed++;
+				continue;
+			}
+			System.out.println(fen);
+
+			for (int i = 1; i < fields.length; i++) {
+				String[] depthAndCount = fields[i].trim().split("\\s+");
+				int depth = Integer.parseInt(depthAndCount[0].substring(1));
+				long expected = Long.parseLong(depthAndCount[1]);
+				if (expected > maxNodes)
+					continue;
+
+				if (perft.getPerftTable() != null)
+					perft.getPerftTable().clear();
+				long startTime = System.currentTimeMillis();
+				long nodes = perft.perft(depth);
+				long time = System.currentTimeMillis() - startTime;
+
+				boolean isPassed = nodes == expected;
+				if (isPassed)
+					passed++;
+				else
+					failed++;
+				totalNodes += nodes;
+				totalTime += time;
+
+				System.out.println("  " + (isPassed ? "ok  " : "FAIL") + " depth "
+						+ depth + " nodes " + nodes
+						+ (isPassed ? "" : " expected " + expected) + " time "
+						+ time + " ms " + formatMnps(nodes, time));
+			}
+		}
+
+		System.out.println();
+		System.out.println("Passed: " + passed + " Failed: " + failed
+				+ " Time: " + totalTime + " ms "
+				+ formatMnps(totalNodes, totalTime));
+		return failed == 0;
+	}
+
+	/**
+	 * Returns the speed in millions of nodes per second, like "12.34 Mnps"
+	 *
+	 * @param nodes
+	 * @param time
+	 *            in milliseconds
+	 * @return
+	 */
+	private static String formatMnps(long nodes, long time) {
+		return String.format("%.2f Mnps", nodes / 1000.0 / Math.max(1, time));
+	}
+}
@@ -20,25 +20,34 @@ package controller;
 
 import java.util.ArrayList;
 
+import model.Bitboard;
 import model.Move;
 import model.Piece;
 import model.PieceArray;
+import model.Position;
+import model.UndoRecord;
 import utils.Constants;
 import utils.Log;
 
 /**
- * Static class used to check basic chess rules
+ * Checks basic chess rules and makes and takes back moves on the board of
+ * one engine
  * 
  * @author Matthew
  * 
  */
 public class RuleEngine {
-	private static boolean printFlag;
-	private static Controller controller;
-	static Log log = new Log();
+	private boolean printFlag;
+	private Engine engine;
+	Log log = new Log();
 
-	public RuleEngine(Controller controllerIn) {
-		RuleEngine.controller = controllerIn;
+	/**
+	 * Constructor
+	 * 
+	 * @param engineIn
+	 */
+	public RuleEngine(Engine engineIn) {
+		this.engine = engineIn;
 	}
 
 	/**
@@ -58,9 +67,9 @@ public class RuleEngine {
 	 * @return
 	 */
 
-	public static boolean validateMove(Move move,
+	public boolean validateMove(Move move,
 			BoardController boardController, boolean printFlag) {
-		RuleEngine.printFlag = printFlag;
+		this.printFlag = printFlag;
 
 		boolean result = true;
 
@@ -137,7 +146,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isNotSelfCapture(Move move,
+	public boolean isNotSelfCapture(Move move,
 			BoardController boardController) {
 		boolean result = false;
 
@@ -168,7 +177,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalMoveStyle(Move move,
+	public boolean isLegalMoveStyle(Move move,
 			BoardController boardController) {
 		boolean result = false;
 		if (move.getPiece().getType() == Constants.getRookChar())
@@ -199,7 +208,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalRookMove(Move move,
+	public boolean isLegalRookMove(Move move,
 			BoardController boardController) {
 		boolean result = false;
 
@@ -218,7 +227,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalQueenMove(Move move,
+	public boolean isLegalQueenMove(Move move,
 			BoardController boardController) {
 		boolean result = false;
 
@@ -243,7 +252,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalPawnMove(Move move,
+	public boolean isLegalPawnMove(Move move,
 			BoardController boardController) {
 		boolean result = false;
 		// TODO En passant
@@ -257,13 +266,15 @@ public class RuleEngine {
 				// White pawns
 				if (deltaRow == 1 && move.getPiece().isWhite())
 					result = true;
-				else if (deltaRow == 2 && !move.getPiece().isHasMoved()
+				else if (deltaRow == 2
+						&& move.getStartRow() == Constants.getWhitePawnRow()
 						&& move.getPiece().isWhite())
 					result = true;
 				// Black pawns
 				else if (deltaRow == -1 && !move.getPiece().isWhite())
 					result = true;
-				else if (deltaRow == -2 && !move.getPiece().isHasMoved()
+				else if (deltaRow == -2
+						&& move.getStartRow() == Constants.getBlackPawnRow()
 						&& !move.getPiece().isWhite())
 					result = true;
 			}
@@ -288,39 +299,32 @@ public class RuleEngine {
 			}
 		}
 		// If en passant
-		else if (!controller.getModel().getMoveList().isEmpty()) {
-			Move previousMove = controller.getModel().getMoveList()
-					.get(controller.getModel().getMoveList().size() - 1);
-			boolean previousPieceIsPawn = previousMove.getPiece().getType() == Constants
-					.getPawnChar();
-			boolean previousPieceIsDifferentColor = previousMove.getPiece()
-					.isWhite() != move.getPiece().isWhite();
-			boolean correctCol = move.getEndCol() == previousMove.getStartCol()
-					&& calculateDeltaColUnsigned(move) == 1;
-
-			if (previousPieceIsPawn && previousPieceIsDifferentColor
-					&& correctCol) {
-				// If white pawn
-				if (move.getPiece().isWhite()) {
-					if (calculateDeltaRowSigned(previousMove) == -2
-							&& move.getEndRow() == (previousMove.getEndRow() + 1)
-							&& move.getStartRow() == (previousMove.getEndRow()))
-						result = true;
-				}
-				// If black pawn
-				else {
-					if (calculateDeltaRowSigned(previousMove) == 2
-							&& move.getEndRow() == (previousMove.getEndRow() - 1)
-							&& move.getStartRow() == (previousMove.getEndRow()))
-						result = true;
+		else if (isEnPassantCapture(move)) {
+			int deltaRow = move.getEndRow() - move.getStartRow();
 
-				}
-			}
+			if (calculateDeltaColUnsigned(move) == 1)
+				result = move.getPiece().isWhite() ? deltaRow == 1
+						: deltaRow == -1;
 		}
 		// If it's not a capture move
 		return result;
 	}
 
+	/**
+	 * Returns true if <code>move</code> is a pawn moving onto the square the
+	 * position allows an en passant capture on. The position only keeps that
+	 * square for the side to move.
+	 * 
+	 * @param move
+	 * @return
+	 */
+	public boolean isEnPassantCapture(Move move) {
+		Position position = engine.getModel().getPosition();
+		return move.getPiece().getType() == Constants.getPawnChar()
+				&& move.getPiece().isWhite() == position.isWhiteToMove()
+				&& getEndSquare(move) == position.getEnPassantSquare();
+	}
+
 	/**
 	 * Returns true if the number of columns moved is equal to the number of
 	 * rows moved
@@ -329,7 +333,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalBishopMove(Move move,
+	public boolean isLegalBishopMove(Move move,
 			BoardController boardController) {
 		boolean result = false;
 
@@ -349,7 +353,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalKnightMove(Move move,
+	public boolean isLegalKnightMove(Move move,
 			BoardController boardController) {
 		boolean result = false;
 
@@ -371,9 +375,9 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isLegalKingMove(Move move) {
+	public boolean isLegalKingMove(Move move) {
 		boolean result = false;
-		BoardController boardController = controller.getBoardController();
+		BoardController boardController = engine.getBoardController();
 		int deltaRow = calculateDeltaRowUnsigned(move);
 		int deltaCol = calculateDeltaColUnsigned(move);
 
@@ -398,7 +402,11 @@ public class RuleEngine {
 			deltaCol = calculateDeltaColSigned(move);
 
 			boolean isWhite = !move.getPiece().isWhite();
-			kingHasMoved = move.getPiece().isHasMoved();
+			int castlingRights = engine.getModel().getPosition()
+					.getCastlingRights();
+			int kingsideRight = Position.getKingsideRight(!isWhite);
+			int queensideRight = Position.getQueensideRight(!isWhite);
+			kingHasMoved = (castlingRights & (kingsideRight | queensideRight)) == 0;
 
 			// Only continue if king hasn't moved
 			if (!kingHasMoved) {
@@ -410,8 +418,7 @@ public class RuleEngine {
 						isRookDeadOrMissing = true;
 					else {
 
-						rookHasMoved = boardController.getPieceByCoords(
-								move.getStartRow(), 7).isHasMoved();
+						rookHasMoved = (castlingRights & kingsideRight) == 0;
 
 						for (int i = 1; i < 3; i++) {
 							if (boardController.getPieceByCoords(
@@ -437,8 +444,7 @@ public class RuleEngine {
 						.getPieceByCoords(move.getStartRow(), 0) == null)
 					isRookDeadOrMissing = true;
 				else {
-					rookHasMoved = boardController.getPieceByCoords(
-							move.getStartRow(), 0).isHasMoved();
+					rookHasMoved = (castlingRights & queensideRight) == 0;
 					for (int i = 1; i < 4; i++) {
 						if (boardController.getPieceByCoords(
 								move.getStartRow(), move.getStartCol() - i) != null) {
@@ -469,93 +475,32 @@ public class RuleEngine {
 	}
 
 	/**
-	 * Helper method for king castling logic. Simulates the king moving to that
-	 * square so that the square can be checked for any piece attacking it (the
-	 * king has to be on the square in question, since a pawn wouldn't be able
-	 * to move diagonally and attack an empty square). Returns true if king is
-	 * vulnerable on the square designated by parameters row and col.
+	 * Helper method for king castling logic. Returns true if king is
+	 * vulnerable on the square designated by parameters row and col. The
+	 * bitboard attack test doesn't need a piece on the square to see pawn
+	 * captures, so the king no longer has to be moved there first.
 	 * 
 	 * @param row
 	 * @param col
 	 * @return
 	 */
-	public static boolean isKingVulnerableOnThisSquare(
+	public boolean isKingVulnerableOnThisSquare(
 			BoardController boardController, boolean isWhite, Move move,
 			int newRow, int newCol) {
-		Piece piece = move.getPiece();
-		Piece prevPiece = null;
-
-		boolean isVulerable = false;
-
-		// Simulate the move so pawns know if they can capture diagonally
-		prevPiece = boardController.getPieceByCoords(newRow, newCol);
-		boardController.setPieceByCoords(newRow, newCol, piece);
-		piece.setCol(newCol);
-
-		isVulerable = isAttackedSquare(newRow, newCol, isWhite);
-
-		if (prevPiece != null)
-			boardController.setPieceByCoords(newRow, newCol, prevPiece);
-		else
-			boardController.clearSquare(newRow, newCol);
-
-		// Put piece back
-		boardController.setPieceByCoords(move.getStartRow(),
-				move.getStartCol(), piece);
-		piece.setCol(move.getStartCol());
-
-		return isVulerable;
+		return isAttackedSquare(newRow, newCol, isWhite);
 	}
 
 	/**
 	 * Checks to see if any piece of team color can attack the square designated
-	 * by parameters row and col.
+	 * by parameters row and col. Uses the bitboards in the model's Position, so
+	 * this is a handful of table lookups rather than a scan over every enemy
+	 * piece.
 	 * 
 	 * @return
 	 */
-	public static boolean isAttackedSquare(int row, int col, boolean isWhite) {
-		boolean result = false;
-		PieceArray pieces;
-		if (isWhite)
-			pieces = controller.getModel().getWhitePieces();
-		else
-			pieces = controller.getModel().getBlackPieces();
-		for (int i = 0; i < PieceArray.numPieces; i++) {
-			Piece piece = pieces.getPiece(i);
-			if (piece != null){
-			
-			boolean seemsValid = false;
-			int unsignedRowDifference = Math.abs(row - piece.getRow());
-			int unsignedColDifference = Math.abs(col - piece.getCol());
-
-			// If it's not the move style of the piece to attack the king's square,
-			// don't bother with the elaborate, expensive validateCheck method
-			if ((piece.getType() == Constants.getRookChar() && (piece.getRow() == row || piece
-					.getCol() == col)))
-				seemsValid = true;
-			else if ((piece.getType() == Constants.getPawnChar()
-					&& (unsignedColDifference == 1) && (unsignedRowDifference == 1)))
-				seemsValid = true;
-			else if ((piece.getType() == Constants.getBishopChar() && unsignedColDifference == unsignedRowDifference))
-				seemsValid = true;
-			else if ((piece.getType() == Constants.getKnightChar()
-					&& (unsignedColDifference == 1 && unsignedRowDifference == 2) || (unsignedColDifference == 2 && unsignedRowDifference == 1)))
-				seemsValid = true;
-			else if ((piece.getType() == Constants.getQueenChar() && (unsignedRowDifference == unsignedColDifference)||(row == piece.getRow() || col == piece.getCol())))
-				seemsValid = true;
-			else if (piece.getType() == Constants.getKingChar() && unsignedRowDifference < 2 && unsignedColDifference < 2)
-				seemsValid = true;
-			if (seemsValid)
-			{
-			if (validateCheck(
-						new Move(piece, piece.getRow(), piece.getCol(), row,
-								col), controller.getBoardController(), false))
-//					result = true;
-				return true;
-			}}
-		}
-
-		return result;
+	public boolean isAttackedSquare(int row, int col, boolean isWhite) {
+		return engine.getModel().getPosition()
+				.isAttacked(Bitboard.getSquare(row, col), isWhite);
 	}
 
 	/**
@@ -566,9 +511,9 @@ public class RuleEngine {
 	 * 
 	 * @return
 	 */
-	public static boolean validateCheck(Move move,
+	public boolean validateCheck(Move move,
 			BoardController boardController, boolean printFlag) {
-		RuleEngine.printFlag = printFlag;
+		this.printFlag = printFlag;
 
 		boolean result = true;
 
@@ -618,7 +563,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblocked(Move move, BoardController boardController) {
+	public boolean isUnblocked(Move move, BoardController boardController) {
 		boolean result = true;
 
 		if (move.getPiece().getType() == Constants.getRookChar())
@@ -648,38 +593,28 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblockedKnightPath(Move move,
+	public boolean isUnblockedKnightPath(Move move,
 			BoardController boardController) {
 		return true;
 	}
 
 	/**
 	 * Returns true if there are no pieces on the diagonal from the start square
-	 * in argument move to the end square in the argument move.
+	 * in argument move to the end square in the argument move. The end square
+	 * is looked up in the magic bishop attack set of the start square, so no
+	 * squares are walked.
 	 * 
 	 * @param move
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblockedBishopPath(Move move,
+	public boolean isUnblockedBishopPath(Move move,
 			BoardController boardController) {
-		boolean result = true;
-
-		int rowDirection = 0;
-		int colDirection = 0;
-
-		colDirection = calculateColDirection(move);
-		rowDirection = calculateRowDirection(move);
+		Position position = engine.getModel().getPosition();
+		long attacks = Bitboard.getBishopAttacks(getStartSquare(move),
+				position.getOccupancy());
 
-		int distance = calculateDeltaRowUnsigned(move);
-
-		for (int i = 1; i < distance; i++) {
-			int newRow = move.getStartRow() + i * rowDirection;
-			int newCol = move.getStartCol() + i * colDirection;
-			if (boardController.getPieceByCoords(newRow, newCol) != null)
-				result = false;
-		}
-		return result;
+		return (attacks & Bitboard.getBit(getEndSquare(move))) != 0;
 	}
 
 	/**
@@ -690,48 +625,13 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblockedRookPath(Move move,
+	public boolean isUnblockedRookPath(Move move,
 			BoardController boardController) {
-		boolean result = true;
-		int distance = 0;
-		int direction = 0;
-
-		// If moving across columns
-		if (move.getStartCol() != move.getEndCol()) {
-			distance = Math.abs(move.getStartCol() - move.getEndCol());
+		Position position = engine.getModel().getPosition();
+		long attacks = Bitboard.getRookAttacks(getStartSquare(move),
+				position.getOccupancy());
 
-			direction = calculateColDirection(move);
-
-			for (int i = 1; i < distance; i++) {
-
-				int newCol = move.getStartCol() + (direction * i);
-
-				if (boardController
-						.getPieceByCoords(move.getStartRow(), newCol) != null) {
-					result = false;
-				}
-			}
-		}
-
-		// If moving across rows
-		else {
-			distance = Math.abs(move.getStartRow() - move.getEndRow());
-
-			direction = calculateRowDirection(move);
-
-			for (int i = 1; i < distance; i++) {
-
-				int newRow = move.getStartRow() + (direction * i);
-
-				if (boardController
-						.getPieceByCoords(newRow, move.getStartCol()) != null) {
-					result = false;
-				}
-			}
-
-		}
-
-		return result;
+		return (attacks & Bitboard.getBit(getEndSquare(move))) != 0;
 	}
 
 	/**
@@ -742,7 +642,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblockedPawnPath(Move move,
+	public boolean isUnblockedPawnPath(Move move,
 			BoardController boardController) {
 		boolean result = true;
 
@@ -772,20 +672,13 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblockedQueenPath(Move move,
+	public boolean isUnblockedQueenPath(Move move,
 			BoardController boardController) {
-		boolean result = false;
-
-		// If queen is moving like a rook
-		if (move.getStartCol() == move.getEndCol()
-				|| move.getStartRow() == move.getEndRow())
-			result = isUnblockedRookPath(move, boardController);
+		Position position = engine.getModel().getPosition();
+		long attacks = Bitboard.getQueenAttacks(getStartSquare(move),
+				position.getOccupancy());
 
-		// If queen is moving like a bishop
-		else
-			result = isUnblockedBishopPath(move, boardController);
-
-		return result;
+		return (attacks & Bitboard.getBit(getEndSquare(move))) != 0;
 	}
 
 	/**
@@ -797,7 +690,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isUnblockedKingPath(Move move,
+	public boolean isUnblockedKingPath(Move move,
 			BoardController boardController) {
 		return true;
 	}
@@ -811,7 +704,7 @@ public class RuleEngine {
 	 * @param boardController
 	 * @return
 	 */
-	public static boolean isNotSelfCheck(Move move,
+	public boolean isNotSelfCheck(Move move,
 			BoardController boardController) {
 		boolean result = true;
 		boolean isWhite = move.getPiece().isWhite();
@@ -825,9 +718,9 @@ public class RuleEngine {
 
 		PieceArray pieces = null;
 		if (isWhite)
-			pieces = controller.getModel().getWhitePieces();
+			pieces = engine.getModel().getWhitePieces();
 		else
-			pieces = controller.getModel().getBlackPieces();
+			pieces = engine.getModel().getBlackPieces();
 		// try{
 		king = pieces.getKing();
 				
@@ -838,7 +731,7 @@ public class RuleEngine {
 		if (king == null) {
 			System.out
 					.println("RuleEngine.isNotSelfCheck: King not in piece list");
-			for (Move m : controller.getModel().getMoveList())
+			for (Move m : engine.getModel().getMoveList())
 				System.out.println(m.coloredAlgebraicNotationPrint());
 
 			if (capturedPiece != null)
@@ -859,7 +752,7 @@ public class RuleEngine {
 		result = !isAttackedSquare(kingRow, kingCol, opponentIsWhite);
 
 		// Revert the board to it's previous state
-		undoChanges(capturedPiece, move);
+		undoChanges(move);
 
 		// If the king wasnt located in the above logic, all bets are off.
 		if (king == null) {
@@ -873,56 +766,60 @@ public class RuleEngine {
 	}
 
 	/**
-	 * If parameter capturedPiece is a real piece, it is returned to the board
-	 * and the piece list in the model. The piece that was moved via parameter
-	 * move is returned to it's initial square also.
+	 * Takes back <code>move</code>, which must be the last move processMove
+	 * made. If it captured a piece, the piece is returned to the board and the
+	 * piece list in the model. The piece that was moved is returned to it's
+	 * initial square also, and the rest of the position's state is copied back
+	 * from the undo record saved when the move was made. Nothing is searched
+	 * for or allocated, as the search calls this for every move it takes
+	 * back.
 	 * 
-	 * @param capturedPiece
 	 * @param move
 	 */
-	public static void undoChanges(Piece capturedPiece, Move move) {
+	public void undoChanges(Move move) {
+		Position position = engine.getModel().getPosition();
+		UndoRecord record = position.getLastUndoRecord();
+		Piece capturedPiece = record.getCapturedPiece();
+
 		if (capturedPiece != null) {
 			PieceArray pieces;
 			if (capturedPiece.isWhite())
-				pieces = controller.getModel().getWhitePieces();
+				pieces = engine.getModel().getWhitePieces();
 			else
-				pieces = controller.getModel().getBlackPieces();
+				pieces = engine.getModel().getBlackPieces();
 
 			pieces.add(capturedPiece);
 
 //			if (capturedPiece.getType() == Constants.getPawnChar())
 //				log.info("Adding back piece: " + capturedPiece.toString());
-			controller.getModel().getCapturedPieces().remove(capturedPiece);
 
-			controller.getBoardController().setPieceByCoords(move.getEndRow(),
+			engine.getBoardController().setPieceByCoords(move.getEndRow(),
 					move.getEndCol(), capturedPiece);
 
 		}
 
-		// Remove move from move list
-		ArrayList<Move> moveList = controller.getModel().getMoveList();
-		moveList.remove(move);
-
 		// Clear the end spot of the tested move
-		controller.getBoardController().clearSquare(move.getEndRow(),
+		engine.getBoardController().clearSquare(move.getEndRow(),
 				move.getEndCol());
 
 		// Set the captured piece back where it went
 		if (capturedPiece != null)
-			controller.getBoardController().setPieceByCoords(
+			engine.getBoardController().setPieceByCoords(
 					capturedPiece.getRow(), capturedPiece.getCol(),
 					capturedPiece);
 
 		undoCastleMove(move);
 
 		// Set the tested move piece back where it was
-		controller.getBoardController().setPieceByCoords(move.getStartRow(),
+		engine.getBoardController().setPieceByCoords(move.getStartRow(),
 				move.getStartCol(), move.getPiece());
 
 		move.getPiece().setRow(move.getStartRow());
 		move.getPiece().setCol(move.getStartCol());
 
 		undoPawnPromote(move);
+
+		position.restoreState();
 	}
 
 	/**
@@ -930,11 +827,12 @@ public class RuleEngine {
 	 * 
 	 * @param move
 	 */
-	public static void undoPawnPromote(Move move) {
+	public void undoPawnPromote(Move move) {
 
 		// TODO: test this to see if it works
 		if (move.getPromotePiece() != Character.UNASSIGNED) {
 			move.getPiece().setType(Constants.getPawnChar());
+			resyncPiece(move.getPiece());
 		}
 	}
 
@@ -944,27 +842,27 @@ public class RuleEngine {
 	 * 
 	 * @param move
 	 */
-	private static void undoCastleMove(Move move) {
+	private void undoCastleMove(Move move) {
 		// TODO Auto-generated method stub
 		if (move.getPiece().getType() == Constants.getKingChar()
 				&& RuleEngine.calculateDeltaColUnsigned(move) == 2) {
 			if (RuleEngine.calculateDeltaColSigned(move) == 2) {
-				Piece rook = controller.boardController.getPieceByCoords(
+				Piece rook = engine.getBoardController().getPieceByCoords(
 						move.getStartRow(),
 						Constants.getKingsideCastleRookCol());
-				controller.boardController.setPieceByCoords(move.getStartRow(),
+				engine.getBoardController().setPieceByCoords(move.getStartRow(),
 						Constants.getKingRookCol(), rook);
 				rook.setCol(Constants.getKingRookCol());
-				controller.boardController.clearSquare(move.getStartRow(),
+				engine.getBoardController().clearSquare(move.getStartRow(),
 						Constants.getKingsideCastleRookCol());
 			} else {
-				Piece rook = controller.boardController.getPieceByCoords(
+				Piece rook = engine.getBoardController().getPieceByCoords(
 						move.getStartRow(),
 						Constants.getQueensideCastleRookCol());
-				controller.boardController.setPieceByCoords(move.getStartRow(),
+				engine.getBoardController().setPieceByCoords(move.getStartRow(),
 						Constants.getQueenRookCol(), rook);
 				rook.setCol(Constants.getQueenRookCol());
-				controller.boardController.clearSquare(move.getStartRow(),
+				engine.getBoardController().clearSquare(move.getStartRow(),
 						Constants.getQueensideCastleRookCol());
 			}
 
@@ -978,21 +876,23 @@ public class RuleEngine {
 	 * @param move
 	 * @return
 	 */
-	public static Piece processMove(Move move) {
-		Piece capturedPiece = controller.getBoardController().getPieceByCoords(
+	public Piece processMove(Move move) {
+		Piece capturedPiece = engine.getBoardController().getPieceByCoords(
 				move.getEndRow(), move.getEndCol());
 
-		if (controller.getBoardController().getPieceByCoords(move.getStartRow(), move.getStartCol())== null)
+		if (engine.getBoardController().getPieceByCoords(move.getStartRow(), move.getStartCol())== null)
 			System.out.println("RuleEngine.process move: Moving null piece ERROR");
-		
-		// Add move to move list
-		ArrayList<Move> moveList = controller.getModel().getMoveList();
-		moveList.add(move);
+
+		boolean isIrreversible = capturedPiece != null
+				|| move.getPiece().getType() == Constants.getPawnChar();
+
+		// Save what undoChanges can't work out from the move
+		UndoRecord record = engine.getModel().getPosition().saveState();
 
 		// If the move was a successful capture, remove the captured piece from
 		// the list
 		if (capturedPiece != null) {
-			controller.removePieceFromList(move);
+			engine.removePieceFromList(move);
 //			if (capturedPiece.getType() == Constants.getPawnChar())
 //				log.info("Removing piece: " + capturedPiece.toString());
 		}
@@ -1000,15 +900,15 @@ public class RuleEngine {
 		// Handle En Passant. If a non-null value is returned, then there was a
 		// en passant capture and we save a reference to the captured
 		// pawn
-		Piece tmpPiece = controller.handleEnPassantCaptures(move);
-		controller.handleCastling(move);
+		Piece tmpPiece = engine.handleEnPassantCaptures(move);
+		engine.handleCastling(move);
 		if (tmpPiece != null)
 			capturedPiece = tmpPiece;
 
 		// Clear move the piece to the new square, clear the old square
-		controller.getBoardController().setPieceByCoords(move.getEndRow(),
+		engine.getBoardController().setPieceByCoords(move.getEndRow(),
 				move.getEndCol(), move.getPiece());
-		controller.getBoardController().clearSquare(move.getStartRow(),
+		engine.getBoardController().clearSquare(move.getStartRow(),
 				move.getStartCol());
 
 		move.getPiece().setRow(move.getEndRow());
@@ -1016,23 +916,60 @@ public class RuleEngine {
 
 		handlePawnPromotes(move);
 
+		updatePositionState(move, isIrreversible);
+		record.setCapturedPiece(capturedPiece);
+
 		return capturedPiece;
 	}
 
+	/**
+	 * Updates the side to move, castling rights and en passant square in the
+	 * position once <code>move</code> has been made on the board.
+	 * 
+	 * @param move
+	 * @param isIrreversible
+	 *            true if the move was a capture or a pawn move, checked before
+	 *            the move was made
+	 */
+	public void updatePositionState(Move move, boolean isIrreversible) {
+		engine.getModel().getPosition().updateState(getStartSquare(move),
+				getEndSquare(move), isIrreversible);
+	}
+
 	/**
 	 * Changes a piece's type if the move in question is a pawn promote.
 	 * 
 	 * @param move
 	 */
-	public static void handlePawnPromotes(Move move) {
+	public void handlePawnPromotes(Move move) {
 
 		// TODO does this work?
 		if (move.getPromotePiece() != Character.UNASSIGNED) {
 			move.getPiece().setType(move.getPromotePiece());
+			resyncPiece(move.getPiece());
 		}
 
 	}
 
+	/**
+	 * Puts a piece back on its own square after its type changed, so the
+	 * bitboards pick up the new type.
+	 * 
+	 * @param piece
+	 */
+	private void resyncPiece(Piece piece) {
+		engine.getBoardController().setPieceByCoords(piece.getRow(),
+				piece.getCol(), piece);
+	}
+
+	private static int getStartSquare(Move move) {
+		return Bitboard.getSquare(move.getStartRow(), move.getStartCol());
+	}
+
+	private static int getEndSquare(Move move) {
+		return Bitboard.getSquare(move.getEndRow(), move.getEndCol());
+	}
+
 	public static int calculateDeltaRowUnsigned(Move move) {
 		return Math.abs(move.getStartRow() - move.getEndRow());
 	}
@@ -0,0 +1,203 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package controller;
+
+/**
+ * How long one search may run, as given by the UCI go command. Every limit
+ * left at 0 doesn't apply. A search with no limits at all runs to the depth
+ * in Constants, like the GUI's searches.
+ *
+ * @author Matthew
+ *
+ */
+public class SearchLimits {
+
+	// Games are assumed to last this many more moves when the clock has no
+	// moves to go
+	private final static int defaultMovesToGo = 30;
+
+	// With a clock, a search may run over its budget up to this many times
+	// the budget to finish an iteration, but never past hardClockShare of
+	// the clock
+	private final static int hardLimitFactor = 3;
+	private final static int hardClockShare = 2;
+
+	int depth;
+	long nodes;
+	long moveTime;
+	long whiteTime;
+	long blackTime;
+	long whiteIncrement;
+	long blackIncrement;
+	int movesToGo;
+	boolean isInfinite;
+	boolean isPonder;
+
+	/**
+	 * Constructor. No limits are set.
+	 */
+	public SearchLimits() {
+	}
+
+	/**
+	 * Constructor for a search to a fixed depth
+	 *
+	 * @param depthIn
+	 */
+	public SearchLimits(int depthIn) {
+		this.depth = depthIn;
+	}
+
+	/**
+	 * Returns how many milliseconds the side to move should spend on this
+	 * move: the fixed move time if there is one, otherwise an even share of
+	 * the remaining clock plus the increment. Never more than half the clock.
+	 * Returns 0 if the time isn't limited.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public long getTimeBudget(boolean isWhite) {
+		if (moveTime > 0)
+			return moveTime;
+
+		long time = isWhite ? whiteTime : blackTime;
+		long increment = isWhite ? whiteIncrement : blackIncrement;
+		if (time <= 0)
+			return 0;
+
+		int movesLeft = movesToGo > 0 ? movesToGo : defaultMovesToGo;
+		return Math.max(1, Math.min(time / movesLeft + increment, time / 2));
+	}
+
+	/**
+	 * Returns how many milliseconds into the search a new iteration may still
+	 * be started. With a fixed move time that is the whole move time, since
+	 * the hard limit stops the iteration anyway. With a clock it is half the
+	 * budget, as the next iteration usually takes a few times longer than
+	 * all the ones before it. Returns 0 if the time isn't limited.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public long getSoftTimeLimit(boolean isWhite) {
+		if (moveTime > 0)
+			return moveTime;
+		return getTimeBudget(isWhite) / 2;
+	}
+
+	/**
+	 * Returns after how many milliseconds the search is stopped in the middle
+	 * of an iteration: the fixed move time, or a few times the budget but at
+	 * most half the remaining clock. Returns 0 if the time isn't limited.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public long getHardTimeLimit(boolean isWhite) {
+		if (moveTime > 0)
+			return moveTime;
+
+		long time = isWhite ? whiteTime : blackTime;
+		if (time <= 0)
+			return 0;
+		return Math.max(1, Math.min(hardLimitFactor * getTimeBudget(isWhite),
+				time / hardClockShare));
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public void setNodes(long nodes) {
+		this.nodes = nodes;
+	}
+
+	public long getMoveTime() {
+		return moveTime;
+	}
+
+	public void setMoveTime(long moveTime) {
+		this.moveTime = moveTime;
+	}
+
+	public long getWhiteTime() {
+		return whiteTime;
+	}
+
+	public void setWhiteTime(long whiteTime) {
+		this.whiteTime = whiteTime;
+	}
+
+	public long getBlackTime() {
+		return blackTime;
+	}
+
+	public void setBlackTime(long blackTime) {
+		this.blackTime = blackTime;
+	}
+
+	public long getWhiteIncrement() {
+		return whiteIncrement;
+	}
+
+	public void setWhiteIncrement(long whiteIncrement) {
+		this.whiteIncrement = whiteIncrement;
+	}
+
+	public long getBlackIncrement() {
+		return blackIncrement;
+	}
+
+	public void setBlackIncrement(long blackIncrement) {
+		this.blackIncrement = blackIncrement;
+	}
+
+	public int getMovesToGo() {
+		return movesToGo;
+	}
+
+	public void setMovesToGo(int movesToGo) {
+		this.movesToGo = movesToGo;
+	}
+
+	public boolean isInfinite() {
+		return isInfinite;
+	}
+
+	public void setInfinite(boolean isInfinite) {
+		this.isInfinite = isInfinite;
+	}
+
+	public boolean isPonder() {
+		return isPonder;
+	}
+
+	public void setPonder(boolean isPonder) {
+		this.isPonder = isPonder;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package controller;
+
+/**
+ * Told about the progress of a search, once per iteration of iterative
+ * deepening. Called on the searching thread.
+ *
+ * @author Matthew
+ *
+ */
+public interface SearchListener {
+
+	/**
+	 * Called when the search to <code>depth</code> is finished.
+	 *
+	 * @param depth
+	 * @param score
+	 *            from the point of view of the side to move
+	 * @param nodes
+	 *            nodes searched so far in this search
+	 * @param time
+	 *            milliseconds since the search started
+	 * @param pv
+	 *            the principal variation as packed moves
+	 * @param pvLength
+	 *            number of moves of pv that are used
+	 */
+	public void iterationFinished(int depth, double score, long nodes,
+			long time, int[] pv, int pvLength);
+}
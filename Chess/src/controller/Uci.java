@@ -0,0 +1,420 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import model.PackedMove;
+import utils.Constants;
+import utils.Constants.ParallelSearch;
+
+/**
+ * Runs the engine without the GUI, talking the Universal Chess Interface
+ * protocol over standard input and output, so tournament managers and other
+ * chess GUIs can play it. Supported commands:
+ *
+ * <li>uci, isready, ucinewgame, quit
+ * <li>position startpos|fen FEN [moves ...]
+ * <li>go [depth N] [movetime MS] [wtime MS] [btime MS] [winc MS] [binc MS]
+ * [movestogo N] [nodes N] [infinite] [ponder]
+ * <li>stop, ponderhit
+ * <li>setoption name Hash|Threads|ParallelSearch|Ponder value X
+ *
+ * The search runs on its own thread so stop and isready are answered while
+ * it thinks. An info line is printed after each iteration.
+ *
+ * Start it with <code>java controller.Uci</code>. It takes the same flags as
+ * the GUI, such as -depth and -log.
+ *
+ * @author Matthew
+ *
+ */
+public class Uci implements SearchListener {
+
+	private final static String engineName = "Quiet Intrigue";
+	private final static String engineAuthor = "Matthew Voss";
+
+	// How often a finished infinite or ponder search checks for stop or
+	// ponderhit, in milliseconds
+	private final static int waitInterval = 10;
+
+	// Names of the Constants.ParallelSearch values in the ParallelSearch
+	// option
+	private final static String[] parallelSearchNames = { "LazySMP", "YBW" };
+
+	Engine engine;
+	Thread searchThread;
+	SearchLimits limits;
+	volatile boolean isStopRequested;
+
+	/**
+	 * Reads UCI commands until quit or the end of input
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Engine.processCommandLineArguments(args);
+		Uci uci = new Uci();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				System.in));
+
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				if (!uci.handleCommand(line))
+					break;
+		} catch (IOException ioException) {
+			System.out.println("info string Uci.main: " + ioException);
+		}
+		uci.stopSearch();
+	}
+
+	/**
+	 * Constructor
+	 */
+	public Uci() {
+		engine = new Engine();
+		engine.getAI().setSearchListener(this);
+	}
+
+	/**
+	 * Handles one line of input. Returns false if it was quit.
+	 *
+	 * @param line
+	 * @return
+	 */
+	public boolean handleCommand(String line) {
+		String[] tokens = line.trim().split("\\s+");
+		String command = tokens[0];
+
+		if (command.equals("uci")) {
+			send("id name " + engineName);
+			send("id author " + engineAuthor);
+			send("option name Hash type spin default "
+					+ Constants.getDefaultHashSize() + " min 1 max "
+					+ Constants.getMaxHashSize());
+			send("option name Threads type spin default "
+					+ Constants.getDefaultThreads() + " min 1 max "
+					+ Constants.getMaxThreads());
+			send("option name ParallelSearch type combo default "
+					+ parallelSearchNames[Constants.getDefaultParallelSearch()
+							.ordinal()] + " var " + parallelSearchNames[0]
+					+ " var " + parallelSearchNames[1]);
+			send("option name Ponder type check default false");
+			send("uciok");
+		} else if (command.equals("isready"))
+			send("readyok");
+		else if (command.equals("ucinewgame")) {
+			stopSearch();
+			engine.getAI().getTranspositionTable().clear();
+			engine.setUpStartPosition();
+		} else if (command.equals("position")) {
+			stopSearch();
+			setUpPosition(tokens);
+		} else if (command.equals("go")) {
+			stopSearch();
+			startSearch(parseLimits(tokens));
+		} else if (command.equals("stop"))
+			stopSearch();
+		else if (command.equals("ponderhit")) {
+			if (limits != null && limits.isPonder())
+				engine.getAI().ponderHit();
+		} else if (command.equals("setoption")) {
+			stopSearch();
+			setOption(tokens);
+		} else if (command.equals("quit"))
+			return false;
+		else if (command.length() > 0)
+			send("info string Unknown command: " + line);
+
+		return true;
+	}
+
+	/**
+	 * Sets up the position from "position startpos|fen FEN [moves ...]"
+	 *
+	 * @param tokens
+	 */
+	private void setUpPosition(String[] tokens) {
+		int index = 1;
+		boolean isSetUp = false;
+
+		if (tokens.length > 1 && tokens[1].equals("startpos")) {
+			engine.setUpStartPosition();
+			isSetUp = true;
+			index = 2;
+		} else if (tokens.length > 1 && tokens[1].equals("fen")) {
+			String fen = "";
+			index = 2;
+			while (index < tokens.length && !tokens[index].equals("moves"))
+				fen += tokens[index++] + " ";
+			String error = engine.setUpPosition(fen);
+			if (error != null) {
+				send("info string " + error);
+				return;
+			}
+			isSetUp = true;
+		}
+
+		if (!isSetUp) {
+			send("info string Can't set up position, keeping the old one");
+			return;
+		}
+
+		if (index < tokens.length && tokens[index].equals("moves"))
+			for (index++; index < tokens.length; index++)
+				if (!engine.processMove(tokens[index])) {
+					send("info string Illegal move " + tokens[index]
+							+ ", ignoring the moves after it");
+					break;
+				}
+	}
+
+	/**
+	 * Reads the limits of a go command
+	 *
+	 * @param tokens
+	 * @return
+	 */
+	private SearchLimits parseLimits(String[] tokens) {
+		SearchLimits result = new SearchLimits();
+
+		try {
+			for (int i = 1; i < tokens.length; i++) {
+				String token = tokens[i];
+				if (token.equals("infinite"))
+					result.setInfinite(true);
+				else if (token.equals("ponder"))
+					result.setPonder(true);
+				else if (i + 1 < tokens.length) {
+					String value = tokens[i + 1];
+					if (token.equals("depth"))
+						result.setDepth(Integer.parseInt(value));
+					else if (token.equals("movetime"))
+						result.setMoveTime(Long.parseLong(value));
+					else if (token.equals("wtime"))
+						result.setWhiteTime(Long.parseLong(value));
+					else if (token.equals("btime"))
+						result.setBlackTime(Long.parseLong(value));
+					else if (token.equals("winc"))
+						result.setWhiteIncrement(Long.parseLong(value));
+					else if (token.equals("binc"))
+						result.setBlackIncrement(Long.parseLong(value));
+					else if (token.equals("movestogo"))
+						result.setMovesToGo(Integer.parseInt(value));
+					else if (token.equals("nodes"))
+						result.setNodes(Long.parseLong(value));
+					else
+						continue;
+					i++;
+				}
+			}
+		} catch (NumberFormatException numberFormatException) {
+			send("info string Can't read go command: " + numberFormatException);
+		}
+
+		// Without any limit, search like the GUI does
+		if (result.getDepth() == 0 && result.getNodes() == 0
+				&& result.getTimeBudget(engine.isWhiteTurn()) == 0
+				&& !result.isInfinite() && !result.isPonder())
+			result.setDepth(Constants.getDepth());
+
+		return result;
+	}
+
+	/**
+	 * Handles "setoption name NAME value VALUE"
+	 *
+	 * @param tokens
+	 */
+	private void setOption(String[] tokens) {
+		String name = "";
+		String value = "";
+		int i = 1;
+
+		if (i < tokens.length && tokens[i].equals("name"))
+			i++;
+		while (i < tokens.length && !tokens[i].equals("value"))
+			name += (name.isEmpty() ? "" : " ") + tokens[i++];
+		if (i < tokens.length)
+			i++;
+		while (i < tokens.length)
+			value += (value.isEmpty() ? "" : " ") + tokens[i++];
+
+		try {
+			if (name.equalsIgnoreCase("Hash")) {
+				int size = Math.max(1, Math.min(Integer.parseInt(value),
+						Constants.getMaxHashSize()));
+				engine.getOptions().setHashSize(size);
+				engine.getAI().getTranspositionTable().resize(size);
+			} else if (name.equalsIgnoreCase("Threads"))
+				engine.getOptions().setThreads(Math.max(1, Math.min(
+						Integer.parseInt(value), Constants.getMaxThreads())));
+			else if (name.equalsIgnoreCase("ParallelSearch"))
+				setParallelSearch(value);
+			else if (!name.equalsIgnoreCase("Ponder"))
+				send("info string Unknown option " + name);
+		} catch (NumberFormatException numberFormatException) {
+			send("info string Can't read value '" + value + "' of option "
+					+ name);
+		}
+	}
+
+	/**
+	 * Picks Lazy SMP or Young Brothers Wait for searches with more than one
+	 * thread, by its name in parallelSearchNames
+	 *
+	 * @param value
+	 */
+	private void setParallelSearch(String value) {
+		for (ParallelSearch parallelSearch : ParallelSearch.values())
+			if (parallelSearchNames[parallelSearch.ordinal()]
+					.equalsIgnoreCase(value)) {
+				engine.getOptions().setParallelSearch(parallelSearch);
+				return;
+			}
+		send("info string Unknown value '" + value
+				+ "' of option ParallelSearch");
+	}
+
+	/**
+	 * Starts searching the current position on the search thread. The best
+	 * move is sent when the search ends; infinite and ponder searches also
+	 * wait for stop or ponderhit first, as the protocol asks.
+	 *
+	 * @param limitsIn
+	 */
+	private void startSearch(SearchLimits limitsIn) {
+		limits = limitsIn;
+		isStopRequested = false;
+
+		searchThread = new Thread(new Runnable() {
+			public void run() {
+				AI ai = engine.getAI();
+				ai.chooseMove(engine.isWhiteTurn(), limits);
+
+				while ((limits.isInfinite() || limits.isPonder())
+						&& !isStopRequested) {
+					try {
+						Thread.sleep(waitInterval);
+					} catch (InterruptedException interruptedException) {
+						break;
+					}
+				}
+
+				sendBestMove(ai);
+			}
+		});
+		searchThread.start();
+	}
+
+	/**
+	 * Stops the search, if there is one, and waits until it has sent its best
+	 * move
+	 */
+	private void stopSearch() {
+		if (searchThread == null)
+			return;
+
+		isStopRequested = true;
+		while (searchThread.isAlive()) {
+			engine.getAI().stop();
+			try {
+				searchThread.join(waitInterval);
+			} catch (InterruptedException interruptedException) {
+				break;
+			}
+		}
+		searchThread = null;
+	}
+
+	/**
+	 * Sends the best move, and the move after it to ponder on if the PV has
+	 * one
+	 *
+	 * @param ai
+	 */
+	private void sendBestMove(AI ai) {
+		int bestMove = ai.getBestMove();
+		String text = "bestmove "
+				+ (bestMove == PackedMove.NONE ? "0000" : PackedMove
+						.toString(bestMove));
+
+		if (bestMove != PackedMove.NONE && ai.getPVLength() > 1
+				&& ai.getPV()[0] == bestMove)
+			text += " ponder " + PackedMove.toString(ai.getPV()[1]);
+		send(text);
+	}
+
+	/**
+	 * Sends an info line for every finished iteration
+	 */
+	public void iterationFinished(int depth, double score, long nodes,
+			long time, int[] pv, int pvLength) {
+		String text = "info depth " + depth + " score " + formatScore(score)
+				+ " nodes " + nodes + " nps " + (nodes * 1000 / Math.max(1, time))
+				+ " time " + time;
+
+		if (pvLength > 0) {
+			text += " pv";
+			for (int i = 0; i < pvLength; i++)
+				text += " " + PackedMove.toString(pv[i]);
+		}
+		send(text);
+	}
+
+	/**
+	 * Returns a score as UCI wants it: "mate N" in moves if a checkmate was
+	 * found, otherwise "cp N" in hundredths of a pawn.
+	 *
+	 * @param score
+	 * @return
+	 */
+	private static String formatScore(double score) {
+		double mateThreshold = Constants.getCheckMateScore()
+				- Constants.getMaxSearchPly();
+
+		// evaluate scores a mate it finds at a leaf without the ply, so a mate
+		// for us is always at least one move away
+		if (score > mateThreshold) {
+			int plies = (int) (Constants.getCheckMateScore() - score);
+			return "mate " + Math.max(1, (plies + 1) / 2);
+		} else if (score < -mateThreshold) {
+			int plies = (int) (Constants.getCheckMateScore() + score);
+			return "mate -" + Math.max(1, (plies + 1) / 2);
+		}
+		return "cp " + Math.round(score * 100);
+	}
+
+	/**
+	 * Writes one line to the GUI
+	 *
+	 * @param text
+	 */
+	private synchronized void send(String text) {
+		System.out.println(text);
+		System.out.flush();
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+}
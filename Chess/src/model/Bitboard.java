@@ -0,0 +1,241 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Static helpers for working with 64 bit bitboards. Square numbering follows
+ * the (row,col) layout of the board array, so square = row * 8 + col. That
+ * makes a1 square 0, h1 square 7 and h8 square 63.
+ *
+ * The knight, king and pawn attack sets never change, so they are computed
+ * once when the class is loaded and looked up from then on. Rook, bishop and
+ * queen attacks depend on the occupancy and are looked up in the magic tables
+ * in MagicBitboards.
+ *
+ * @author Matthew
+ *
+ */
+public class Bitboard {
+
+	public final static long FILE_A = 0x0101010101010101L;
+	public final static long FILE_H = FILE_A << 7;
+	public final static long RANK_1 = 0xFFL;
+	public final static long RANK_2 = RANK_1 << 8;
+	public final static long RANK_7 = RANK_1 << 48;
+	public final static long RANK_8 = RANK_1 << 56;
+
+	private final static long[] knightAttacks = new long[64];
+	private final static long[] kingAttacks = new long[64];
+	private final static long[] whitePawnAttacks = new long[64];
+	private final static long[] blackPawnAttacks = new long[64];
+	private final static long[][] between = new long[64][64];
+	private final static long[][] lines = new long[64][64];
+
+	static {
+		int[][] knightSteps = { { 2, 1 }, { 2, -1 }, { -2, 1 }, { -2, -1 },
+				{ 1, 2 }, { 1, -2 }, { -1, 2 }, { -1, -2 } };
+
+		for (int square = 0; square < 64; square++) {
+			int row = getRow(square);
+			int col = getCol(square);
+
+			for (int[] step : knightSteps)
+				knightAttacks[square] |= bitIfOnBoard(row + step[0], col
+						+ step[1]);
+
+			for (int deltaRow = -1; deltaRow < 2; deltaRow++)
+				for (int deltaCol = -1; deltaCol < 2; deltaCol++)
+					if (!(deltaRow == 0 && deltaCol == 0))
+						kingAttacks[square] |= bitIfOnBoard(row + deltaRow, col
+								+ deltaCol);
+
+			whitePawnAttacks[square] = bitIfOnBoard(row + 1, col - 1)
+					| bitIfOnBoard(row + 1, col + 1);
+			blackPawnAttacks[square] = bitIfOnBoard(row - 1, col - 1)
+					| bitIfOnBoard(row - 1, col + 1);
+		}
+
+		// Squares between, and whole lines through, every pair of squares that
+		// share a row, column or diagonal
+		int[][] directions = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 },
+				{ 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 } };
+		for (int square = 0; square < 64; square++) {
+			for (int[] direction : directions) {
+				long line = getBit(square);
+				for (int sign = -1; sign < 2; sign += 2) {
+					int row = getRow(square) + sign * direction[0];
+					int col = getCol(square) + sign * direction[1];
+					while (bitIfOnBoard(row, col) != 0) {
+						line |= getBit(getSquare(row, col));
+						row += sign * direction[0];
+						col += sign * direction[1];
+					}
+				}
+
+				long path = 0L;
+				int row = getRow(square) + direction[0];
+				int col = getCol(square) + direction[1];
+				while (bitIfOnBoard(row, col) != 0) {
+					int target = getSquare(row, col);
+					between[square][target] = path;
+					lines[square][target] = line;
+					path |= getBit(target);
+					row += direction[0];
+					col += direction[1];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the square index of (row,col)
+	 *
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public static int getSquare(int row, int col) {
+		return (row << 3) | col;
+	}
+
+	public static int getRow(int square) {
+		return square >>> 3;
+	}
+
+	public static int getCol(int square) {
+		return square & 7;
+	}
+
+	/**
+	 * Returns a bitboard with only the bit for <code>square</code> set
+	 *
+	 * @param square
+	 * @return
+	 */
+	public static long getBit(int square) {
+		return 1L << square;
+	}
+
+	/**
+	 * Returns the index of the least significant set bit. Used to walk the
+	 * squares of a bitboard: take the lowest square, then clear it with
+	 * <code>bitboard &= bitboard - 1</code>.
+	 *
+	 * @param bitboard
+	 * @return
+	 */
+	public static int getLowestSquare(long bitboard) {
+		return Long.numberOfTrailingZeros(bitboard);
+	}
+
+	public static int countBits(long bitboard) {
+		return Long.bitCount(bitboard);
+	}
+
+	public static long getKnightAttacks(int square) {
+		return knightAttacks[square];
+	}
+
+	public static long getKingAttacks(int square) {
+		return kingAttacks[square];
+	}
+
+	/**
+	 * Returns the squares a pawn of color <code>isWhite</code> standing on
+	 * <code>square</code> attacks diagonally.
+	 *
+	 * @param isWhite
+	 * @param square
+	 * @return
+	 */
+	public static long getPawnAttacks(boolean isWhite, int square) {
+		return isWhite ? whitePawnAttacks[square] : blackPawnAttacks[square];
+	}
+
+	/**
+	 * Returns every square a rook on <code>square</code> attacks, given the
+	 * occupied squares in <code>occupancy</code>. Each ray stops at (and
+	 * includes) the first occupied square.
+	 *
+	 * @param square
+	 * @param occupancy
+	 * @return
+	 */
+	public static long getRookAttacks(int square, long occupancy) {
+		return MagicBitboards.getRookAttacks(square, occupancy);
+	}
+
+	/**
+	 * Returns every square a bishop on <code>square</code> attacks, given the
+	 * occupied squares in <code>occupancy</code>.
+	 *
+	 * @param square
+	 * @param occupancy
+	 * @return
+	 */
+	public static long getBishopAttacks(int square, long occupancy) {
+		return MagicBitboards.getBishopAttacks(square, occupancy);
+	}
+
+	public static long getQueenAttacks(int square, long occupancy) {
+		return getRookAttacks(square, occupancy)
+				| getBishopAttacks(square, occupancy);
+	}
+
+	/**
+	 * Returns the squares strictly between <code>from</code> and
+	 * <code>to</code> if they share a row, column or diagonal, otherwise an
+	 * empty bitboard.
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static long getBetween(int from, int to) {
+		return between[from][to];
+	}
+
+	/**
+	 * Returns the whole row, column or diagonal running through both
+	 * <code>from</code> and <code>to</code>, edge to edge, or an empty
+	 * bitboard if they aren't on a common line.
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static long getLine(int from, int to) {
+		return lines[from][to];
+	}
+
+	/**
+	 * Returns the bit for (row,col), or an empty bitboard if the square is off
+	 * the board.
+	 *
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	private static long bitIfOnBoard(int row, int col) {
+		long result = 0L;
+		if (row >= 0 && row < 8 && col >= 0 && col < 8)
+			result = getBit(getSquare(row, col));
+		return result;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Precomputed sliding piece attack tables using "magic" multiplication.
+ *
+ * For each square, only the squares between the slider and the edge of the
+ * board can block it (the edge square itself is attacked whether it is
+ * occupied or not). Masking the occupancy down to those relevant squares,
+ * multiplying by the square's magic number and keeping the top bits gives a
+ * unique index into a table of attack sets, so a rook or bishop attack lookup
+ * is one multiply, one shift and one array read no matter how many pieces are
+ * in the way.
+ *
+ * The magic numbers are found when the class is loaded by trying sparse random
+ * numbers until one maps every relevant occupancy without a harmful collision.
+ * The random generator uses a fixed seed so the tables come out identical on
+ * every run. Building them takes a fraction of a second and happens once per
+ * JVM; every Position, move generator and evaluation shares them.
+ *
+ * @author Matthew
+ *
+ */
+public class MagicBitboards {
+
+	private final static long[] rookMasks = new long[64];
+	private final static long[] rookMagics = new long[64];
+	private final static int[] rookShifts = new int[64];
+	private final static int[] rookOffsets = new int[64];
+	private final static long[] rookTable;
+
+	private final static long[] bishopMasks = new long[64];
+	private final static long[] bishopMagics = new long[64];
+	private final static int[] bishopShifts = new int[64];
+	private final static int[] bishopOffsets = new int[64];
+	private final static long[] bishopTable;
+
+	private final static int[][] rookDirections = { { 1, 0 }, { -1, 0 },
+			{ 0, 1 }, { 0, -1 } };
+	private final static int[][] bishopDirections = { { 1, 1 }, { 1, -1 },
+			{ -1, 1 }, { -1, -1 } };
+
+	// Seeds for the random generator, one per rank, picked so the search for
+	// each square's magic finishes after few attempts
+	private final static long[] rankSeeds = { 728, 10316, 55013, 32803, 12281,
+			15100, 16645, 255 };
+
+	private static long seed;
+
+	static {
+		rookTable = buildTable(rookDirections, rookMasks, rookMagics,
+				rookShifts, rookOffsets);
+		bishopTable = buildTable(bishopDirections, bishopMasks, bishopMagics,
+				bishopShifts, bishopOffsets);
+	}
+
+	/**
+	 * Returns every square a rook on <code>square</code> attacks, given the
+	 * occupied squares in <code>occupancy</code>.
+	 *
+	 * @param square
+	 * @param occupancy
+	 * @return
+	 */
+	public static long getRookAttacks(int square, long occupancy) {
+		return rookTable[rookOffsets[square]
+				+ (int) (((occupancy & rookMasks[square]) * rookMagics[square]) >>> rookShifts[square])];
+	}
+
+	/**
+	 * Returns every square a bishop on <code>square</code> attacks, given the
+	 * occupied squares in <code>occupancy</code>.
+	 *
+	 * @param square
+	 * @param occupancy
+	 * @return
+	 */
+	public static long getBishopAttacks(int square, long occupancy) {
+		return bishopTable[bishopOffsets[square]
+				+ (int) (((occupancy & bishopMasks[square]) * bishopMagics[square]) >>> bishopShifts[square])];
+	}
+
+	/**
+	 * Finds a magic number for every square and fills in one shared attack
+	 * table for a slider that moves along <code>directions</code>. Returns the
+	 * table; the masks, magics, shifts and per square offsets into the table
+	 * are written to the arrays passed in.
+	 *
+	 * @param directions
+	 * @param masks
+	 * @param magics
+	 * @param shifts
+	 * @param offsets
+	 * @return
+	 */
+	private static long[] buildTable(int[][] directions, long[] masks,
+			long[] magics, int[] shifts, int[] offsets) {
+		int tableSize = 0;
+		for (int square = 0; square < 64; square++) {
+			masks[square] = computeRelevantMask(square, directions);
+			offsets[square] = tableSize;
+			tableSize += 1 << Bitboard.countBits(masks[square]);
+		}
+
+		long[] table = new long[tableSize];
+		for (int square = 0; square < 64; square++) {
+			seed = rankSeeds[Bitboard.getRow(square)];
+			magics[square] = findMagic(square, directions, masks[square],
+					table, offsets[square]);
+		}
+
+		for (int square = 0; square < 64; square++)
+			shifts[square] = 64 - Bitboard.countBits(masks[square]);
+
+		return table;
+	}
+
+	/**
+	 * Tries random candidates until one indexes every subset of the square's
+	 * relevant occupancy into the table without two different attack sets
+	 * landing on the same entry. The matching attack sets are left in
+	 * <code>table</code>.
+	 *
+	 * @param square
+	 * @param directions
+	 * @param mask
+	 * @param table
+	 * @param offset
+	 * @return
+	 */
+	private static long findMagic(int square, int[][] directions, long mask,
+			long[] table, int offset) {
+		int bits = Bitboard.countBits(mask);
+		int size = 1 << bits;
+		int shift = 64 - bits;
+		long[] occupancies = new long[size];
+		long[] attacks = new long[size];
+		int[] usedBy = new int[size];
+
+		// Enumerate every subset of the mask (the "carry rippler" trick)
+		long subset = 0L;
+		int count = 0;
+		do {
+			occupancies[count] = subset;
+			attacks[count] = computeSlidingAttacks(square, subset, directions);
+			count++;
+			subset = (subset - mask) & mask;
+		} while (subset != 0);
+
+		int attempt = 0;
+		while (true) {
+			attempt++;
+			long magic = nextRandom() & nextRandom() & nextRandom();
+
+			// Magics that don't spread the mask into the top bits rarely work
+			if (Bitboard.countBits((mask * magic) & 0xFF00000000000000L) < 6)
+				continue;
+
+			boolean failed = false;
+			for (int i = 0; i < size && !failed; i++) {
+				int index = (int) ((occupancies[i] * magic) >>> shift);
+				if (usedBy[index] != attempt) {
+					usedBy[index] = attempt;
+					table[offset + index] = attacks[i];
+				} else if (table[offset + index] != attacks[i])
+					failed = true;
+			}
+
+			if (!failed)
+				return magic;
+		}
+	}
+
+	/**
+	 * Returns the squares along <code>directions</code> that can block a
+	 * slider on <code>square</code>. The last square of each ray is left out
+	 * since nothing lies behind it.
+	 *
+	 * @param square
+	 * @param directions
+	 * @return
+	 */
+	private static long computeRelevantMask(int square, int[][] directions) {
+		long result = 0L;
+		int row = Bitboard.getRow(square);
+		int col = Bitboard.getCol(square);
+
+		for (int[] direction : directions) {
+			int newRow = row + direction[0];
+			int newCol = col + direction[1];
+			while (isOnBoard(newRow + direction[0], newCol + direction[1])) {
+				result |= Bitboard.getBit(Bitboard.getSquare(newRow, newCol));
+				newRow += direction[0];
+				newCol += direction[1];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Walks each ray in <code>directions</code> out from <code>square</code>
+	 * until the edge of the board or an occupied square. This is the slow
+	 * reference the tables are filled from.
+	 *
+	 * @param square
+	 * @param occupancy
+	 * @param directions
+	 * @return
+	 */
+	private static long computeSlidingAttacks(int square, long occupancy,
+			int[][] directions) {
+		long result = 0L;
+		int row = Bitboard.getRow(square);
+		int col = Bitboard.getCol(square);
+
+		for (int[] direction : directions) {
+			int newRow = row + direction[0];
+			int newCol = col + direction[1];
+			while (isOnBoard(newRow, newCol)) {
+				long bit = Bitboard.getBit(Bitboard.getSquare(newRow, newCol));
+				result |= bit;
+				if ((occupancy & bit) != 0)
+					break;
+				newRow += direction[0];
+				newCol += direction[1];
+			}
+		}
+		return result;
+	}
+
+	private static boolean isOnBoard(int row, int col) {
+		return row >= 0 && row < 8 && col >= 0 && col < 8;
+	}
+
+	/**
+	 * xorshift64* pseudo random number generator
+	 *
+	 * @return
+	 */
+	private static long nextRandom() {
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return seed * 2685821657736338717L;
+	}
+}
@@ -30,6 +30,7 @@ import utils.Constants;
 public class Model {
 
 	Piece[][] board;
+	Position position;
 	PieceArray whitePieces;
 	PieceArray blackPieces;
 	
@@ -44,6 +45,16 @@ public class Model {
 	 * Constructor. Initializes board to classic chess start position
 	 */
 	public Model() {
+		this(true);
+	}
+
+	/**
+	 * Creates a model with an empty board, or with the start position if
+	 * <code>isStartPosition</code> is true.
+	 * 
+	 * @param isStartPosition
+	 */
+	private Model(boolean isStartPosition) {
 		boolean debug = Constants.getDebugFlag();
 		gameMode = Constants.getGameMode();
 		whitePieces = new PieceArray();
@@ -53,7 +64,10 @@ public class Model {
 		gameTree = new GameTree();
 
 		board = new Piece[8][8];
+		position = new Position();
 
+		if (!isStartPosition)
+			return;
 		
 		// Easy way to set up nonstandard positions for testing.
 		if(debug)
@@ -62,26 +76,49 @@ public class Model {
 			initializeBoard();
 		
 		populateLists();
+		position.setup(board);
+	}
+
+	/**
+	 * Creates a model of the position <code>fen</code> in Forsyth-Edwards
+	 * Notation. Returns null if the FEN can't be read; setUpFromFen tells why.
+	 * 
+	 * @param fen
+	 * @return
+	 */
+	public static Model createFromFen(String fen) {
+		Model result = new Model(false);
+		if (result.setUpFromFen(fen) != null)
+			result = null;
+		return result;
 	}
 
 	/**
-	 * Copy constructor.
+	 * Copy constructor. The pieces are copied and the piece lists rebuilt
+	 * from the copied board, so the copy can be played on (by another thread,
+	 * say) without touching the original. The move list still refers to the
+	 * original's moves.
 	 * 
 	 * @param modelIn
 	 */
 	public Model(Model modelIn) {
+		this.gameMode = modelIn.getGameMode();
+		this.gameTree = new GameTree();
 		this.board = new Piece[8][8];
 
 		for (int i = 0; i < 8; i++) {
 			for (int j = 0; j < 8; j++) {
-				this.board[i][j] = new Piece(modelIn.getBoard()[i][j]);
+				if (modelIn.getBoard()[i][j] != null)
+					this.board[i][j] = new Piece(modelIn.getBoard()[i][j]);
 			}
 		}
 
-		this.whitePieces = new PieceArray(modelIn.getWhitePieces());
-		this.blackPieces = new PieceArray(modelIn.getBlackPieces());
+		this.whitePieces = new PieceArray();
+		this.blackPieces = new PieceArray();
+		populateLists();
+		this.position = new Position(modelIn.getPosition());
 		this.moveList = new ArrayList<Move>(modelIn.getMoveList());
-
+		this.capturedPieces = new ArrayList<Piece>(modelIn.getCapturedPieces());
 	}
 
 	/**
@@ -95,6 +132,207 @@ public class Model {
 
 		initializeBoard();
 		populateLists();
+		position.setup(board);
+	}
+
+	/**
+	 * Sets the game up from a position in Forsyth-Edwards Notation, such as
+	 * "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1". The move
+	 * list and captured pieces are cleared. Fields after the piece placement
+	 * may be left off. Returns null once the position is set up. If the FEN
+	 * can't be read the model is left as it was and the reason is returned,
+	 * for the caller to report; nothing is printed, since under UCI the
+	 * standard output belongs to the protocol.
+	 * 
+	 * The board array, both piece lists and the position (bitboards and key)
+	 * are filled in together as the piece placement is read, then swapped in
+	 * once the whole FEN turned out to be valid.
+	 * 
+	 * @param fen
+	 * @return
+	 */
+	public String setUpFromFen(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		Piece[][] newBoard = new Piece[8][8];
+		PieceArray newWhitePieces = new PieceArray();
+		PieceArray newBlackPieces = new PieceArray();
+		Position newPosition = new Position();
+		String castling = fields.length > 2 ? fields[2] : "-";
+		String[] ranks = fields[0].split("/");
+
+		if (ranks.length != 8)
+			return rejectFen("expected 8 ranks");
+
+		// FEN lists rank 8 first
+		for (int i = 0; i < 8; i++) {
+			int row = 7 - i;
+			int col = 0;
+			for (char c : ranks[i].toCharArray()) {
+				if (c >= '1' && c <= '8') {
+					col += c - '0';
+					continue;
+				}
+				boolean isWhite = Character.isUpperCase(c);
+				char type = Character.toLowerCase(c);
+				PieceArray pieces = isWhite ? newWhitePieces : newBlackPieces;
+				int id = findFreeId(pieces, type);
+
+				if (col > 7 || "kqrbnp".indexOf(type) == -1 || id == -1)
+					return rejectFen("can't place '" + c + "' on rank "
+							+ (row + 1));
+
+				Piece piece = new Piece(type, isWhite, hasMovedFromFen(type,
+						isWhite, row, col, castling), row, col, id);
+				newBoard[row][col] = piece;
+				pieces.add(piece);
+				newPosition.addPiece(Bitboard.getSquare(row, col),
+						Position.getPieceIndex(piece));
+				col++;
+			}
+			if (col != 8)
+				return rejectFen("rank " + (row + 1)
+						+ " isn't 8 squares");
+		}
+
+		if (newWhitePieces.getKing() == null
+				|| newBlackPieces.getKing() == null)
+			return rejectFen("each side needs a king");
+
+		if (fields.length > 1 && !fields[1].equals("w")) {
+			if (!fields[1].equals("b"))
+				return rejectFen("side to move must be w or b");
+			newPosition.toggleSideToMove();
+		}
+
+		// Castling rights come from the kings and rooks left unmoved above,
+		// so a right whose pieces aren't at home is dropped
+		newPosition.setUpCastlingRights(newBoard);
+
+		if (fields.length > 3 && !fields[3].equals("-")) {
+			String square = fields[3];
+			int epRow = newPosition.isWhiteToMove() ? 5 : 2;
+			if (square.length() != 2 || square.charAt(0) < 'a'
+					|| square.charAt(0) > 'h'
+					|| square.charAt(1) - '1' != epRow)
+				return rejectFen("bad en passant square " + square);
+			newPosition.setEnPassantSquare(Bitboard.getSquare(epRow,
+					square.charAt(0) - 'a'));
+		}
+
+		try {
+			if (fields.length > 4)
+				newPosition.setHalfmoveClock(Integer.parseInt(fields[4]));
+			if (fields.length > 5)
+				newPosition.setFullmoveNumber(Integer.parseInt(fields[5]));
+		} catch (NumberFormatException numberFormatException) {
+			return rejectFen("move counters must be numbers");
+		}
+
+		board = newBoard;
+		whitePieces = newWhitePieces;
+		blackPieces = newBlackPieces;
+		position = newPosition;
+		capturedPieces.clear();
+		moveList.clear();
+		return null;
+	}
+
+	/**
+	 * Returns the current position in Forsyth-Edwards Notation
+	 * 
+	 * @return
+	 */
+	public String getFen() {
+		return position.toFen();
+	}
+
+	/**
+	 * Returns the message setUpFromFen gives for a FEN it can't read because
+	 * of <code>reason</code>
+	 * 
+	 * @param reason
+	 * @return
+	 */
+	private static String rejectFen(String reason) {
+		return "Can't read FEN, " + reason + ". Position not changed.";
+	}
+
+	/**
+	 * Returns the slot in <code>pieces</code> a piece of type
+	 * <code>type</code> goes in: the slot of the piece that starts the game
+	 * with that type if it is free, otherwise any free slot. The king always
+	 * gets its own slot. Returns -1 if there is no room.
+	 * 
+	 * @param pieces
+	 * @param type
+	 * @return
+	 */
+	private static int findFreeId(PieceArray pieces, char type) {
+		int[] preferredIds;
+		if (type == Constants.getKingChar())
+			return pieces.getKing() == null ? PieceArray.E_kingId : -1;
+		else if (type == Constants.getQueenChar())
+			preferredIds = new int[] { PieceArray.D_queenId };
+		else if (type == Constants.getRookChar())
+			preferredIds = new int[] { PieceArray.A_rookId, PieceArray.H_rookId };
+		else if (type == Constants.getBishopChar())
+			preferredIds = new int[] { PieceArray.C_bishopId,
+					PieceArray.F_bishopId };
+		else if (type == Constants.getKnightChar())
+			preferredIds = new int[] { PieceArray.B_knightId,
+					PieceArray.G_knightId };
+		else
+			preferredIds = new int[] { PieceArray.A_pawnId,
+					PieceArray.B_pawnId, PieceArray.C_pawnId,
+					PieceArray.D_pawnId, PieceArray.E_pawnId,
+					PieceArray.F_pawnId, PieceArray.G_pawnId,
+					PieceArray.H_pawnId };
+
+		for (int id : preferredIds)
+			if (pieces.getPiece(id) == null)
+				return id;
+		for (int id = 0; id < PieceArray.numPieces; id++)
+			if (id != PieceArray.E_kingId && pieces.getPiece(id) == null)
+				return id;
+		return -1;
+	}
+
+	/**
+	 * Works out the hasMoved flag of a piece set up from FEN. Kings and rooks
+	 * count as unmoved only if the castling field still gives them a right,
+	 * and pawns only if they are on their starting row.
+	 * 
+	 * @param type
+	 * @param isWhite
+	 * @param row
+	 * @param col
+	 * @param castling
+	 * @return
+	 */
+	private static boolean hasMovedFromFen(char type, boolean isWhite,
+			int row, int col, String castling) {
+		char kingside = isWhite ? 'K' : 'k';
+		char queenside = isWhite ? 'Q' : 'q';
+		int homeRow = isWhite ? Constants.getWhitePieceRow() : Constants
+				.getBlackPieceRow();
+		boolean result = true;
+
+		if (type == Constants.getPawnChar())
+			result = row != (isWhite ? Constants.getWhitePawnRow() : Constants
+					.getBlackPawnRow());
+		else if (row != homeRow)
+			result = true;
+		else if (type == Constants.getKingChar())
+			result = col != Constants.getKingCol()
+					|| (castling.indexOf(kingside) == -1 && castling
+							.indexOf(queenside) == -1);
+		else if (type == Constants.getRookChar()) {
+			if (col == Constants.getKingRookCol())
+				result = castling.indexOf(kingside) == -1;
+			else if (col == Constants.getQueenRookCol())
+				result = castling.indexOf(queenside) == -1;
+		}
+		return result;
 	}
 
 	/**
@@ -231,6 +469,26 @@ public class Model {
 
 	public void setBoard(Piece[][] board) {
 		this.board = board;
+		position.setup(board);
+	}
+
+	/**
+	 * Returns the bitboard version of the board. It is kept in sync with the
+	 * board array by BoardController, which every move goes through.
+	 * 
+	 * @return
+	 */
+	public Position getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the Zobrist key of the current position
+	 * 
+	 * @return
+	 */
+	public long getZobristKey() {
+		return position.getKey();
 	}
 
 	public ArrayList<Move> getMoveList() {
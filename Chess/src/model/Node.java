@@ -20,8 +20,6 @@ package model;
 
 import java.util.ArrayList;
 
-import javax.swing.tree.DefaultMutableTreeNode;
-
 public class Node {//extends DefaultMutableTreeNode{
 
 	Node parent;
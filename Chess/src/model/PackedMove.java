@@ -0,0 +1,137 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Static helpers for moves packed into a single int, so the search can keep
+ * them in preallocated int arrays instead of creating a Move object for every
+ * candidate. The layout is:
+ *
+ * <li>bits 0-5: from square
+ * <li>bits 6-11: to square
+ * <li>bits 12-15: moving piece index (Position.WHITE_PAWN ... BLACK_KING)
+ * <li>bits 16-19: captured piece index, Position.EMPTY if not a capture. For
+ * en passant this is the captured pawn even though the to square is empty.
+ * <li>bits 20-23: promotion piece index, 0 if not a promotion. 0 is a white
+ * pawn, which nothing ever promotes to.
+ * <li>bits 24-26: flags for en passant, castling and a pawn moving two squares
+ *
+ * A value of 0 (NONE) never describes a real move since its from and to
+ * squares are the same.
+ *
+ * @author Matthew
+ *
+ */
+public class PackedMove {
+
+	public final static int NONE = 0;
+
+	public final static int EN_PASSANT = 1 << 24;
+	public final static int CASTLE = 1 << 25;
+	public final static int DOUBLE_PUSH = 1 << 26;
+
+	private final static int toShift = 6;
+	private final static int pieceShift = 12;
+	private final static int capturedShift = 16;
+	private final static int promotionShift = 20;
+
+	/**
+	 * Packs the parts of a move into an int
+	 *
+	 * @param from
+	 * @param to
+	 * @param pieceIndex
+	 * @param capturedIndex
+	 * @param promotionIndex
+	 * @param flags
+	 * @return
+	 */
+	public static int encode(int from, int to, int pieceIndex,
+			int capturedIndex, int promotionIndex, int flags) {
+		return from | (to << toShift) | (pieceIndex << pieceShift)
+				| (capturedIndex << capturedShift)
+				| (promotionIndex << promotionShift) | flags;
+	}
+
+	public static int getFrom(int move) {
+		return move & 0x3F;
+	}
+
+	public static int getTo(int move) {
+		return (move >>> toShift) & 0x3F;
+	}
+
+	public static int getPiece(int move) {
+		return (move >>> pieceShift) & 0xF;
+	}
+
+	public static int getCaptured(int move) {
+		return (move >>> capturedShift) & 0xF;
+	}
+
+	public static int getPromotion(int move) {
+		return (move >>> promotionShift) & 0xF;
+	}
+
+	public static boolean isCapture(int move) {
+		return getCaptured(move) != Position.EMPTY;
+	}
+
+	public static boolean isPromotion(int move) {
+		return getPromotion(move) != 0;
+	}
+
+	public static boolean isEnPassant(int move) {
+		return (move & EN_PASSANT) != 0;
+	}
+
+	public static boolean isCastle(int move) {
+		return (move & CASTLE) != 0;
+	}
+
+	public static boolean isDoublePush(int move) {
+		return (move & DOUBLE_PUSH) != 0;
+	}
+
+	/**
+	 * Returns the move in coordinate notation, such as e2e4 or e7e8q
+	 *
+	 * @param move
+	 * @return
+	 */
+	public static String toString(int move) {
+		String result = getSquareName(getFrom(move))
+				+ getSquareName(getTo(move));
+		if (isPromotion(move))
+			result += Position.getPieceChar(Position
+					.getPieceType(getPromotion(move)));
+		return result;
+	}
+
+	/**
+	 * Returns the name of a square, such as a1 or h8
+	 *
+	 * @param square
+	 * @return
+	 */
+	public static String getSquareName(int square) {
+		return "" + (char) ('a' + Bitboard.getCol(square))
+				+ (char) ('1' + Bitboard.getRow(square));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Fixed size hash table of perft counts, indexed by Zobrist key, so perft can
+ * count a subtree it reaches again through a different move order only once.
+ *
+ * It works like the TranspositionTable: two parallel long arrays, a power of
+ * two number of entries and no locking. The data word holds the node count in
+ * its low 56 bits and the depth in the top 8, and the check word is the key
+ * XORed with the data word, so an entry torn by another thread or belonging to
+ * a different position is a miss. Every store replaces what was there.
+ *
+ * @author Matthew
+ *
+ */
+public class PerftTable {
+
+	// Bytes used by one entry, one long in each array
+	private final static int entrySize = 16;
+
+	// Layout of the data word
+	private final static int depthShift = 56;
+	private final static long countMask = (1L << depthShift) - 1;
+
+	long[] checks;
+	long[] data;
+	int mask;
+
+	/**
+	 * Creates a table using at most <code>sizeInMB</code> megabytes, rounded
+	 * down to a power of two entries
+	 *
+	 * @param sizeInMB
+	 */
+	public PerftTable(int sizeInMB) {
+		long maxEntries = Math.max(1L, (long) sizeInMB * 1024 * 1024
+				/ entrySize);
+		int entries = Integer.highestOneBit((int) Math.min(maxEntries,
+				1 << 30));
+
+		checks = new long[entries];
+		data = new long[entries];
+		mask = entries - 1;
+	}
+
+	/**
+	 * Returns the number of leaf nodes <code>depth</code> plies below the
+	 * position <code>key</code>, or -1 if it isn't in the table.
+	 *
+	 * @param key
+	 * @param depth
+	 * @return
+	 */
+	public long probe(long key, int depth) {
+		int index = (int) key & mask;
+		long dataWord = data[index];
+
+		if ((checks[index] ^ dataWord) != key
+				|| (int) (dataWord >>> depthShift) != depth)
+			return -1;
+		return dataWord & countMask;
+	}
+
+	/**
+	 * Remembers that the position <code>key</code> has <code>count</code> leaf
+	 * nodes <code>depth</code> plies below it
+	 *
+	 * @param key
+	 * @param depth
+	 * @param count
+	 */
+	public void store(long key, int depth, long count) {
+		int index = (int) key & mask;
+		long dataWord = ((long) depth << depthShift) | (count & countMask);
+
+		data[index] = dataWord;
+		checks[index] = key ^ dataWord;
+	}
+
+	/**
+	 * Empties the table without reallocating it
+	 */
+	public void clear() {
+		for (int i = 0; i < checks.length; i++) {
+			checks[i] = 0L;
+			data[i] = 0L;
+		}
+	}
+}
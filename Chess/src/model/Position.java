@@ -0,0 +1,902 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+import java.util.Arrays;
+
+import utils.Constants;
+
+/**
+ * Bitboard representation of the pieces on the board. There is one 64 bit
+ * bitboard per piece type and color (12 total), plus occupancy bitboards for
+ * each side and for the whole board. A small mailbox array remembers which
+ * piece index is on each square so a square can be cleared without searching
+ * all 12 bitboards.
+ *
+ * Move generation, attack detection and evaluation read from here instead of
+ * scanning the Piece[][] board square by square.
+ *
+ * The position also keeps a 64 bit Zobrist key (see Zobrist) covering the
+ * pieces, the side to move, castling rights and the en passant file. Adding or
+ * removing a piece XORs its number in or out, and updateState does the same
+ * for the rest, so the key is always current without being recomputed.
+ *
+ * Making a move is saveState, then moving the pieces, then updateState.
+ * Taking it back is moving the pieces back, then restoreState, which copies
+ * the old state from the UndoRecord saveState filled in.
+ *
+ * @author Matthew
+ *
+ */
+public class Position {
+
+	// Piece indices. White pieces come first, black pieces are the same type
+	// offset by 6.
+	public final static int WHITE_PAWN = 0;
+	public final static int WHITE_KNIGHT = 1;
+	public final static int WHITE_BISHOP = 2;
+	public final static int WHITE_ROOK = 3;
+	public final static int WHITE_QUEEN = 4;
+	public final static int WHITE_KING = 5;
+	public final static int BLACK_PAWN = 6;
+	public final static int BLACK_KNIGHT = 7;
+	public final static int BLACK_BISHOP = 8;
+	public final static int BLACK_ROOK = 9;
+	public final static int BLACK_QUEEN = 10;
+	public final static int BLACK_KING = 11;
+	public final static int EMPTY = 12;
+
+	public final static int PAWN = 0;
+	public final static int KNIGHT = 1;
+	public final static int BISHOP = 2;
+	public final static int ROOK = 3;
+	public final static int QUEEN = 4;
+	public final static int KING = 5;
+
+	// Castling rights bits
+	public final static int WHITE_KINGSIDE = 1;
+	public final static int WHITE_QUEENSIDE = 2;
+	public final static int BLACK_KINGSIDE = 4;
+	public final static int BLACK_QUEENSIDE = 8;
+
+	private final static int blackOffset = 6;
+
+	// Bits of castledSides
+	private final static int whiteCastled = 1;
+	private final static int blackCastled = 2;
+
+	// The castling rights that survive a move from or to each square. Only
+	// the king and rook home squares take any away.
+	private final static int[] castlingMasks = new int[64];
+
+	static {
+		Arrays.fill(castlingMasks, WHITE_KINGSIDE | WHITE_QUEENSIDE
+				| BLACK_KINGSIDE | BLACK_QUEENSIDE);
+		int whiteRow = Constants.getWhitePieceRow();
+		int blackRow = Constants.getBlackPieceRow();
+		castlingMasks[Bitboard.getSquare(whiteRow, Constants.getKingCol())] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+		castlingMasks[Bitboard.getSquare(whiteRow, Constants.getKingRookCol())] &= ~WHITE_KINGSIDE;
+		castlingMasks[Bitboard.getSquare(whiteRow, Constants.getQueenRookCol())] &= ~WHITE_QUEENSIDE;
+		castlingMasks[Bitboard.getSquare(blackRow, Constants.getKingCol())] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+		castlingMasks[Bitboard.getSquare(blackRow, Constants.getKingRookCol())] &= ~BLACK_KINGSIDE;
+		castlingMasks[Bitboard.getSquare(blackRow, Constants.getQueenRookCol())] &= ~BLACK_QUEENSIDE;
+	}
+
+	long[] pieces;
+	long whiteOccupancy;
+	long blackOccupancy;
+	long occupancy;
+	int[] mailbox;
+
+	boolean isWhiteToMove;
+	int castlingRights;
+	int enPassantSquare;
+	long key;
+
+	// Number of moves since the last capture or pawn move. No position from
+	// before then can come up again.
+	int halfmoveClock;
+
+	// The part of the key currently added for en passant. It is only added
+	// when a pawn can actually make the capture, so it is remembered here to
+	// be XORed back out exactly.
+	long enPassantKey;
+
+	// Which sides have castled, so the evaluation can reward it
+	int castledSides;
+
+	// One record per move made since setup. Their keys are every earlier
+	// position of the game, for spotting repetitions.
+	UndoRecord[] undoRecords;
+	int historyCount;
+
+	// Plies played before the position was set up, so a position loaded
+	// from FEN keeps its move number
+	int startPly;
+
+	/**
+	 * Constructor. Creates an empty board.
+	 */
+	public Position() {
+		pieces = new long[12];
+		mailbox = new int[64];
+		undoRecords = new UndoRecord[0];
+		growUndoRecords(256);
+		clear();
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param positionIn
+	 */
+	public Position(Position positionIn) {
+		this.pieces = positionIn.pieces.clone();
+		this.mailbox = positionIn.mailbox.clone();
+		this.whiteOccupancy = positionIn.whiteOccupancy;
+		this.blackOccupancy = positionIn.blackOccupancy;
+		this.occupancy = positionIn.occupancy;
+		this.isWhiteToMove = positionIn.isWhiteToMove;
+		this.castlingRights = positionIn.castlingRights;
+		this.enPassantSquare = positionIn.enPassantSquare;
+		this.key = positionIn.key;
+		this.enPassantKey = positionIn.enPassantKey;
+		this.halfmoveClock = positionIn.halfmoveClock;
+		this.castledSides = positionIn.castledSides;
+		this.undoRecords = new UndoRecord[positionIn.undoRecords.length];
+		for (int i = 0; i < undoRecords.length; i++)
+			undoRecords[i] = new UndoRecord(positionIn.undoRecords[i]);
+		this.historyCount = positionIn.historyCount;
+		this.startPly = positionIn.startPly;
+	}
+
+	/**
+	 * Removes every piece from the board and resets the state to white to
+	 * move with no castling rights.
+	 */
+	public void clear() {
+		for (int i = 0; i < pieces.length; i++)
+			pieces[i] = 0L;
+		for (int square = 0; square < 64; square++)
+			mailbox[square] = EMPTY;
+		whiteOccupancy = 0L;
+		blackOccupancy = 0L;
+		occupancy = 0L;
+		isWhiteToMove = true;
+		castlingRights = 0;
+		enPassantSquare = -1;
+		key = 0L;
+		enPassantKey = 0L;
+		halfmoveClock = 0;
+		castledSides = 0;
+		historyCount = 0;
+		startPly = 0;
+	}
+
+	/**
+	 * Rebuilds all bitboards from an 8x8 array of pieces. Castling rights
+	 * come from whether the kings and rooks on their home squares have moved.
+	 *
+	 * @param board
+	 */
+	public void setup(Piece[][] board) {
+		clear();
+		for (int row = 0; row < 8; row++)
+			for (int col = 0; col < 8; col++)
+				if (board[row][col] != null)
+					addPiece(Bitboard.getSquare(row, col),
+							getPieceIndex(board[row][col]));
+
+		setUpCastlingRights(board);
+	}
+
+	/**
+	 * Sets the castling rights from the kings and rooks in <code>board</code>
+	 * that are on their home squares and haven't moved. The pieces must
+	 * already be in the position.
+	 *
+	 * @param board
+	 */
+	public void setUpCastlingRights(Piece[][] board) {
+		setCastlingRights(computeCastlingRights(board, true)
+				| computeCastlingRights(board, false));
+	}
+
+	/**
+	 * Returns the castling rights of color <code>isWhite</code> in
+	 * <code>board</code>: the king and the rook on that side must both be on
+	 * their home squares and not have moved.
+	 *
+	 * @param board
+	 * @param isWhite
+	 * @return
+	 */
+	private static int computeCastlingRights(Piece[][] board, boolean isWhite) {
+		int result = 0;
+		int row = isWhite ? Constants.getWhitePieceRow() : Constants
+				.getBlackPieceRow();
+		Piece king = board[row][Constants.getKingCol()];
+
+		if (isUnmoved(king, Constants.getKingChar(), isWhite)) {
+			if (isUnmoved(board[row][Constants.getKingRookCol()],
+					Constants.getRookChar(), isWhite))
+				result |= getKingsideRight(isWhite);
+			if (isUnmoved(board[row][Constants.getQueenRookCol()],
+					Constants.getRookChar(), isWhite))
+				result |= getQueensideRight(isWhite);
+		}
+		return result;
+	}
+
+	private static boolean isUnmoved(Piece piece, char type, boolean isWhite) {
+		return piece != null && piece.getType() == type
+				&& piece.isWhite() == isWhite && !piece.isHasMoved();
+	}
+
+	/**
+	 * Saves the state a move is about to change and returns the record it was
+	 * saved in, so the caller can add the captured piece. Call it before any
+	 * piece moves.
+	 *
+	 * @return
+	 */
+	public UndoRecord saveState() {
+		if (historyCount == undoRecords.length)
+			growUndoRecords(historyCount * 2);
+
+		UndoRecord record = undoRecords[historyCount++];
+		record.capturedPiece = null;
+		record.castlingRights = castlingRights;
+		record.enPassantSquare = enPassantSquare;
+		record.enPassantKey = enPassantKey;
+		record.halfmoveClock = halfmoveClock;
+		record.castledSides = castledSides;
+		record.key = key;
+		return record;
+	}
+
+	/**
+	 * Updates the side to move, castling rights, en passant square and
+	 * halfmove clock once the pieces of a move from <code>from</code> to
+	 * <code>to</code> are on their new squares.
+	 *
+	 * @param from
+	 * @param to
+	 * @param isIrreversible
+	 *            true for captures and pawn moves
+	 */
+	public void updateState(int from, int to, boolean isIrreversible) {
+		int pieceType = getPieceType(mailbox[to]);
+		int distance = Math.abs(to - from);
+
+		if (isIrreversible)
+			halfmoveClock = 0;
+		else
+			halfmoveClock++;
+
+		if (pieceType == KING && distance == 2)
+			castledSides |= isWhiteToMove ? whiteCastled : blackCastled;
+
+		setCastlingRights(castlingRights & castlingMasks[from]
+				& castlingMasks[to]);
+		toggleSideToMove();
+		if (pieceType == PAWN && distance == 16)
+			setEnPassantSquare((from + to) / 2);
+		else
+			setEnPassantSquare(-1);
+	}
+
+	/**
+	 * Puts back the state saved by the last saveState. Call it once the
+	 * pieces are back where they were.
+	 */
+	public void restoreState() {
+		UndoRecord record = undoRecords[--historyCount];
+
+		isWhiteToMove = !isWhiteToMove;
+		castlingRights = record.castlingRights;
+		enPassantSquare = record.enPassantSquare;
+		enPassantKey = record.enPassantKey;
+		halfmoveClock = record.halfmoveClock;
+		castledSides = record.castledSides;
+		key = record.key;
+	}
+
+	/**
+	 * Passes the move to the other side without moving a piece, for null
+	 * move pruning. The en passant square goes, since the capture is only
+	 * possible right after the double pawn move. The halfmove clock starts
+	 * again so no repetition is found across the null move, which isn't a
+	 * legal move. Take it back with unmakeNullMove.
+	 */
+	public void makeNullMove() {
+		saveState();
+		halfmoveClock = 0;
+		toggleSideToMove();
+		setEnPassantSquare(-1);
+	}
+
+	/**
+	 * Takes back the null move made by makeNullMove
+	 */
+	public void unmakeNullMove() {
+		restoreState();
+	}
+
+	/**
+	 * Returns the record of the last move made
+	 *
+	 * @return
+	 */
+	public UndoRecord getLastUndoRecord() {
+		return undoRecords[historyCount - 1];
+	}
+
+	private void growUndoRecords(int size) {
+		int oldSize = undoRecords.length;
+		undoRecords = Arrays.copyOf(undoRecords, size);
+		for (int i = oldSize; i < size; i++)
+			undoRecords[i] = new UndoRecord();
+	}
+
+	/**
+	 * Returns true if the current position is a draw by repetition. Only
+	 * positions since the last capture or pawn move are compared, and only
+	 * every second one since the same side has to be on move.
+	 *
+	 * Positions from the actual game need to have come up twice before (a
+	 * threefold repetition). Inside the search, coming back to any position
+	 * from the last <code>searchPly</code> moves is enough: whoever repeated
+	 * it could repeat it again, so it is scored as a draw straight away.
+	 * Passing 0 gives the plain threefold rule.
+	 *
+	 * @param searchPly
+	 *            number of moves made by the search since its root
+	 * @return
+	 */
+	public boolean isDrawByRepetition(int searchPly) {
+		int oldest = Math.max(historyCount - halfmoveClock, 0);
+		int searchRoot = historyCount - searchPly;
+		int repetitions = 0;
+
+		// A position can't come back in fewer than 4 moves
+		for (int i = historyCount - 4; i >= oldest; i -= 2) {
+			if (undoRecords[i].key == key) {
+				if (i >= searchRoot)
+					return true;
+				repetitions++;
+				if (repetitions == 2)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	public void toggleSideToMove() {
+		isWhiteToMove = !isWhiteToMove;
+		key ^= Zobrist.getBlackToMoveKey();
+	}
+
+	public void setCastlingRights(int castlingRightsIn) {
+		key ^= Zobrist.getCastlingKey(castlingRights)
+				^ Zobrist.getCastlingKey(castlingRightsIn);
+		castlingRights = castlingRightsIn;
+	}
+
+	/**
+	 * Sets the square a pawn can capture en passant onto, or -1 for none.
+	 *
+	 * @param square
+	 */
+	public void setEnPassantSquare(int square) {
+		key ^= enPassantKey;
+		enPassantSquare = square;
+		enPassantKey = computeEnPassantKey();
+		key ^= enPassantKey;
+	}
+
+	/**
+	 * Returns the key for the en passant file, or 0 if there is no en passant
+	 * square or no pawn of the side to move can capture onto it. Leaving the
+	 * file out when the capture is impossible means positions that only differ
+	 * by a useless double pawn move get the same key.
+	 *
+	 * @return
+	 */
+	private long computeEnPassantKey() {
+		long result = 0L;
+		if (enPassantSquare != -1
+				&& (Bitboard.getPawnAttacks(!isWhiteToMove, enPassantSquare) & pieces[getPieceIndex(
+						PAWN, isWhiteToMove)]) != 0)
+			result = Zobrist.getEnPassantKey(Bitboard.getCol(enPassantSquare));
+		return result;
+	}
+
+	/**
+	 * Computes the Zobrist key from scratch. getKey should always return the
+	 * same value, so this is for setting up and checking positions.
+	 *
+	 * @return
+	 */
+	public long computeKey() {
+		long result = 0L;
+		for (int square = 0; square < 64; square++)
+			if (mailbox[square] != EMPTY)
+				result ^= Zobrist.getPieceSquareKey(mailbox[square], square);
+		if (!isWhiteToMove)
+			result ^= Zobrist.getBlackToMoveKey();
+		result ^= Zobrist.getCastlingKey(castlingRights);
+		result ^= computeEnPassantKey();
+		return result;
+	}
+
+	/**
+	 * Puts the piece designated by <code>pieceIndex</code> on
+	 * <code>square</code>, replacing anything that was there.
+	 *
+	 * @param square
+	 * @param pieceIndex
+	 */
+	public void addPiece(int square, int pieceIndex) {
+		if (mailbox[square] != EMPTY)
+			removePiece(square);
+
+		long bit = Bitboard.getBit(square);
+		pieces[pieceIndex] |= bit;
+		if (isWhitePiece(pieceIndex))
+			whiteOccupancy |= bit;
+		else
+			blackOccupancy |= bit;
+		occupancy |= bit;
+		mailbox[square] = pieceIndex;
+		key ^= Zobrist.getPieceSquareKey(pieceIndex, square);
+	}
+
+	/**
+	 * Clears <code>square</code>. Does nothing if the square is already empty.
+	 *
+	 * @param square
+	 */
+	public void removePiece(int square) {
+		int pieceIndex = mailbox[square];
+		if (pieceIndex != EMPTY) {
+			long bit = Bitboard.getBit(square);
+			pieces[pieceIndex] &= ~bit;
+			whiteOccupancy &= ~bit;
+			blackOccupancy &= ~bit;
+			occupancy &= ~bit;
+			mailbox[square] = EMPTY;
+			key ^= Zobrist.getPieceSquareKey(pieceIndex, square);
+		}
+	}
+
+	/**
+	 * Returns true if any piece of color <code>byWhite</code> attacks
+	 * <code>square</code>.
+	 *
+	 * @param square
+	 * @param byWhite
+	 * @return
+	 */
+	public boolean isAttacked(int square, boolean byWhite) {
+		int offset = byWhite ? 0 : blackOffset;
+
+		// A pawn of color byWhite attacks square if a pawn of the other color
+		// standing on square would attack it back
+		if ((Bitboard.getPawnAttacks(!byWhite, square) & pieces[PAWN + offset]) != 0)
+			return true;
+		if ((Bitboard.getKnightAttacks(square) & pieces[KNIGHT + offset]) != 0)
+			return true;
+		if ((Bitboard.getKingAttacks(square) & pieces[KING + offset]) != 0)
+			return true;
+
+		long queens = pieces[QUEEN + offset];
+		if ((Bitboard.getRookAttacks(square, occupancy) & (pieces[ROOK + offset] | queens)) != 0)
+			return true;
+		if ((Bitboard.getBishopAttacks(square, occupancy) & (pieces[BISHOP
+				+ offset] | queens)) != 0)
+			return true;
+
+		return false;
+	}
+
+	/**
+	 * Returns true if any piece of color <code>byWhite</code> attacks
+	 * <code>square</code> when the occupied squares are
+	 * <code>occupancyIn</code>. Used to test king moves with the king itself
+	 * lifted off the board, so it can't hide behind its own square from a
+	 * slider.
+	 *
+	 * @param square
+	 * @param byWhite
+	 * @param occupancyIn
+	 * @return
+	 */
+	public boolean isAttacked(int square, boolean byWhite, long occupancyIn) {
+		return getAttackers(square, byWhite, occupancyIn) != 0;
+	}
+
+	/**
+	 * Returns every piece of color <code>byWhite</code> that attacks
+	 * <code>square</code>, with sliders blocked by <code>occupancyIn</code>.
+	 *
+	 * @param square
+	 * @param byWhite
+	 * @param occupancyIn
+	 * @return
+	 */
+	public long getAttackers(int square, boolean byWhite, long occupancyIn) {
+		int offset = byWhite ? 0 : blackOffset;
+		long queens = pieces[QUEEN + offset];
+
+		return (Bitboard.getPawnAttacks(!byWhite, square) & pieces[PAWN + offset])
+				| (Bitboard.getKnightAttacks(square) & pieces[KNIGHT + offset])
+				| (Bitboard.getKingAttacks(square) & pieces[KING + offset])
+				| (Bitboard.getRookAttacks(square, occupancyIn) & (pieces[ROOK
+						+ offset] | queens))
+				| (Bitboard.getBishopAttacks(square, occupancyIn) & (pieces[BISHOP
+						+ offset] | queens));
+	}
+
+	/**
+	 * Returns the enemy pieces giving check to the king of color
+	 * <code>isWhite</code>.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public long getCheckers(boolean isWhite) {
+		long result = 0L;
+		int kingSquare = getKingSquare(isWhite);
+		if (kingSquare != -1)
+			result = getAttackers(kingSquare, !isWhite, occupancy);
+		return result;
+	}
+
+	/**
+	 * Returns the pieces of color <code>isWhite</code> that are pinned to
+	 * their own king: the only piece standing between the king and an enemy
+	 * rook, bishop or queen that would otherwise attack it.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public long getPinned(boolean isWhite) {
+		long result = 0L;
+		int kingSquare = getKingSquare(isWhite);
+		if (kingSquare == -1)
+			return result;
+
+		int offset = isWhite ? blackOffset : 0;
+		long queens = pieces[QUEEN + offset];
+
+		// Enemy sliders that would see the king on an empty board
+		long snipers = (Bitboard.getRookAttacks(kingSquare, 0L) & (pieces[ROOK
+				+ offset] | queens))
+				| (Bitboard.getBishopAttacks(kingSquare, 0L) & (pieces[BISHOP
+						+ offset] | queens));
+
+		while (snipers != 0) {
+			int sniper = Bitboard.getLowestSquare(snipers);
+			snipers &= snipers - 1;
+
+			long blockers = Bitboard.getBetween(kingSquare, sniper) & occupancy;
+			if (Bitboard.countBits(blockers) == 1
+					&& (blockers & getOccupancy(isWhite)) != 0)
+				result |= blockers;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the square the king of color <code>isWhite</code> is on, or -1
+	 * if there is no king on the board.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public int getKingSquare(boolean isWhite) {
+		long king = pieces[getPieceIndex(KING, isWhite)];
+		int result = -1;
+		if (king != 0)
+			result = Bitboard.getLowestSquare(king);
+		return result;
+	}
+
+	/**
+	 * Returns the castling right bit for color <code>isWhite</code> castling
+	 * kingside
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public static int getKingsideRight(boolean isWhite) {
+		return isWhite ? WHITE_KINGSIDE : BLACK_KINGSIDE;
+	}
+
+	/**
+	 * Returns the castling right bit for color <code>isWhite</code> castling
+	 * queenside
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public static int getQueensideRight(boolean isWhite) {
+		return isWhite ? WHITE_QUEENSIDE : BLACK_QUEENSIDE;
+	}
+
+	/**
+	 * Returns the piece index (WHITE_PAWN ... BLACK_KING) for the given type
+	 * and color
+	 *
+	 * @param pieceType
+	 * @param isWhite
+	 * @return
+	 */
+	public static int getPieceIndex(int pieceType, boolean isWhite) {
+		return isWhite ? pieceType : pieceType + blackOffset;
+	}
+
+	/**
+	 * Returns the piece index of a Piece object, based off of its type char
+	 * and color.
+	 *
+	 * @param piece
+	 * @return
+	 */
+	public static int getPieceIndex(Piece piece) {
+		return getPieceIndex(getPieceType(piece.getType()), piece.isWhite());
+	}
+
+	/**
+	 * Converts one of the piece chars in Constants to a piece type
+	 *
+	 * @param type
+	 * @return
+	 */
+	public static int getPieceType(char type) {
+		int result = -1;
+		if (type == Constants.getPawnChar())
+			result = PAWN;
+		else if (type == Constants.getKnightChar())
+			result = KNIGHT;
+		else if (type == Constants.getBishopChar())
+			result = BISHOP;
+		else if (type == Constants.getRookChar())
+			result = ROOK;
+		else if (type == Constants.getQueenChar())
+			result = QUEEN;
+		else if (type == Constants.getKingChar())
+			result = KING;
+		else
+			System.out.println("Position.getPieceType: Piece type '" + type
+					+ "' not recognized. Returning -1.");
+		return result;
+	}
+
+	/**
+	 * Converts a piece type back to its piece char in Constants
+	 *
+	 * @param pieceType
+	 * @return
+	 */
+	public static char getPieceChar(int pieceType) {
+		char result = Character.UNASSIGNED;
+		if (pieceType == PAWN)
+			result = Constants.getPawnChar();
+		else if (pieceType == KNIGHT)
+			result = Constants.getKnightChar();
+		else if (pieceType == BISHOP)
+			result = Constants.getBishopChar();
+		else if (pieceType == ROOK)
+			result = Constants.getRookChar();
+		else if (pieceType == QUEEN)
+			result = Constants.getQueenChar();
+		else if (pieceType == KING)
+			result = Constants.getKingChar();
+		else
+			System.out.println("Position.getPieceChar: Piece type '"
+					+ pieceType + "' not recognized.");
+		return result;
+	}
+
+	/**
+	 * Returns the type (PAWN ... KING) of a piece index
+	 *
+	 * @param pieceIndex
+	 * @return
+	 */
+	public static int getPieceType(int pieceIndex) {
+		return pieceIndex >= blackOffset ? pieceIndex - blackOffset
+				: pieceIndex;
+	}
+
+	public static boolean isWhitePiece(int pieceIndex) {
+		return pieceIndex < blackOffset;
+	}
+
+	public long getPieces(int pieceIndex) {
+		return pieces[pieceIndex];
+	}
+
+	public long getPieces(int pieceType, boolean isWhite) {
+		return pieces[getPieceIndex(pieceType, isWhite)];
+	}
+
+	public long getOccupancy(boolean isWhite) {
+		return isWhite ? whiteOccupancy : blackOccupancy;
+	}
+
+	public long getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Returns true if color <code>isWhite</code> has a knight, bishop, rook or
+	 * queen. With only pawns and the king left, zugzwang is common.
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public boolean hasPiecesOtherThanPawns(boolean isWhite) {
+		return (getOccupancy(isWhite) & ~getPieces(PAWN, isWhite) & ~getPieces(
+				KING, isWhite)) != 0;
+	}
+
+	/**
+	 * Returns the Zobrist key of the position
+	 *
+	 * @return
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	public boolean isWhiteToMove() {
+		return isWhiteToMove;
+	}
+
+	/**
+	 * Returns the number of moves made since the position was set up
+	 *
+	 * @return
+	 */
+	public int getMoveCount() {
+		return historyCount;
+	}
+
+	/**
+	 * Returns true if color <code>isWhite</code> has castled
+	 *
+	 * @param isWhite
+	 * @return
+	 */
+	public boolean hasCastled(boolean isWhite) {
+		return (castledSides & (isWhite ? whiteCastled : blackCastled)) != 0;
+	}
+
+	/**
+	 * Returns the number of moves since the last capture or pawn move
+	 *
+	 * @return
+	 */
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+
+	public void setHalfmoveClock(int halfmoveClockIn) {
+		halfmoveClock = halfmoveClockIn;
+	}
+
+	/**
+	 * Returns the number of the move being played, starting at 1 and going up
+	 * after each black move, as FEN counts them
+	 *
+	 * @return
+	 */
+	public int getFullmoveNumber() {
+		return (startPly + historyCount) / 2 + 1;
+	}
+
+	/**
+	 * Sets the move number of the position as it was set up. Set the side to
+	 * move first.
+	 *
+	 * @param fullmoveNumber
+	 */
+	public void setFullmoveNumber(int fullmoveNumber) {
+		startPly = 2 * (Math.max(1, fullmoveNumber) - 1)
+				+ (isWhiteToMove ? 0 : 1) - historyCount;
+	}
+
+	/**
+	 * Returns the position in Forsyth-Edwards Notation
+	 *
+	 * @return
+	 */
+	public String toFen() {
+		StringBuilder fen = new StringBuilder();
+
+		// Rank 8 first, a file to h file
+		for (int row = 7; row >= 0; row--) {
+			int emptySquares = 0;
+			for (int col = 0; col < 8; col++) {
+				int pieceIndex = mailbox[Bitboard.getSquare(row, col)];
+				if (pieceIndex == EMPTY) {
+					emptySquares++;
+					continue;
+				}
+				if (emptySquares > 0)
+					fen.append(emptySquares);
+				emptySquares = 0;
+
+				char c = getPieceChar(getPieceType(pieceIndex));
+				fen.append(isWhitePiece(pieceIndex) ? Character.toUpperCase(c)
+						: c);
+			}
+			if (emptySquares > 0)
+				fen.append(emptySquares);
+			if (row > 0)
+				fen.append('/');
+		}
+
+		fen.append(isWhiteToMove ? " w " : " b ");
+
+		if (castlingRights == 0)
+			fen.append('-');
+		if ((castlingRights & WHITE_KINGSIDE) != 0)
+			fen.append('K');
+		if ((castlingRights & WHITE_QUEENSIDE) != 0)
+			fen.append('Q');
+		if ((castlingRights & BLACK_KINGSIDE) != 0)
+			fen.append('k');
+		if ((castlingRights & BLACK_QUEENSIDE) != 0)
+			fen.append('q');
+
+		fen.append(' ').append(
+				enPassantSquare == -1 ? "-" : PackedMove
+						.getSquareName(enPassantSquare));
+		fen.append(' ').append(halfmoveClock);
+		fen.append(' ').append(getFullmoveNumber());
+		return fen.toString();
+	}
+
+	public int getCastlingRights() {
+		return castlingRights;
+	}
+
+	/**
+	 * Returns the square a pawn can capture en passant onto, or -1
+	 *
+	 * @return
+	 */
+	public int getEnPassantSquare() {
+		return enPassantSquare;
+	}
+
+	/**
+	 * Returns the piece index on <code>square</code>, or EMPTY
+	 *
+	 * @param square
+	 * @return
+	 */
+	public int getPieceAt(int square) {
+		return mailbox[square];
+	}
+}
@@ -0,0 +1,213 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Fixed size hash table of search results, indexed by Zobrist key. Each entry
+ * remembers the depth a position was searched to, whether the score is exact
+ * or only a bound, the score and the best move found, so the search can skip
+ * positions it reaches again through a different move order and try the best
+ * move first when it can't.
+ *
+ * Entries are kept in three parallel long arrays (nothing is allocated once
+ * the table exists) and the number of entries is a power of two so the index
+ * is the low bits of the key. Nothing is locked. Instead the first word of an
+ * entry holds the key XORed with the other two words. A reader recomputes the
+ * key from the three words it read; if another thread was writing the entry
+ * at the same time (or the entry belongs to a different position) the result
+ * doesn't match and the probe is a miss. Torn writes of a single long on a 32
+ * bit JVM are caught the same way.
+ *
+ * Every search starts a new generation. An entry is replaced when it was
+ * stored by an earlier search or when the new result is at least as deep, so
+ * the shallow results of the quiescence search don't push out deeper ones for
+ * the same position. An exact score from the main search also replaces a
+ * deeper bound for the same position.
+ *
+ * @author Matthew
+ *
+ */
+public class TranspositionTable {
+
+	// Bound types
+	public final static int EXACT = 1;
+	public final static int LOWER_BOUND = 2;
+	public final static int UPPER_BOUND = 3;
+
+	// Bytes used by one entry, one long in each array
+	private final static int entrySize = 24;
+
+	// Layout of the data word
+	private final static long moveMask = 0x7FFFFFFL;
+	private final static int depthShift = 32;
+	private final static int boundShift = 40;
+	private final static int generationShift = 48;
+
+	long[] checks;
+	long[] data;
+	long[] scores;
+	int mask;
+	int generation;
+
+	/**
+	 * Creates a table using at most <code>sizeInMB</code> megabytes
+	 *
+	 * @param sizeInMB
+	 */
+	public TranspositionTable(int sizeInMB) {
+		resize(sizeInMB);
+	}
+
+	/**
+	 * Throws away every entry and reallocates the table to use at most
+	 * <code>sizeInMB</code> megabytes, rounded down to a power of two entries.
+	 *
+	 * @param sizeInMB
+	 */
+	public void resize(int sizeInMB) {
+		long maxEntries = Math.max(1L, (long) sizeInMB * 1024 * 1024
+				/ entrySize);
+		int entries = Integer.highestOneBit((int) Math.min(maxEntries,
+				1 << 30));
+
+		checks = new long[entries];
+		data = new long[entries];
+		scores = new long[entries];
+		mask = entries - 1;
+		generation = 0;
+	}
+
+	/**
+	 * Empties the table without reallocating it
+	 */
+	public void clear() {
+		for (int i = 0; i < checks.length; i++) {
+			checks[i] = 0L;
+			data[i] = 0L;
+			scores[i] = 0L;
+		}
+		generation = 0;
+	}
+
+	/**
+	 * Marks the start of a new search. Entries from older searches are
+	 * replaced first.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	/**
+	 * Looks up <code>key</code> and copies the entry into <code>entry</code>.
+	 * Returns false if the position isn't in the table.
+	 *
+	 * @param key
+	 * @param entry
+	 * @return
+	 */
+	public boolean probe(long key, Entry entry) {
+		int index = (int) key & mask;
+		long word = data[index];
+		long score = scores[index];
+
+		if ((checks[index] ^ word ^ score) != key)
+			return false;
+
+		entry.move = (int) (word & moveMask);
+		entry.depth = (int) (word >>> depthShift) & 0xFF;
+		entry.bound = (int) (word >>> boundShift) & 0x3;
+		entry.score = Double.longBitsToDouble(score);
+		return true;
+	}
+
+	/**
+	 * Saves a search result for the position <code>key</code>, if the
+	 * replacement policy lets it overwrite what is there.
+	 *
+	 * @param key
+	 * @param depth
+	 * @param bound
+	 *            EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param score
+	 * @param move
+	 *            best move, or PackedMove.NONE if none is known
+	 */
+	public void store(long key, int depth, int bound, double score, int move) {
+		int index = (int) key & mask;
+		long oldWord = data[index];
+		boolean isSamePosition = (checks[index] ^ oldWord ^ scores[index]) == key;
+		boolean isExactUpdate = isSamePosition && bound == EXACT && depth > 0;
+
+		if (((oldWord >>> generationShift) & 0xFF) == generation
+				&& ((oldWord >>> depthShift) & 0xFF) > depth && !isExactUpdate)
+			return;
+
+		// A fail low has no best move, so keep the one found earlier
+		if (move == PackedMove.NONE && isSamePosition)
+			move = (int) (oldWord & moveMask);
+
+		long word = (move & moveMask) | ((long) depth << depthShift)
+				| ((long) bound << boundShift)
+				| ((long) generation << generationShift);
+		long scoreBits = Double.doubleToLongBits(score);
+
+		checks[index] = key ^ word ^ scoreBits;
+		data[index] = word;
+		scores[index] = scoreBits;
+	}
+
+	/**
+	 * Returns the number of entries the table holds
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		return mask + 1;
+	}
+
+	/**
+	 * One probed entry. The search keeps one of these per thread and reuses
+	 * it for every probe.
+	 *
+	 * @author Matthew
+	 *
+	 */
+	public static class Entry {
+		int move;
+		int depth;
+		int bound;
+		double score;
+
+		public int getMove() {
+			return move;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public int getBound() {
+			return bound;
+		}
+
+		public double getScore() {
+			return score;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Everything a move changes that can't be worked out again from the move
+ * itself: the piece it captured and the castling rights, en passant square,
+ * halfmove clock and Zobrist key from before it. Position keeps one of these
+ * per move made, allocated once and reused, so taking a move back just copies
+ * the old values back.
+ *
+ * @author Matthew
+ *
+ */
+public class UndoRecord {
+
+	Piece capturedPiece;
+	int castlingRights;
+	int enPassantSquare;
+	long enPassantKey;
+	int halfmoveClock;
+	int castledSides;
+	long key;
+
+	/**
+	 * Constructor
+	 */
+	public UndoRecord() {
+	}
+
+	/**
+	 * Copy constructor
+	 *
+	 * @param recordIn
+	 */
+	public UndoRecord(UndoRecord recordIn) {
+		this.capturedPiece = recordIn.capturedPiece;
+		this.castlingRights = recordIn.castlingRights;
+		this.enPassantSquare = recordIn.enPassantSquare;
+		this.enPassantKey = recordIn.enPassantKey;
+		this.halfmoveClock = recordIn.halfmoveClock;
+		this.castledSides = recordIn.castledSides;
+		this.key = recordIn.key;
+	}
+
+	public Piece getCapturedPiece() {
+		return capturedPiece;
+	}
+
+	public void setCapturedPiece(Piece capturedPiece) {
+		this.capturedPiece = capturedPiece;
+	}
+
+	public int getCastlingRights() {
+		return castlingRights;
+	}
+
+	public int getEnPassantSquare() {
+		return enPassantSquare;
+	}
+
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+
+	public long getKey() {
+		return key;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+Quiet Intrigue is a chess playing engine with GUI written in Java.
+Copyright (C) <2014>  Matthew Voss
+
+Quiet Intrigue is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Quiet Intrigue is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Quiet Intrigue.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package model;
+
+/**
+ * Random numbers for Zobrist hashing. A position's key is the XOR of one
+ * number for every piece on its square, one for black to move, one for the
+ * set of castling rights and one for the en passant file. Since XOR undoes
+ * itself, a move only has to XOR out what changed and XOR in the new values,
+ * so Position keeps its key up to date as pieces are added and removed.
+ *
+ * The numbers come from a fixed seed, so the same position gets the same key
+ * on every run.
+ *
+ * @author Matthew
+ *
+ */
+public class Zobrist {
+
+	private final static long[][] pieceSquareKeys = new long[12][64];
+	private final static long[] castlingKeys = new long[16];
+	private final static long[] enPassantKeys = new long[8];
+	private final static long blackToMoveKey;
+
+	private static long seed = 0x9E3779B97F4A7C15L;
+
+	static {
+		for (int piece = 0; piece < 12; piece++)
+			for (int square = 0; square < 64; square++)
+				pieceSquareKeys[piece][square] = nextRandom();
+
+		// Castling rights are a 4 bit set, so every combination gets its own
+		// number and changing rights is one XOR out and one XOR in
+		for (int rights = 1; rights < 16; rights++)
+			castlingKeys[rights] = nextRandom();
+
+		for (int file = 0; file < 8; file++)
+			enPassantKeys[file] = nextRandom();
+
+		blackToMoveKey = nextRandom();
+	}
+
+	public static long getPieceSquareKey(int pieceIndex, int square) {
+		return pieceSquareKeys[pieceIndex][square];
+	}
+
+	public static long getCastlingKey(int castlingRights) {
+		return castlingKeys[castlingRights];
+	}
+
+	public static long getEnPassantKey(int file) {
+		return enPassantKeys[file];
+	}
+
+	public static long getBlackToMoveKey() {
+		return blackToMoveKey;
+	}
+
+	/**
+	 * xorshift64* pseudo random number generator
+	 *
+	 * @return
+	 */
+	private static long nextRandom() {
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return seed * 2685821657736338717L;
+	}
+}
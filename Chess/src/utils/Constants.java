@@ -24,6 +24,7 @@ import model.Piece;
 public class Constants {
 	public enum GameMode{pvp,pvc,cvp,cvc}
 	public enum LogLevel{INFO,DEBUG,ERROR}
+	public enum ParallelSearch{LAZY_SMP,YBW}
 
 	// Weights
 	private final static int pawnWeight = 1;
@@ -38,6 +39,18 @@ public class Constants {
 	private  static double materialScoreWeight = .89;
 	private  static double bonusScoreWeight = .1;
 	
+	// Frontier pruning margins, in pawns per ply left to the horizon, and
+	// how far from the horizon each applies. Futility skips quiet moves at
+	// nodes that far below alpha, reverse futility cuts off nodes that far
+	// above beta, and razoring drops nodes that far below alpha into the
+	// quiescence search.
+	private final static double futilityMargin = 1.5;
+	private final static int futilityDepth = 2;
+	private final static double reverseFutilityMargin = 1.5;
+	private final static int reverseFutilityDepth = 3;
+	private final static double razoringMargin = 3;
+	private final static int razoringDepth = 2;
+	
 	// Row, Column Constants
 	private final static int blackPieceRow = 7;
 	private final static int whitePieceRow = 0;
@@ -101,6 +114,53 @@ public class Constants {
 	private static final String openingGameText = "Welcome to the Quiet Intrique chess engine.";
 	private final static double killerMoveScore = -0.1;
 	private final static int nullMoveReduction = 2;
+	private final static int maxMovesPerPosition = 256;
+	private final static int maxSearchPly = 64;
+	private static int defaultHashSize = 16;
+	private static int hashSize = defaultHashSize;
+	private final static int maxHashSize = 4096;
+	private static int defaultMoveTime = 10000;
+	private static int moveTime = defaultMoveTime;
+	private final static int nodesBetweenLimitChecks = 1024;
+	private static int defaultThreads = 1;
+	private static int threads = defaultThreads;
+	private final static int maxThreads = 64;
+	
+	// Parallel search constants. YBW splits nodes at least minSplitDepth
+	// plies from the horizon, and each split task stores its results in a
+	// hash table of splitHashSize MB.
+	private static ParallelSearch defaultParallelSearch = ParallelSearch.LAZY_SMP;
+	private static ParallelSearch parallelSearch = defaultParallelSearch;
+	private final static int minSplitDepth = 5;
+	private final static int splitHashSize = 1;
+	
+	// Aspiration windows. From minAspirationDepth on, each iteration first
+	// searches aspirationWindow either side of the last score. The failing
+	// side is widened by a doubling step on every fail, and the window is
+	// opened fully on the maxAspirationWidenings-th fail.
+	private final static int minAspirationDepth = 4;
+	private final static double aspirationWindow = 0.25;
+	private final static int maxAspirationWidenings = 4;
+	
+	// Null move pruning. The null move is searched nullMoveReduction plies
+	// shallower than a real move, one more above nullMoveAdaptiveDepth.
+	// From nullMoveVerificationDepth on, a null move cutoff is only taken
+	// once a reduced search of the real moves confirms it.
+	private final static int nullMoveAdaptiveDepth = 6;
+	private final static int nullMoveVerificationDepth = 6;
+	
+	// Late move reductions and pruning. From lateMoveReductionDepth on,
+	// quiet moves after the first lateMoveReductionMoves are searched
+	// lateMoveReductionBase + ln(depth) * ln(move number) /
+	// lateMoveReductionDivisor plies shallower. Up to lateMovePruningDepth,
+	// zero window nodes skip quiet moves after lateMovePruningMoves +
+	// depth * depth moves.
+	private final static int lateMoveReductionDepth = 3;
+	private final static int lateMoveReductionMoves = 3;
+	private final static double lateMoveReductionBase = 0.75;
+	private final static double lateMoveReductionDivisor = 2.25;
+	private final static int lateMovePruningDepth = 3;
+	private final static int lateMovePruningMoves = 3;
 	
 	public static int getPieceWeight(Piece piece){
 		int result = 0;
@@ -156,6 +216,155 @@ public class Constants {
 		return nullMoveReduction;
 	}
 
+	public static int getNullMoveAdaptiveDepth() {
+		return nullMoveAdaptiveDepth;
+	}
+
+	public static int getNullMoveVerificationDepth() {
+		return nullMoveVerificationDepth;
+	}
+
+	public static int getLateMoveReductionDepth() {
+		return lateMoveReductionDepth;
+	}
+
+	public static int getLateMoveReductionMoves() {
+		return lateMoveReductionMoves;
+	}
+
+	public static double getLateMoveReductionBase() {
+		return lateMoveReductionBase;
+	}
+
+	public static double getLateMoveReductionDivisor() {
+		return lateMoveReductionDivisor;
+	}
+
+	public static int getLateMovePruningDepth() {
+		return lateMovePruningDepth;
+	}
+
+	public static int getLateMovePruningMoves() {
+		return lateMovePruningMoves;
+	}
+
+	public static int getMaxMovesPerPosition() {
+		return maxMovesPerPosition;
+	}
+
+	public static int getMaxSearchPly() {
+		return maxSearchPly;
+	}
+
+	/**
+	 * Returns the size of the transposition table in megabytes new engines
+	 * start with. Each engine's own setting is in its EngineOptions.
+	 * 
+	 * @return
+	 */
+	public static int getHashSize() {
+		return hashSize;
+	}
+
+	public static void setHashSize(int hashSizeIn) {
+		hashSize = hashSizeIn;
+	}
+
+	public static int getDefaultHashSize() {
+		return defaultHashSize;
+	}
+
+	public static int getMaxHashSize() {
+		return maxHashSize;
+	}
+
+	/**
+	 * Returns the most milliseconds the GUI's searches may take in new
+	 * engines, 0 for no limit
+	 * 
+	 * @return
+	 */
+	public static int getMoveTime() {
+		return moveTime;
+	}
+
+	public static void setMoveTime(int moveTimeIn) {
+		moveTime = moveTimeIn;
+	}
+
+	public static int getDefaultMoveTime() {
+		return defaultMoveTime;
+	}
+
+	/**
+	 * Returns how many nodes the search visits between checks of its time
+	 * and node limits. A power of two.
+	 * 
+	 * @return
+	 */
+	public static int getNodesBetweenLimitChecks() {
+		return nodesBetweenLimitChecks;
+	}
+
+	/**
+	 * Returns the number of threads new engines start with
+	 * 
+	 * @return
+	 */
+	public static int getThreads() {
+		return threads;
+	}
+
+	public static void setThreads(int threadsIn) {
+		threads = threadsIn;
+	}
+
+	public static int getDefaultThreads() {
+		return defaultThreads;
+	}
+
+	public static int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public static ParallelSearch getParallelSearch() {
+		return parallelSearch;
+	}
+
+	public static void setParallelSearch(ParallelSearch parallelSearchIn) {
+		parallelSearch = parallelSearchIn;
+	}
+
+	public static ParallelSearch getDefaultParallelSearch() {
+		return defaultParallelSearch;
+	}
+
+	public static int getMinSplitDepth() {
+		return minSplitDepth;
+	}
+
+	public static int getSplitHashSize() {
+		return splitHashSize;
+	}
+
+	public static int getMinAspirationDepth() {
+		return minAspirationDepth;
+	}
+
+	/**
+	 * Returns how far either side of the last iteration's score the first
+	 * aspiration window reaches, in evaluation units (a pawn is about 0.9)
+	 * 
+	 * @return
+	 */
+	public static double getAspirationWindow() {
+		return aspirationWindow;
+	}
+
+	public static int getMaxAspirationWidenings() {
+		return maxAspirationWidenings;
+	}
+
 	public static int getEarlyQueenPenaltyWeight(){
 		return earlyQueenPenaltyWeight;
 	}
@@ -214,6 +423,30 @@ public class Constants {
 		return bonusScoreWeight;
 	}
 
+	public static double getFutilityMargin() {
+		return futilityMargin;
+	}
+
+	public static int getFutilityDepth() {
+		return futilityDepth;
+	}
+
+	public static double getReverseFutilityMargin() {
+		return reverseFutilityMargin;
+	}
+
+	public static int getReverseFutilityDepth() {
+		return reverseFutilityDepth;
+	}
+
+	public static double getRazoringMargin() {
+		return razoringMargin;
+	}
+
+	public static int getRazoringDepth() {
+		return razoringDepth;
+	}
+
 
 	public static int getDepth() {
 		return depth;